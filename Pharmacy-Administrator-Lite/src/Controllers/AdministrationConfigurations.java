@@ -2,6 +2,7 @@ package Controllers;
 
 import Models.Employee;
 import Models.EmployeeActions;
+import Models.Session;
 import Views.Administration;
 import Views.Login;
 import java.awt.Color;
@@ -18,10 +19,12 @@ public class AdministrationConfigurations implements MouseListener, ActionListen
 
     private final Administration administration; // The administration view instance
     private final EmployeeActions employeeActions; // Handles employee-related actions
+    private final Session session; // Login of the employee using the view
 
-    public AdministrationConfigurations(Administration administration, EmployeeActions employeeActions) {
+    public AdministrationConfigurations(Administration administration, EmployeeActions employeeActions, Session session) {
         this.administration = administration;
         this.employeeActions = employeeActions;
+        this.session = session;
         // Adding MouseListeners to various labels in the administration view
         addMouseListeners();
         // Adding ActionListeners to buttons in the administration view
@@ -121,6 +124,7 @@ public class AdministrationConfigurations implements MouseListener, ActionListen
 
     private void handleBackButton() {
         try {
+            employeeActions.logout(session); // End the session of this view
             // Create a new Login instance and display it
             Login login = new Login();
             login.btnRegister.setEnabled(false); // Disable register button
@@ -140,20 +144,22 @@ public class AdministrationConfigurations implements MouseListener, ActionListen
             JOptionPane.showMessageDialog(null, "Please fill in all fields.");
         } else if (administration.txtEmployeePasswordConfiguration.getText()
                 .equals(administration.txtEmployeePasswordConfirm.getText()) && employeeActions
-                .modifyPassword(Integer.parseInt(administration.txtEmployeeIDConfigurations.getText()),
-                        administration.txtEmployeePasswordConfirm.getText())) {
+                .modifyPassword(session, administration.txtEmployeePasswordConfirm.getText())) {
             cleanFields(); // Clear password fields after successful change
             JOptionPane.showMessageDialog(null, "Password successfully modified."); // Success message
         }
     }
 
     private void handleChangePersonalData() {
-        // Update the current employee's personal data
-        Employee employee = employeeActions.getCurrentEmployee();
-        employee.setEmployeeName(administration.txtEmployeeNameConfigurations.getText().trim()); // Set name
-        employee.setEmployeeEmail(administration.txtEmployeeEmailConfigurations.getText().trim().toLowerCase()); // Set email
-        employee.setEmployeeAddress(administration.txtEmployeeAddressConfigurations.getText().trim()); // Set address
-        JOptionPane.showMessageDialog(null, "Successful changes"); // Success message
+        // Update the personal data of the employee of the session
+        if (employeeActions.modifyPersonalData(session,
+                administration.txtEmployeeNameConfigurations.getText().trim(), // Set name
+                administration.txtEmployeeEmailConfigurations.getText().trim().toLowerCase(), // Set email
+                administration.txtEmployeeAddressConfigurations.getText().trim())) { // Set address
+            JOptionPane.showMessageDialog(null, "Successful changes"); // Success message
+        } else {
+            JOptionPane.showMessageDialog(null, "Email already in use."); // Another employee has this email
+        }
     }
 
     private void cleanFields() {
@@ -163,8 +169,8 @@ public class AdministrationConfigurations implements MouseListener, ActionListen
     }
 
     private void makeProfile() {
-        // Initialize the profile view with the current employee's information
-        Employee employee = employeeActions.getCurrentEmployee();
+        // Initialize the profile view with the information of the employee of the session
+        Employee employee = session.getEmployee();
         administration.lblEmployeeNameUser.setText(employee.getEmployeeUser()); // Set username label
         administration.lblEmployeeRol.setText(employee.getEmployeeRol()); // Set role label
         administration.txtEmployeeIDConfigurations.setText(String.valueOf(employee.getEmployeeID())); // Set ID
@@ -2,7 +2,8 @@ package Controllers;
 
 import Models.Category;
 import Models.CategoryActions;
-import Models.EmployeeActions;
+import Models.Permission;
+import Models.Session;
 import Views.Administration;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
@@ -12,23 +13,33 @@ import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.swing.JOptionPane;
-import javax.swing.table.DefaultTableModel;
 
 public class CategoryController implements ActionListener, MouseListener {
 
     private final Administration administration; // The administration view instance
     private final CategoryActions categoryActions; // Handles actions related to categories
-    private final EmployeeActions employeeActions; // Handles actions related to employees
-    private DefaultTableModel model; // Table model for the categories table
+    private final Session session; // Login of the employee using the view
+    private long categoryVersion; // Version of the category shown in the form, checked when it is saved
+    private final EntityTableModel<Category> categoryModel; // Rows of the category table, read from the listed categories
 
-    public CategoryController(Administration administration, CategoryActions categoryActions, EmployeeActions employeeActions) {
+    public CategoryController(Administration administration, CategoryActions categoryActions, Session session) {
         this.administration = administration;
         this.categoryActions = categoryActions;
-        this.employeeActions = employeeActions;
+        this.session = session;
+        this.categoryModel = EntityTableModel.install(administration.categoryTable, Category::getCategoryID,
+                (category, column) -> column == 0 ? category.getCategoryID() : category.getCategoryName());
+        // The product category combo box lists the same categories as the table
+        EntityComboModel.install(administration.cmbProductsCategories, categoryModel, Category::getCategoryName,
+                categoryActions::searchCategoryByID, new Category());
         // Add action listeners to buttons
         addActionListeners();
         // Add mouse listeners to components
         addMouseListeners();
+        if (isUserAuthorized()) {
+            // Apply the writes of categories to their rows; the table lists them all, without a search
+            TableSync.install(administration, categoryActions.changes(), categoryModel, Integer.MAX_VALUE,
+                    () -> "", Category::getCategoryName, category -> true, this::loadCategories);
+        }
     }
 
     private void addActionListeners() {
@@ -56,32 +67,22 @@ public class CategoryController implements ActionListener, MouseListener {
         administration.txtCategoryName.setText("");
     }
 
-    private void cleanTableAndCmb() {
-        // Clear the category table and combo box
-        model = (DefaultTableModel) administration.categoryTable.getModel();
-        while (model.getRowCount() > 0) {
-            model.removeRow(0); // Remove all rows from the table
-        }
-        administration.cmbProductsCategories.removeAllItems(); // Clear combo box items
-    }
-
     public void loadCategories() {
         // Load categories if the user is an Administrator or Owner
         if (isUserAuthorized()) {
-            Map<Integer, Category> categories = categoryActions.listCategories(); // Get the list of categories
-            model = (DefaultTableModel) administration.categoryTable.getModel();
-            for (Category category : categories.values()) {
-                Object[] row = {category.getCategoryID(), category.getCategoryName()}; // Create a row for the table
-                model.addRow(row); // Add row to the table model
-                administration.cmbProductsCategories.addItem(category.getCategoryName() + " (" + category.getCategoryID() + ")"); // Add category to combo box
-            }
+            // Read and build off the event thread, replacing the previous rows
+            TableLoader.load(categoryModel, rows -> {
+                Map<Integer, Category> categories = categoryActions.listCategories(); // Get the list of categories
+                for (Category category : categories.values()) {
+                    rows.add(category); // Add the category to the table
+                }
+            });
         }
     }
 
     private boolean isUserAuthorized() {
-        // Check if the current employee has the required role (Administrator or Owner)
-        String role = employeeActions.getCurrentEmployee().getEmployeeRol();
-        return role.equals("Administrator") || role.equals("Owner");
+        // Check if the employee of the session may manage categories (Administrator or Owner)
+        return session.can(Permission.MANAGE_CATEGORIES);
     }
 
     private void registerCategory() {
@@ -90,10 +91,12 @@ public class CategoryController implements ActionListener, MouseListener {
             if (!categoryActions.isCategoryNameUnique(categoryName)) {
                 // Show error message if the category name is not unique
                 JOptionPane.showMessageDialog(null, "Name already in use.");
-            } else {
-                categoryActions.addCategory(categoryName); // Add the new category
+            } else if (categoryActions.addCategory(categoryName)) { // Add the new category
                 refreshCategoryData(); // Refresh the category data in the view
                 JOptionPane.showMessageDialog(null, "Category registered successfully."); // Success message
+            } else {
+                // Another registration took the name in the meantime
+                JOptionPane.showMessageDialog(null, "Name already in use.");
             }
         } catch (Exception ex) {
             handleException(ex, "An error occurred during the process."); // Handle any exceptions
@@ -107,18 +110,37 @@ public class CategoryController implements ActionListener, MouseListener {
             if (!categoryActions.isCategoryNameUnique(categoryName) && !categoryName.equalsIgnoreCase(currentCategoryName)) {
                 // Show error message if the category name is not unique and differs from the current name
                 JOptionPane.showMessageDialog(null, "Name already in use.");
-            } else {
-                int categoryId = Integer.parseInt(administration.txtCategoryID.getText()); // Get the category ID
-                categoryActions.modifyCategory(categoryId, categoryName); // Modify the category
+            } else if (categoryActions.modifyCategory(Integer.parseInt(administration.txtCategoryID.getText()), categoryVersion, categoryName)) { // Modify the category
                 refreshCategoryData(); // Refresh the category data in the view
                 administration.btnCategoryRegister.setEnabled(true); // Enable the register button
                 JOptionPane.showMessageDialog(null, "Category successfully modified."); // Success message
+            } else if (categoryActions.versionOf(Integer.parseInt(administration.txtCategoryID.getText())) != categoryVersion) {
+                // Someone else saved this category since the form was filled
+                Integer categoryID = Integer.parseInt(administration.txtCategoryID.getText());
+                refreshCategoryData();
+                showCategory(categoryID);
+                JOptionPane.showMessageDialog(null, "The category was changed by someone else in the meantime.\nThe form now shows its current data, please apply your changes again.");
+            } else {
+                // Another category took the name in the meantime
+                JOptionPane.showMessageDialog(null, "Name already in use.");
             }
         } catch (Exception ex) {
             handleException(ex, "An error occurred during the process."); // Handle any exceptions
         }
     }
 
+    private void showCategory(Integer categoryID) {
+        // Fill the form from the stored category, reading its version first so a later change is detected
+        categoryVersion = categoryActions.versionOf(categoryID);
+        Category category = categoryActions.searchCategoryByID(categoryID);
+        if (category == null) {
+            return;
+        }
+        administration.txtCategoryID.setText(String.valueOf(category.getCategoryID())); // Set category ID
+        administration.txtCategoryName.setText(category.getCategoryName()); // Set category name
+        administration.btnCategoryRegister.setEnabled(false); // Disable the register button
+    }
+
     private void deleteCategory() {
         try {
             int categoryId = Integer.parseInt(administration.txtCategoryID.getText()); // Get the category ID
@@ -133,10 +155,8 @@ public class CategoryController implements ActionListener, MouseListener {
     }
 
     private void refreshCategoryData() {
-        // Refresh the category table and fields
-        cleanTableAndCmb(); // Clear the table and combo box
+        // Clear the fields; the rows follow the write through the change bus
         cleanFields(); // Clear the input fields
-        loadCategories(); // Load the categories again
     }
 
     private void handleException(Exception ex, String message) {
@@ -182,9 +202,7 @@ public class CategoryController implements ActionListener, MouseListener {
         // Handle mouse click events on the category table
         if (e.getSource() == administration.categoryTable) {
             int row = administration.categoryTable.rowAtPoint(e.getPoint()); // Get the clicked row
-            administration.txtCategoryID.setText(administration.categoryTable.getValueAt(row, 0).toString()); // Set category ID
-            administration.txtCategoryName.setText(administration.categoryTable.getValueAt(row, 1).toString()); // Set category name
-            administration.btnCategoryRegister.setEnabled(false); // Disable the register button
+            showCategory((Integer) administration.categoryTable.getValueAt(row, 0));
         } else if (e.getSource() == administration.lblCategories) {
             // Change the tab to categories if the user is authorized
             if (isUserAuthorized()) {
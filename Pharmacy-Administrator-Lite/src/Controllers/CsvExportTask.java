@@ -0,0 +1,76 @@
+package Controllers;
+
+import Models.CsvExporter;
+import java.awt.Component;
+import java.io.File;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.swing.JFileChooser;
+import javax.swing.JMenuItem;
+import javax.swing.JOptionPane;
+import javax.swing.JPopupMenu;
+import javax.swing.JTable;
+import javax.swing.ProgressMonitor;
+import javax.swing.SwingWorker;
+import javax.swing.filechooser.FileNameExtensionFilter;
+
+// Exports a store to a CSV file off the event thread, showing its progress and a summary at the end
+final class CsvExportTask extends SwingWorker<CsvExporter.Result, Void> {
+
+    private final Path file; // File being written
+    private final CsvExporter.Source source; // Data being exported
+    private final ProgressMonitor monitor; // Progress dialog, also used to cancel
+
+    private CsvExportTask(Component parent, Path file, CsvExporter.Source source) {
+        this.file = file;
+        this.source = source;
+        this.monitor = new ProgressMonitor(parent, "Exporting to " + file.getFileName(), "", 0, 100);
+        addPropertyChangeListener(event -> {
+            if ("progress".equals(event.getPropertyName())) {
+                monitor.setProgress((Integer) event.getNewValue());
+            }
+        });
+    }
+
+    // Add an "Export CSV..." entry to the context menu of the table
+    static void install(JTable table, CsvExporter.Source source) {
+        JMenuItem exportItem = new JMenuItem("Export CSV...");
+        exportItem.addActionListener(e -> {
+            JFileChooser chooser = new JFileChooser();
+            chooser.setFileFilter(new FileNameExtensionFilter("CSV files", "csv"));
+            chooser.setSelectedFile(new File(source.name().toLowerCase() + ".csv"));
+            if (chooser.showSaveDialog(table) == JFileChooser.APPROVE_OPTION) {
+                new CsvExportTask(table, chooser.getSelectedFile().toPath(), source).execute();
+            }
+        });
+        JPopupMenu popup = table.getComponentPopupMenu();
+        if (popup == null) {
+            popup = new JPopupMenu();
+            table.setComponentPopupMenu(popup);
+        }
+        popup.add(exportItem);
+    }
+
+    @Override
+    protected CsvExporter.Result doInBackground() throws Exception {
+        return CsvExporter.exportFile(file, source, (written, total) -> {
+            setProgress(total == 0 ? 100 : (int) Math.min(100, written * 100 / total));
+            return !monitor.isCanceled();
+        });
+    }
+
+    @Override
+    protected void done() {
+        monitor.close();
+        try {
+            CsvExporter.Result result = get();
+            JOptionPane.showMessageDialog(null, result.stopped() ? "Export cancelled."
+                    : result.rows() + " rows exported to:\n" + file);
+        } catch (InterruptedException | ExecutionException ex) {
+            Logger.getLogger(CsvExportTask.class.getName()).log(Level.SEVERE, null, ex);
+            JOptionPane.showMessageDialog(null, "The file could not be exported.");
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package Controllers;
+
+import Models.CsvImporter;
+import java.awt.Component;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.swing.JFileChooser;
+import javax.swing.JMenuItem;
+import javax.swing.JOptionPane;
+import javax.swing.JPopupMenu;
+import javax.swing.JTable;
+import javax.swing.ProgressMonitor;
+import javax.swing.SwingWorker;
+import javax.swing.filechooser.FileNameExtensionFilter;
+
+// Imports a CSV file off the event thread, showing its progress and a summary at the end
+final class CsvImportTask extends SwingWorker<CsvImporter.Result, Void> {
+
+    private final Path file; // File being imported
+    private final CsvImporter.Target target; // Store receiving the rows
+    private final ProgressMonitor monitor; // Progress dialog, also used to cancel
+    private final Runnable refresh; // Reloads the table once the rows are stored
+
+    private CsvImportTask(Component parent, Path file, CsvImporter.Target target, Runnable refresh) {
+        this.file = file;
+        this.target = target;
+        this.refresh = refresh;
+        this.monitor = new ProgressMonitor(parent, "Importing " + file.getFileName(), "", 0, 100);
+        addPropertyChangeListener(event -> {
+            if ("progress".equals(event.getPropertyName())) {
+                monitor.setProgress((Integer) event.getNewValue());
+            }
+        });
+    }
+
+    // Add an "Import CSV..." entry to the context menu of the table
+    static void install(JTable table, CsvImporter.Target target, Runnable refresh) {
+        JMenuItem importItem = new JMenuItem("Import CSV...");
+        importItem.addActionListener(e -> {
+            JFileChooser chooser = new JFileChooser();
+            chooser.setFileFilter(new FileNameExtensionFilter("CSV files", "csv"));
+            if (chooser.showOpenDialog(table) == JFileChooser.APPROVE_OPTION) {
+                new CsvImportTask(table, chooser.getSelectedFile().toPath(), target, refresh).execute();
+            }
+        });
+        JPopupMenu popup = table.getComponentPopupMenu();
+        if (popup == null) {
+            popup = new JPopupMenu();
+            table.setComponentPopupMenu(popup);
+        }
+        popup.add(importItem);
+    }
+
+    @Override
+    protected CsvImporter.Result doInBackground() throws Exception {
+        return CsvImporter.importFile(file, target, (bytesRead, totalBytes, imported, rejected) -> {
+            setProgress(totalBytes == 0 ? 100 : (int) (bytesRead * 100 / totalBytes));
+            return !monitor.isCanceled();
+        });
+    }
+
+    @Override
+    protected void done() {
+        monitor.close();
+        refresh.run(); // Batches stored before a failure or a cancellation are shown too
+        try {
+            CsvImporter.Result result = get();
+            String message = (result.stopped() ? "Import cancelled.\n" : "Import finished.\n")
+                    + result.imported() + " rows imported, " + result.rejected() + " rows rejected.";
+            if (result.rejectedReport() != null) {
+                message += "\nThe rejected rows are listed in:\n" + result.rejectedReport();
+            }
+            JOptionPane.showMessageDialog(null, message);
+        } catch (InterruptedException | ExecutionException ex) {
+            Logger.getLogger(CsvImportTask.class.getName()).log(Level.SEVERE, null, ex);
+            JOptionPane.showMessageDialog(null, "The file could not be imported.");
+        }
+    }
+}
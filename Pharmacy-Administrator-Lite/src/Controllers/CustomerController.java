@@ -1,5 +1,7 @@
 package Controllers;
 
+import Models.CsvExporter;
+import Models.CsvImporter;
 import Models.Customer;
 import Models.CustomerActions;
 import Views.Administration;
@@ -13,23 +15,35 @@ import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.swing.JOptionPane;
-import javax.swing.table.DefaultTableModel;
 
 public class CustomerController implements ActionListener, MouseListener, KeyListener {
 
     private final Administration administration; // The administration view instance
     private final CustomerActions customerActions; // Handles actions related to customers
-    private DefaultTableModel model; // Table model for the customers table
+    private static final int SEARCH_LIMIT = 500; // Most rows listed for a name prefix
+    private long customerVersion; // Version of the customer shown in the form, checked when it is saved
+    private final EntityTableModel<Customer> customerModel; // Rows of the customer table, read from the listed customers
+    private final SearchDelay search = new SearchDelay(this::loadCustomers); // Loads the rows once the search typing pauses
 
     public CustomerController(Administration administration, CustomerActions customerActions) {
         this.administration = administration;
         this.customerActions = customerActions;
+        this.customerModel = EntityTableModel.install(administration.customersTable, Customer::getCustomerID, this::customerValue);
+        // The purchase customer combo box lists the same customers as the table
+        EntityComboModel.install(administration.cmbPurchasesCustomer, customerModel, Customer::getCustomerName,
+                customerActions::searchCustomerByID, new Customer());
         // Add action listeners to buttons
         addActionListeners();
         // Add mouse listeners to components
         addMouseListeners();
         // Add key listeners to search field
         addKeyListeners();
+        // Offer a CSV import and export in the context menu of the table
+        CsvImportTask.install(administration.customersTable, CsvImporter.Target.CUSTOMERS, this::loadCustomers);
+        CsvExportTask.install(administration.customersTable, CsvExporter.Source.CUSTOMERS);
+        // Apply the writes of customers to their rows
+        TableSync.install(administration, customerActions.changes(), customerModel, SEARCH_LIMIT,
+                this::searchPrefix, Customer::getCustomerName, customer -> true, this::loadCustomers);
     }
 
     private void addActionListeners() {
@@ -68,30 +82,30 @@ public class CustomerController implements ActionListener, MouseListener, KeyLis
                 || administration.txtCustomerTelephone.getText().isBlank();
     }
 
-    private void cleanTableAndCmb() {
-        // Clear the customer table and combo box
-        model = (DefaultTableModel) administration.customersTable.getModel();
-        while (model.getRowCount() > 0) {
-            model.removeRow(0); // Remove all rows from the table
-        }
-        administration.cmbPurchasesCustomer.removeAllItems(); // Clear combo box items
+    private String searchPrefix() {
+        return customerActions.nameAdditionalValidation(administration.txtSearchCustomer.getText().trim());
+    }
+
+    private Object customerValue(Customer value, int column) {
+        // ID, name, address, telephone and email, read when the cell is painted
+        return switch (column) {
+            case 0 -> value.getCustomerID();
+            case 1 -> value.getCustomerName();
+            case 2 -> value.getCustomerAddress();
+            case 3 -> value.getCustomerTelephone();
+            default -> value.getCustomerEmail();
+        };
     }
 
     public void loadCustomers() {
-        // Load customers from the database and display in table and combo box
-        Map<Integer, Customer> customers = customerActions.listCustomers(customerActions.nameAdditionalValidation(administration.txtSearchCustomer.getText().trim()));
-        model = (DefaultTableModel) administration.customersTable.getModel();
-        Object[] row = new Object[5]; // Array to hold customer data for a row
-        for (Map.Entry<Integer, Customer> entry : customers.entrySet()) {
-            Customer value = entry.getValue();
-            row[0] = value.getCustomerID(); // Customer ID
-            row[1] = value.getCustomerName(); // Customer Name
-            row[2] = value.getCustomerAddress(); // Customer Address
-            row[3] = value.getCustomerTelephone(); // Customer Telephone
-            row[4] = value.getCustomerEmail(); // Customer Email
-            model.addRow(row); // Add row to the table model
-            administration.cmbPurchasesCustomer.addItem(row[1] + " (" + row[0] + ")"); // Add customer to combo box
-        }
+        // Load customers from the database and display in table and combo box, replacing the previous rows
+        String prefix = searchPrefix();
+        TableLoader.load(customerModel, rows -> {
+            Map<Integer, Customer> customers = customerActions.listCustomersStartingWith(prefix, SEARCH_LIMIT);
+            for (Customer value : customers.values()) {
+                rows.add(value);
+            }
+        });
     }
 
     private void deleteCustomer() {
@@ -123,13 +137,15 @@ public class CustomerController implements ActionListener, MouseListener, KeyLis
             else if (!customerActions.isTelephoneUnique(administration.txtCustomerTelephone.getText().trim())) {
                 JOptionPane.showMessageDialog(null, "Telephone already in use.");
             } // Add customer if all validations pass
-            else {
-                customerActions.addCustomer(customerActions.nameAdditionalValidation(administration.txtCustomerName.getText().trim()),
-                        administration.txtCustomerMail.getText().trim().toLowerCase(),
-                        administration.txtCustomerAddress.getText().trim(),
-                        administration.txtCustomerTelephone.getText().trim());
+            else if (customerActions.addCustomer(customerActions.nameAdditionalValidation(administration.txtCustomerName.getText().trim()),
+                    administration.txtCustomerMail.getText().trim().toLowerCase(),
+                    administration.txtCustomerAddress.getText().trim(),
+                    administration.txtCustomerTelephone.getText().trim())) {
                 refreshCustomerData(); // Refresh customer data in the view
                 JOptionPane.showMessageDialog(null, "Customer registered successfully."); // Success message
+            } // Another registration took the email or telephone in the meantime
+            else {
+                JOptionPane.showMessageDialog(null, "Email or telephone already in use.");
             }
         } catch (Exception ex) {
             handleException(ex, "An error occurred during the process."); // Handle exceptions
@@ -156,7 +172,7 @@ public class CustomerController implements ActionListener, MouseListener, KeyLis
                     && !administration.txtCustomerTelephone.getText().trim().equalsIgnoreCase(currentTelephone)) {
                 JOptionPane.showMessageDialog(null, "Telephone already in use.");
             } // Modify customer if all validations pass
-            else if (customerActions.modifyCustomer(Integer.valueOf(administration.txtCustomerID.getText()),
+            else if (customerActions.modifyCustomer(Integer.valueOf(administration.txtCustomerID.getText()), customerVersion,
                     customerActions.nameAdditionalValidation(administration.txtCustomerName.getText().trim()),
                     administration.txtCustomerMail.getText().trim().toLowerCase(),
                     administration.txtCustomerAddress.getText().trim(),
@@ -164,17 +180,39 @@ public class CustomerController implements ActionListener, MouseListener, KeyLis
                 refreshCustomerData(); // Refresh customer data in the view
                 JOptionPane.showMessageDialog(null, "Customer successfully modified."); // Success message
                 administration.btnCustomerRegister.setEnabled(true); // Enable the register button
+            } // Someone else saved this customer since the form was filled
+            else if (customerActions.versionOf(Integer.valueOf(administration.txtCustomerID.getText())) != customerVersion) {
+                Integer customerID = Integer.valueOf(administration.txtCustomerID.getText());
+                refreshCustomerData();
+                showCustomer(customerID);
+                JOptionPane.showMessageDialog(null, "The customer was changed by someone else in the meantime.\nThe form now shows its current data, please apply your changes again.");
+            } // Another customer took the email or telephone in the meantime
+            else {
+                JOptionPane.showMessageDialog(null, "Email or telephone already in use.");
             }
         } catch (Exception ex) {
             handleException(ex, "An error occurred during the process."); // Handle exceptions
         }
     }
 
+    private void showCustomer(Integer customerID) {
+        // Fill the form from the stored customer, reading its version first so a later change is detected
+        customerVersion = customerActions.versionOf(customerID);
+        Customer customer = customerActions.searchCustomerByID(customerID);
+        if (customer == null) {
+            return;
+        }
+        administration.txtCustomerID.setText(String.valueOf(customer.getCustomerID()));
+        administration.txtCustomerName.setText(customer.getCustomerName());
+        administration.txtCustomerAddress.setText(customer.getCustomerAddress());
+        administration.txtCustomerTelephone.setText(customer.getCustomerTelephone());
+        administration.txtCustomerMail.setText(customer.getCustomerEmail());
+        administration.btnCustomerRegister.setEnabled(false); // Disable register button when editing
+    }
+
     private void refreshCustomerData() {
-        // Refresh customer table and fields
-        cleanTableAndCmb(); // Clear the table and combo box
+        // Clear the fields; the rows follow the write through the change bus
         cleanFields(); // Clear the input fields
-        loadCustomers(); // Load customers again
     }
 
     private void handleException(Exception ex, String message) {
@@ -224,12 +262,7 @@ public class CustomerController implements ActionListener, MouseListener, KeyLis
         if (e.getSource() == administration.customersTable) {
             int row = administration.customersTable.rowAtPoint(e.getPoint());
             // Populate fields with selected customer data
-            administration.txtCustomerID.setText(administration.customersTable.getValueAt(row, 0).toString());
-            administration.txtCustomerName.setText(administration.customersTable.getValueAt(row, 1).toString());
-            administration.txtCustomerAddress.setText(administration.customersTable.getValueAt(row, 2).toString());
-            administration.txtCustomerTelephone.setText(administration.customersTable.getValueAt(row, 3).toString());
-            administration.txtCustomerMail.setText(administration.customersTable.getValueAt(row, 4).toString());
-            administration.btnCustomerRegister.setEnabled(false); // Disable register button when editing
+            showCustomer((Integer) administration.customersTable.getValueAt(row, 0));
         } else if (e.getSource() == administration.lblCustomers) {
             // Switch to the customers tab
             administration.jTabbedPanePanels.setSelectedIndex(2);
@@ -270,8 +303,7 @@ public class CustomerController implements ActionListener, MouseListener, KeyLis
     public void keyReleased(KeyEvent e) {
         // Handle key release event in the search field
         if (e.getSource() == administration.txtSearchCustomer) {
-            cleanTableAndCmb(); // Clear table and combo box before loading new results
-            loadCustomers(); // Load customers based on search input
+            search.restart(); // Load the rows for the search text once the typing pauses
         }
     }
 }
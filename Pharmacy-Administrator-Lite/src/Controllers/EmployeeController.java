@@ -2,6 +2,8 @@ package Controllers;
 
 import Models.Employee;
 import Models.EmployeeActions;
+import Models.Permission;
+import Models.Session;
 import Views.Administration;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
@@ -13,7 +15,6 @@ import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.swing.JOptionPane;
-import javax.swing.table.DefaultTableModel;
 
 /**
  * The EmployeeController class handles the interactions between the
@@ -25,20 +26,32 @@ public class EmployeeController implements ActionListener, MouseListener, KeyLis
 
     private final Administration administration; // Reference to the administration view
     private final EmployeeActions employeeActions; // Model class handling employee-related operations
-    private DefaultTableModel model; // Table model for displaying employees in the table
+    private static final int SEARCH_LIMIT = 500; // Most rows listed for a name prefix
+    private long employeeVersion; // Version of the employee shown in the form, checked when it is saved
+    private final Session session; // Login of the employee using the view
+    private final EntityTableModel<Employee> employeeModel; // Rows of the employee table, read from the listed employees
+    private final SearchDelay search = new SearchDelay(this::loadEmployees); // Loads the rows once the search typing pauses
 
     /**
      * Constructor initializes the controller and sets up event listeners.
      *
      * @param administration Reference to the Administration view
      * @param employeeActions Reference to the EmployeeActions model
+     * @param session Login of the employee using the view
      */
-    public EmployeeController(Administration administration, EmployeeActions employeeActions) {
+    public EmployeeController(Administration administration, EmployeeActions employeeActions, Session session) {
         this.administration = administration;
         this.employeeActions = employeeActions;
+        this.session = session;
+        this.employeeModel = EntityTableModel.install(administration.employeesTable, Employee::getEmployeeID, this::employeeValue);
         addActionListeners(); // Attach action listeners to buttons
         addMouseListeners(); // Attach mouse listeners to table and labels
         addKeyListeners(); // Attach key listeners to the search field
+        if (isUserAuthorized()) {
+            // Apply the writes of employees to their rows
+            TableSync.install(administration, employeeActions.changes(), employeeModel, SEARCH_LIMIT,
+                    this::searchPrefix, Employee::getEmployeeName, this::isListed, this::loadEmployees);
+        }
     }
 
     /**
@@ -88,7 +101,7 @@ public class EmployeeController implements ActionListener, MouseListener, KeyLis
                     && !administration.txtEmployeeUser.getText().trim().equalsIgnoreCase(currentUser)) {
                 JOptionPane.showMessageDialog(null, "Username already in use.");
             } // Proceed with modifying the employee if all validations pass
-            else if (employeeActions.modifyEmployee(Integer.valueOf(administration.txtEmployeeID.getText()),
+            else if (employeeActions.modifyEmployee(Integer.valueOf(administration.txtEmployeeID.getText()), employeeVersion,
                     administration.txtEmployeeUser.getText().trim(),
                     employeeActions.searchEmployeeByID(Integer.valueOf(administration.txtEmployeeID.getText())).getEmployeePassword(),
                     employeeActions.nameAdditionalValidation(administration.txtEmployeeName.getText()),
@@ -98,6 +111,15 @@ public class EmployeeController implements ActionListener, MouseListener, KeyLis
                 refreshEmployeeData(); // Refresh the table and input fields
                 JOptionPane.showMessageDialog(null, "Employee successfully modified.");
                 administration.btnEmployeeRegister.setEnabled(true); // Enable register button after modifying
+            } // Someone else saved this employee since the form was filled
+            else if (employeeActions.versionOf(Integer.valueOf(administration.txtEmployeeID.getText())) != employeeVersion) {
+                Integer employeeID = Integer.valueOf(administration.txtEmployeeID.getText());
+                refreshEmployeeData();
+                showEmployee(employeeID);
+                JOptionPane.showMessageDialog(null, "The employee was changed by someone else in the meantime.\nThe form now shows its current data, please apply your changes again.");
+            } // Another employee took the email or username in the meantime
+            else {
+                JOptionPane.showMessageDialog(null, "Email or username already in use.");
             }
         } catch (Exception ex) {
             handleException(ex, "An error occurred during the process.");
@@ -107,6 +129,25 @@ public class EmployeeController implements ActionListener, MouseListener, KeyLis
     /**
      * Deletes the selected employee from the database and updates the view.
      */
+    /**
+     * Fills the form from the stored employee, reading its version first so
+     * that a change saved afterwards is detected by modifyEmployee.
+     */
+    private void showEmployee(Integer employeeID) {
+        employeeVersion = employeeActions.versionOf(employeeID);
+        Employee employee = employeeActions.searchEmployeeByID(employeeID);
+        if (employee == null) {
+            return;
+        }
+        administration.txtEmployeeID.setText(String.valueOf(employee.getEmployeeID()));
+        administration.txtEmployeeName.setText(employee.getEmployeeName());
+        administration.txtEmployeeUser.setText(employee.getEmployeeUser());
+        administration.txtEmployeeAddress.setText(employee.getEmployeeAddress());
+        administration.txtEmployeeEmail.setText(employee.getEmployeeEmail());
+        administration.cmbEmployeeRol.setSelectedItem(employee.getEmployeeRol());
+        administration.btnEmployeeRegister.setEnabled(false);
+    }
+
     private void deleteEmployee() {
         try {
             // Attempt to delete the employee
@@ -120,16 +161,6 @@ public class EmployeeController implements ActionListener, MouseListener, KeyLis
         }
     }
 
-    /**
-     * Clears all rows from the employee table.
-     */
-    private void cleanTable() {
-        model = (DefaultTableModel) administration.employeesTable.getModel();
-        while (model.getRowCount() > 0) {
-            model.removeRow(0); // Remove rows one by one
-        }
-    }
-
     /**
      * Clears all input fields in the administration view.
      */
@@ -142,27 +173,57 @@ public class EmployeeController implements ActionListener, MouseListener, KeyLis
     }
 
     /**
-     * Loads employees from the database and displays them in the table.
+     * Returns the name prefix typed in the search field, blank when none.
+     */
+    private String searchPrefix() {
+        return employeeActions.nameAdditionalValidation(administration.txtSearchEmployee.getText().trim());
+    }
+
+    /**
+     * Checks whether the table lists an employee.
+     *
+     * @param value The employee
+     * @return false for the Owner and the employee logged in, which the table
+     * never lists.
+     */
+    private boolean isListed(Employee value) {
+        return !value.getEmployeeRol().equals("Owner") && value.getEmployeeID() != session.getEmployeeID();
+    }
+
+    /**
+     * Reads a cell of an employee when the table paints it.
+     *
+     * @param value The employee of the row
+     * @param column The column of the cell
+     * @return The ID, name, user, address, email or role of the employee.
+     */
+    private Object employeeValue(Employee value, int column) {
+        return switch (column) {
+            case 0 -> value.getEmployeeID();
+            case 1 -> value.getEmployeeName();
+            case 2 -> value.getEmployeeUser();
+            case 3 -> value.getEmployeeAddress();
+            case 4 -> value.getEmployeeEmail();
+            default -> value.getEmployeeRol();
+        };
+    }
+
+    /**
+     * Loads employees from the database and displays them in the table. The
+     * rows are read and built off the event thread and replace the previous
+     * ones; a load still running for an older search is cancelled.
      */
     public void loadEmployees() {
         if (isUserAuthorized()) { // Check if the current user is authorized
-            Map<Integer, Employee> employees = employeeActions.listEmployees(employeeActions.nameAdditionalValidation(administration.txtSearchEmployee.getText().trim()));
-            model = (DefaultTableModel) administration.employeesTable.getModel();
-            Object[] row = new Object[7]; // Array to hold data for each row
-
-            for (Map.Entry<Integer, Employee> entry : employees.entrySet()) {
-                Employee value = entry.getValue();
-                // Exclude "Owner" role and current logged-in employee from the table
-                if (!value.getEmployeeRol().equals("Owner") && value.getEmployeeID() != employeeActions.getCurrentEmployee().getEmployeeID()) {
-                    row[0] = value.getEmployeeID();
-                    row[1] = value.getEmployeeName();
-                    row[2] = value.getEmployeeUser();
-                    row[3] = value.getEmployeeAddress();
-                    row[4] = value.getEmployeeEmail();
-                    row[5] = value.getEmployeeRol();
-                    model.addRow(row); // Add row to the table
+            String prefix = searchPrefix();
+            TableLoader.load(employeeModel, rows -> {
+                Map<Integer, Employee> employees = employeeActions.listEmployeesStartingWith(prefix, SEARCH_LIMIT);
+                for (Employee value : employees.values()) {
+                    if (isListed(value)) { // Exclude "Owner" role and current logged-in employee from the table
+                        rows.add(value);
+                    }
                 }
-            }
+            });
         }
     }
 
@@ -173,8 +234,7 @@ public class EmployeeController implements ActionListener, MouseListener, KeyLis
      * @return true if the user is authorized, false otherwise.
      */
     private boolean isUserAuthorized() {
-        String role = employeeActions.getCurrentEmployee().getEmployeeRol();
-        return role.equals("Administrator") || role.equals("Owner");
+        return session.can(Permission.MANAGE_EMPLOYEES);
     }
 
     /**
@@ -192,15 +252,17 @@ public class EmployeeController implements ActionListener, MouseListener, KeyLis
             else if (!employeeActions.userValidation(administration.txtEmployeeUser.getText().trim())) {
                 JOptionPane.showMessageDialog(null, "Username already in use.");
             } // Proceed to register the employee if all validations pass
-            else {
-                employeeActions.addEmployee(administration.txtEmployeeUser.getText().trim(),
-                        "Welcome@" + administration.txtEmployeeUser.getText().trim(),
-                        employeeActions.nameAdditionalValidation(administration.txtEmployeeName.getText().trim()),
-                        administration.txtEmployeeAddress.getText().trim(),
-                        administration.txtEmployeeEmail.getText().trim().toLowerCase(),
-                        administration.cmbEmployeeRol.getSelectedItem().toString());
+            else if (employeeActions.addEmployee(administration.txtEmployeeUser.getText().trim(),
+                    "Welcome@" + administration.txtEmployeeUser.getText().trim(),
+                    employeeActions.nameAdditionalValidation(administration.txtEmployeeName.getText().trim()),
+                    administration.txtEmployeeAddress.getText().trim(),
+                    administration.txtEmployeeEmail.getText().trim().toLowerCase(),
+                    administration.cmbEmployeeRol.getSelectedItem().toString())) {
                 refreshEmployeeData(); // Refresh the table and input fields
                 JOptionPane.showMessageDialog(null, "Employee registered successfully.");
+            } // Another registration took the email or username in the meantime
+            else {
+                JOptionPane.showMessageDialog(null, "Email or username already in use.");
             }
         } catch (Exception ex) {
             handleException(ex, "An error occurred during the process.");
@@ -224,9 +286,7 @@ public class EmployeeController implements ActionListener, MouseListener, KeyLis
      * and reloading employees.
      */
     private void refreshEmployeeData() {
-        cleanTable();
-        cleanFields();
-        loadEmployees();
+        cleanFields(); // The rows follow the write through the change bus
     }
 
     /**
@@ -288,13 +348,7 @@ public class EmployeeController implements ActionListener, MouseListener, KeyLis
     public void mouseClicked(MouseEvent e) {
         if (e.getSource() == administration.employeesTable) {
             int row = administration.employeesTable.rowAtPoint(e.getPoint());
-            administration.txtEmployeeID.setText(administration.employeesTable.getValueAt(row, 0).toString());
-            administration.txtEmployeeName.setText(administration.employeesTable.getValueAt(row, 1).toString());
-            administration.txtEmployeeUser.setText(administration.employeesTable.getValueAt(row, 2).toString());
-            administration.txtEmployeeAddress.setText(administration.employeesTable.getValueAt(row, 3).toString());
-            administration.txtEmployeeEmail.setText(administration.employeesTable.getValueAt(row, 4).toString());
-            administration.cmbEmployeeRol.setSelectedItem(administration.employeesTable.getValueAt(row, 5).toString());
-            administration.btnEmployeeRegister.setEnabled(false);
+            showEmployee((Integer) administration.employeesTable.getValueAt(row, 0));
         } else if (e.getSource() == administration.lblEmployees) {
             if (isUserAuthorized()) {
                 administration.jTabbedPanePanels.setSelectedIndex(3);
@@ -341,8 +395,7 @@ public class EmployeeController implements ActionListener, MouseListener, KeyLis
     @Override
     public void keyReleased(KeyEvent e) {
         if (e.getSource() == administration.txtSearchEmployee) {
-            cleanTable();
-            loadEmployees();
+            search.restart(); // Load the rows for the search text once the typing pauses
         }
     }
 }
@@ -0,0 +1,256 @@
+package Controllers;
+
+import java.awt.event.KeyAdapter;
+import java.awt.event.KeyEvent;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import javax.swing.AbstractListModel;
+import javax.swing.ComboBoxModel;
+import javax.swing.JComboBox;
+import javax.swing.ListCellRenderer;
+import javax.swing.event.PopupMenuEvent;
+import javax.swing.event.PopupMenuListener;
+import javax.swing.event.TableModelEvent;
+import javax.swing.event.TableModelListener;
+import javax.swing.plaf.basic.ComboPopup;
+
+// Combo box model listing the entities of a table model, the same list the table shows. Items are
+// the entities themselves, which carry their ID; the "Name (id)" label is built by the renderer when
+// an item is painted, so a load builds no items at all and the popup opens on a list of any size
+// after painting its visible cells only. Rows inserted, updated or removed in the table are
+// forwarded as the same intervals of the list.
+//
+// Typing while the combo box has the focus filters the items by name prefix: each key narrows the
+// previous matches instead of scanning every row again, and a key matching nothing is ignored. The
+// filter is dropped when the popup closes.
+final class EntityComboModel<T> extends AbstractListModel<T> implements ComboBoxModel<T>, TableModelListener {
+
+    private static final String PROTOTYPE_LABEL = "Wwwwwwwwwwwwwwwwww (000000)"; // Sizes the combo box and its cells
+
+    private final EntityTableModel<T> rows;
+    private final Function<T, String> name; // Name of an entity, as labelled and filtered
+    private final IntFunction<T> find; // Entity stored under an ID, for a selection not listed
+    private final T prototype; // Stands for a label of usual width when sizing
+    private T selected;
+    private String filter = ""; // Name prefix typed, empty when not filtering
+    private int[] matches = new int[0]; // Rows listed while filtering
+    private int matchCount;
+
+    private EntityComboModel(EntityTableModel<T> rows, Function<T, String> name, IntFunction<T> find, T prototype) {
+        this.rows = rows;
+        this.name = name;
+        this.find = find;
+        this.prototype = prototype;
+    }
+
+    // Replace the model of the combo box with one listing the rows of the table
+    @SuppressWarnings("unchecked")
+    static <T> EntityComboModel<T> install(JComboBox<T> combo, EntityTableModel<T> rows, Function<T, String> name,
+            IntFunction<T> find, T prototype) {
+        EntityComboModel<T> model = new EntityComboModel<>(rows, name, find, prototype);
+        rows.addTableModelListener(model);
+        combo.setModel(model);
+        ListCellRenderer<Object> labels = (ListCellRenderer<Object>) (ListCellRenderer<?>) combo.getRenderer();
+        combo.setRenderer((list, value, index, isSelected, cellHasFocus)
+                -> labels.getListCellRendererComponent(list, value == null ? null : model.label(value), index, isSelected, cellHasFocus));
+        // Size the box and the cells of the popup from the prototype instead of rendering every item
+        combo.setPrototypeDisplayValue(prototype);
+        if (combo.getAccessibleContext().getAccessibleChild(0) instanceof ComboPopup popup) {
+            popup.getList().setPrototypeCellValue(prototype);
+        }
+        combo.setKeySelectionManager((key, items) -> model.narrow(key) ? 0 : -1);
+        combo.addPopupMenuListener(new PopupMenuListener() {
+            @Override
+            public void popupMenuWillBecomeVisible(PopupMenuEvent e) {
+            }
+
+            @Override
+            public void popupMenuWillBecomeInvisible(PopupMenuEvent e) {
+                model.clearFilter();
+            }
+
+            @Override
+            public void popupMenuCanceled(PopupMenuEvent e) {
+            }
+        });
+        combo.addKeyListener(new KeyAdapter() {
+            @Override
+            public void keyTyped(KeyEvent e) {
+                if (!model.filter.isEmpty() && combo.isShowing() && !combo.isPopupVisible()) {
+                    combo.showPopup(); // Show the items the typed keys left
+                }
+            }
+        });
+        return model;
+    }
+
+    // Model of a combo box set up by install
+    @SuppressWarnings("unchecked")
+    static <T> EntityComboModel<T> of(JComboBox<T> combo) {
+        return (EntityComboModel<T>) combo.getModel();
+    }
+
+    // ID in a "Name (id)" label, as the combo boxes show entities and the purchases store them; -1 if none
+    static int idOf(String label) {
+        if (label == null || !label.endsWith(")")) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(label.substring(label.lastIndexOf('(') + 1, label.length() - 1).trim());
+        } catch (NumberFormatException ex) {
+            return -1;
+        }
+    }
+
+    // "Name (id)" label of an entity
+    String label(T entity) {
+        if (entity == prototype) {
+            return PROTOTYPE_LABEL;
+        }
+        return name.apply(entity) + " (" + rows.id().applyAsInt(entity) + ")";
+    }
+
+    T selected() {
+        return selected;
+    }
+
+    // Label of the selected entity, null when none is
+    String selectedLabel() {
+        return selected == null ? null : label(selected);
+    }
+
+    // Select the entity with this ID, listed or not; nothing is selected if it is not stored
+    void select(int entityID) {
+        int row = rows.indexOf(entityID);
+        setSelectedItem(row >= 0 ? rows.get(row) : entityID >= 0 ? find.apply(entityID) : null);
+    }
+
+    @Override
+    public int getSize() {
+        return filter.isEmpty() ? rows.getRowCount() : matchCount;
+    }
+
+    @Override
+    public T getElementAt(int index) {
+        return rows.get(filter.isEmpty() ? index : matches[index]);
+    }
+
+    @Override
+    public void setSelectedItem(Object item) {
+        if (item != selected) {
+            @SuppressWarnings("unchecked")
+            T entity = (T) item;
+            selected = entity;
+            fireContentsChanged(this, -1, -1); // The combo box notifies its item listeners
+        }
+    }
+
+    @Override
+    public Object getSelectedItem() {
+        return selected;
+    }
+
+    @Override
+    public void tableChanged(TableModelEvent e) {
+        int first = e.getFirstRow();
+        int last = e.getLastRow();
+        boolean reloaded = first == TableModelEvent.HEADER_ROW || last == Integer.MAX_VALUE;
+        if (e.getType() == TableModelEvent.UPDATE && !reloaded && selected != null) {
+            int selectedID = rows.id().applyAsInt(selected);
+            for (int row = first; row <= last; row++) {
+                if (rows.id().applyAsInt(rows.get(row)) == selectedID) {
+                    selected = rows.get(row); // The new version of the selected entity, same ID
+                }
+            }
+        }
+        if (!filter.isEmpty()) {
+            refilter(); // Rows moved under the matches; rescan them, at most once per change
+            fireContentsChanged(this, 0, Integer.MAX_VALUE);
+        } else if (e.getType() == TableModelEvent.INSERT) {
+            fireIntervalAdded(this, first, last);
+        } else if (e.getType() == TableModelEvent.DELETE) {
+            fireIntervalRemoved(this, first, last);
+        } else if (!reloaded) {
+            fireContentsChanged(this, first, last);
+        } else {
+            fireContentsChanged(this, 0, Integer.MAX_VALUE);
+        }
+        if (reloaded) {
+            // All rows replaced by a load: select the first one, as a load always did
+            setSelectedItem(getSize() > 0 ? getElementAt(0) : null);
+        }
+    }
+
+    // Narrow the items to the names starting with the typed text and the key, or drop the last key
+    // on backspace; false, leaving the items as they are, when no name matches
+    private boolean narrow(char key) {
+        String typed;
+        if (key == '\b') {
+            if (filter.isEmpty()) {
+                return false;
+            }
+            typed = filter.substring(0, filter.length() - 1);
+        } else if (Character.isISOControl(key)) {
+            return false;
+        } else {
+            typed = filter + key;
+        }
+        int[] found;
+        int count = 0;
+        if (typed.isEmpty()) {
+            clearFilter();
+            return rows.getRowCount() > 0;
+        } else if (!filter.isEmpty() && typed.startsWith(filter)) {
+            // A longer prefix only matches among the current matches
+            found = new int[matchCount];
+            for (int i = 0; i < matchCount; i++) {
+                if (startsWith(rows.get(matches[i]), typed)) {
+                    found[count++] = matches[i];
+                }
+            }
+        } else {
+            found = new int[rows.getRowCount()];
+            for (int row = 0; row < found.length; row++) {
+                if (startsWith(rows.get(row), typed)) {
+                    found[count++] = row;
+                }
+            }
+        }
+        if (count == 0) {
+            return false;
+        }
+        filter = typed;
+        matches = found;
+        matchCount = count;
+        fireContentsChanged(this, 0, Integer.MAX_VALUE);
+        return true;
+    }
+
+    private void refilter() {
+        int count = 0;
+        int[] found = new int[rows.getRowCount()];
+        for (int row = 0; row < found.length; row++) {
+            if (startsWith(rows.get(row), filter)) {
+                found[count++] = row;
+            }
+        }
+        if (count == 0) {
+            filter = ""; // Nothing left to show filtered; list every row again
+        }
+        matches = found;
+        matchCount = count;
+    }
+
+    private void clearFilter() {
+        if (!filter.isEmpty()) {
+            filter = "";
+            matches = new int[0];
+            matchCount = 0;
+            fireContentsChanged(this, 0, Integer.MAX_VALUE);
+        }
+    }
+
+    private boolean startsWith(T entity, String prefix) {
+        return String.valueOf(name.apply(entity)).regionMatches(true, 0, prefix, 0, prefix.length());
+    }
+}
@@ -0,0 +1,132 @@
+package Controllers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.ToIntFunction;
+import javax.swing.JTable;
+import javax.swing.table.AbstractTableModel;
+
+// Table model over a list of entities as the stores hand them out. Cells are read from the entity
+// of the row when the table paints them, so a load builds no rows of its own, only the list of
+// entities, and swapping or clearing the rows is one assignment and one fireTableDataChanged
+// whatever their number. The list belongs to the event thread once it is set.
+final class EntityTableModel<T> extends AbstractTableModel {
+
+    // Value of a column for an entity
+    interface Columns<T> {
+
+        Object valueAt(T entity, int column);
+    }
+
+    private final String[] columnNames;
+    private final ToIntFunction<T> id; // ID of an entity, matched against the changes of the store
+    private final Columns<T> columns;
+    private List<T> entities = new ArrayList<>();
+    TableLoader<T> loader; // Load running for the table, null when none
+    final List<Runnable> afterLoad = new ArrayList<>(); // Run once no load is running anymore, on the event thread
+
+    private EntityTableModel(String[] columnNames, ToIntFunction<T> id, Columns<T> columns) {
+        this.columnNames = columnNames;
+        this.id = id;
+        this.columns = columns;
+    }
+
+    // Replace the model of the table, keeping the column names the view designer gave it
+    static <T> EntityTableModel<T> install(JTable table, ToIntFunction<T> id, Columns<T> columns) {
+        String[] columnNames = new String[table.getModel().getColumnCount()];
+        for (int i = 0; i < columnNames.length; i++) {
+            columnNames[i] = table.getModel().getColumnName(i);
+        }
+        EntityTableModel<T> model = new EntityTableModel<>(columnNames, id, columns);
+        table.setModel(model);
+        return model;
+    }
+
+    // Show these entities, in their order
+    void setEntities(List<T> entities) {
+        this.entities = entities;
+        fireTableDataChanged();
+    }
+
+    T get(int row) {
+        return entities.get(row);
+    }
+
+    ToIntFunction<T> id() {
+        return id;
+    }
+
+    List<T> entities() {
+        return entities;
+    }
+
+    // Row of the entity with this ID when the rows are in ID order, -1 when it is not listed
+    int indexOfInIdOrder(int entityID) {
+        int low = 0;
+        int high = entities.size() - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int middleID = id.applyAsInt(entities.get(middle));
+            if (middleID < entityID) {
+                low = middle + 1;
+            } else if (middleID > entityID) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    // Row of the entity with this ID in any order, -1 when it is not listed
+    int indexOf(int entityID) {
+        for (int i = 0; i < entities.size(); i++) {
+            if (id.applyAsInt(entities.get(i)) == entityID) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Add these entities after the last row, as a load streaming its pages does
+    void append(List<T> more) {
+        int first = entities.size();
+        entities.addAll(more);
+        fireTableRowsInserted(first, entities.size() - 1);
+    }
+
+    void set(int row, T entity) {
+        entities.set(row, entity);
+        fireTableRowsUpdated(row, row);
+    }
+
+    void insert(int row, T entity) {
+        entities.add(row, entity);
+        fireTableRowsInserted(row, row);
+    }
+
+    void remove(int row) {
+        entities.remove(row);
+        fireTableRowsDeleted(row, row);
+    }
+
+    @Override
+    public int getRowCount() {
+        return entities.size();
+    }
+
+    @Override
+    public int getColumnCount() {
+        return columnNames.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return columnNames[column];
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        return columns.valueAt(entities.get(row), column);
+    }
+}
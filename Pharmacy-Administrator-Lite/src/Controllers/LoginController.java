@@ -1,6 +1,8 @@
 package Controllers;
 
 import Models.EmployeeActions;
+import Models.Permission;
+import Models.Session;
 import Views.Administration;
 import Views.Instructions;
 import Views.Login;
@@ -39,22 +41,29 @@ public class LoginController implements ActionListener {
         login.txtPassword.setText("");
     }
 
-    private void openAdministration() throws UnsupportedLookAndFeelException {
-        // Create an instance of the Administration view
-        Administration administration = new Administration();
-        // Check the current employee's role
-        if (employeeActions.getCurrentEmployee().getEmployeeRol().equals("Auxiliary")) {
-            // Disable certain features for users with the Auxiliary role
+    private void openAdministration(Session session) throws UnsupportedLookAndFeelException {
+        // Create an instance of the Administration view for the session
+        Administration administration = new Administration(session);
+        // Disable the features the role of the employee does not allow (Auxiliary)
+        if (!session.can(Permission.MANAGE_EMPLOYEES)) {
             administration.lblEmployees.setEnabled(false);
-            administration.lblCategories.setEnabled(false);
             administration.jTabbedPanePanels.setEnabledAt(3, false);
+        }
+        if (!session.can(Permission.MANAGE_CATEGORIES)) {
+            administration.lblCategories.setEnabled(false);
             administration.jTabbedPanePanels.setEnabledAt(5, false);
+        }
+        if (!session.can(Permission.MANAGE_SUPPLIERS)) {
             administration.btnSupplierRegister.setEnabled(false);
             administration.btnSupplierModify.setEnabled(false);
             administration.btnSupplierDelete.setEnabled(false);
+        }
+        if (!session.can(Permission.MANAGE_CUSTOMERS)) {
             administration.btnCustomerRegister.setEnabled(false);
             administration.btnCustomerModify.setEnabled(false);
             administration.btnCustomerDelete.setEnabled(false);
+        }
+        if (!session.can(Permission.MANAGE_PRODUCTS)) {
             administration.btnProductRegister.setEnabled(false);
             administration.btnProductModify.setEnabled(false);
             administration.btnProductDelete.setEnabled(false);
@@ -102,11 +111,14 @@ public class LoginController implements ActionListener {
         if (username.isBlank() || password.isBlank()) {
             // Show an error message if fields are empty
             JOptionPane.showMessageDialog(null, "Please fill in all fields.");
-        } else if (employeeActions.employeeLogin(username, password)) {
+            return;
+        }
+        Session session = employeeActions.employeeLogin(username, password);
+        if (session != null) {
             // If login is successful
             try {
                 cleanFields(); // Clear the input fields
-                openAdministration(); // Open the administration view
+                openAdministration(session); // Open the administration view of the session
                 login.dispose(); // Close the login view
             } catch (UnsupportedLookAndFeelException ex) {
                 // Log any exceptions that occur while opening the administration view
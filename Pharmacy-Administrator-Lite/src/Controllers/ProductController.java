@@ -1,5 +1,8 @@
 package Controllers;
 
+import Models.CsvExporter;
+import Models.CsvImporter;
+import Models.Money;
 import Models.Product;
 import Models.ProductActions;
 import Views.Administration;
@@ -11,23 +14,35 @@ import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.util.Map;
 import javax.swing.JOptionPane;
-import javax.swing.table.DefaultTableModel;
 
 public class ProductController implements ActionListener, MouseListener, KeyListener {
 
     private final Administration administration; // Reference to the Administration view
     private final ProductActions productActions; // Reference to ProductActions model
-    private DefaultTableModel model; // Table model for products
+    private static final int SEARCH_LIMIT = 500; // Most rows listed for a name prefix
+    private long productVersion; // Version of the product shown in the form, checked when it is saved
+    private final EntityTableModel<Product> productModel; // Rows of the product table, read from the listed products
+    private final SearchDelay search = new SearchDelay(this::loadProducts); // Loads the rows once the search typing pauses
 
     public ProductController(Administration administration, ProductActions productActions) {
         this.administration = administration;
         this.productActions = productActions;
+        this.productModel = EntityTableModel.install(administration.productTable, Product::getProductID, this::productValue);
+        // The purchase product combo box lists the same products as the table
+        EntityComboModel.install(administration.cmbPurchasesProduct, productModel, Product::getProductName,
+                productActions::searchProductByID, new Product());
         // Add action listeners to buttons
         addActionListeners();
         // Add mouse listeners to components
         addMouseListeners();
         // Add key listeners to search field
         addKeyListeners();
+        // Offer a CSV import and export in the context menu of the table
+        CsvImportTask.install(administration.productTable, CsvImporter.Target.PRODUCTS, this::loadProducts);
+        CsvExportTask.install(administration.productTable, CsvExporter.Source.PRODUCTS);
+        // Apply the writes of products, sales and cart holds included, to their rows
+        TableSync.install(administration, productActions.changes(), productModel, SEARCH_LIMIT,
+                this::searchPrefix, Product::getProductName, product -> true, this::loadProducts);
     }
 
     private void addActionListeners() {
@@ -57,15 +72,6 @@ public class ProductController implements ActionListener, MouseListener, KeyList
                 || administration.txtProductSalesPrice.getText().isBlank();
     }
 
-    private void cleanTableAndCmb() {
-        // Clear the product table and combo box
-        model = (DefaultTableModel) administration.productTable.getModel();
-        while (model.getRowCount() > 0) {
-            model.removeRow(0); // Remove all rows from the table
-        }
-        administration.cmbPurchasesProduct.removeAllItems(); // Remove all items from the combo box
-    }
-
     private void cleanFields() {
         // Clear product input fields
         administration.txtProductID.setText("");
@@ -75,22 +81,31 @@ public class ProductController implements ActionListener, MouseListener, KeyList
         administration.txtProductSalesPrice.setText("");
     }
 
+    private String searchPrefix() {
+        return productActions.nameAdditionalValidation(administration.txtSearchProduct.getText().trim());
+    }
+
+    private Object productValue(Product value, int column) {
+        // Cell of a product in the table, read when it is painted
+        return switch (column) {
+            case 0 -> value.getProductID();
+            case 1 -> value.getProductName();
+            case 2 -> value.getProductDescription();
+            case 3 -> Money.format(value.getProductUnitPrice());
+            case 4 -> productActions.availableQuantity(value); // On hand minus the units held by carts
+            default -> value.getProductCategoryName();
+        };
+    }
+
     public void loadProducts() {
-        // Load products from database and display in table and combo box
-        Map<Integer, Product> products = productActions.listProducts(productActions.nameAdditionalValidation(administration.txtSearchProduct.getText().trim()));
-        model = (DefaultTableModel) administration.productTable.getModel();
-        Object[] row = new Object[6]; // Array to hold product data for each row
-        for (Map.Entry<Integer, Product> entry : products.entrySet()) {
-            Product value = entry.getValue();
-            row[0] = value.getProductID();
-            row[1] = value.getProductName();
-            row[2] = value.getProductDescription();
-            row[3] = value.getProductUnitPrice();
-            row[4] = value.getProductQuantity();
-            row[5] = value.getProductCategoryName();
-            model.addRow(row); // Add row to the table
-            administration.cmbPurchasesProduct.addItem(row[1] + " (" + row[0] + ")"); // Add product to the combo box
-        }
+        // Load products from database and display in table and combo box, replacing the previous rows
+        String prefix = searchPrefix();
+        TableLoader.load(productModel, rows -> {
+            Map<Integer, Product> products = productActions.listProductsStartingWith(prefix, SEARCH_LIMIT);
+            for (Product value : products.values()) {
+                rows.add(value);
+            }
+        });
     }
 
     private void registerProduct() {
@@ -100,14 +115,14 @@ public class ProductController implements ActionListener, MouseListener, KeyList
             JOptionPane.showMessageDialog(null, "Remember that in the Quantity field,\nthere can only be numerical characters.");
         } else if (!productActions.isDoubleString(administration.txtProductSalesPrice.getText().trim())) {
             // Show error message if sales price is not a double
-            JOptionPane.showMessageDialog(null, "Remember that in the Unit Price field,\nthere can only be double characters.");
+            JOptionPane.showMessageDialog(null, "Remember that in the Unit Price field,\nthere can only be a price with up to two decimals.");
         } else {
             // Add product to the database
             productActions.addProduct(productActions.nameAdditionalValidation(administration.txtProductName.getText().trim()),
                     administration.txtProductDescription.getText().trim(),
-                    Double.parseDouble(administration.txtProductSalesPrice.getText().trim()),
+                    Money.parse(administration.txtProductSalesPrice.getText().trim()),
                     Integer.valueOf(administration.txtProductQuantity.getText()),
-                    administration.cmbProductsCategories.getSelectedItem().toString());
+                    EntityComboModel.of(administration.cmbProductsCategories).selectedLabel());
             refreshProductData(); // Refresh the product data
             JOptionPane.showMessageDialog(null, "Product registered successfully."); // Show success message
         }
@@ -120,17 +135,43 @@ public class ProductController implements ActionListener, MouseListener, KeyList
             JOptionPane.showMessageDialog(null, "Remember that in the Quantity field,\nthere can only be numerical characters.");
         } else if (!productActions.isDoubleString(administration.txtProductSalesPrice.getText().trim())) {
             // Show error message if sales price is not a double
-            JOptionPane.showMessageDialog(null, "Remember that in the Unit Price field,\nthere can only be double characters.");
-        } else if (productActions.updateProduct(Integer.valueOf(administration.txtProductID.getText()),
+            JOptionPane.showMessageDialog(null, "Remember that in the Unit Price field,\nthere can only be a price with up to two decimals.");
+        } else if (productActions.updateProduct(Integer.valueOf(administration.txtProductID.getText()), productVersion,
                 productActions.nameAdditionalValidation(administration.txtProductName.getText().trim()),
                 administration.txtProductDescription.getText().trim(),
-                Double.valueOf(administration.txtProductSalesPrice.getText().trim()),
+                Money.parse(administration.txtProductSalesPrice.getText().trim()),
                 Integer.valueOf(administration.txtProductQuantity.getText().trim()),
-                administration.cmbProductsCategories.getSelectedItem().toString())) {
+                EntityComboModel.of(administration.cmbProductsCategories).selectedLabel())) {
             refreshProductData(); // Refresh the product data
             administration.btnProductRegister.setEnabled(true); // Enable the register button
             JOptionPane.showMessageDialog(null, "Product modified successfully."); // Show success message
+        } else if (productActions.versionOf(Integer.valueOf(administration.txtProductID.getText())) != productVersion) {
+            // Someone else saved the product or sold some of it since the form was filled
+            Integer productID = Integer.valueOf(administration.txtProductID.getText());
+            refreshProductData();
+            showProduct(productID);
+            JOptionPane.showMessageDialog(null, "The product was changed by someone else in the meantime.\nThe form now shows its current data, please apply your changes again.");
+        } else if (productActions.searchProductByID(Integer.valueOf(administration.txtProductID.getText())) != null) {
+            // Show error message if the quantity is below the units held by open carts
+            JOptionPane.showMessageDialog(null, "The quantity cannot be lower than the units held by open carts,\nwhich are: "
+                    + productActions.heldQuantity(Integer.valueOf(administration.txtProductID.getText())));
+        }
+    }
+
+    private void showProduct(Integer productID) {
+        // Fill the form from the stored product, reading its version first so a later change is detected
+        productVersion = productActions.versionOf(productID);
+        Product product = productActions.searchProductByID(productID);
+        if (product == null) {
+            return;
         }
+        administration.txtProductID.setText(String.valueOf(product.getProductID()));
+        administration.txtProductName.setText(product.getProductName());
+        administration.txtProductDescription.setText(product.getProductDescription());
+        administration.txtProductSalesPrice.setText(Money.format(product.getProductUnitPrice()));
+        administration.txtProductQuantity.setText(String.valueOf(product.getProductQuantity())); // On hand, the table shows the available units
+        EntityComboModel.of(administration.cmbProductsCategories).select(EntityComboModel.idOf(product.getProductCategoryName()));
+        administration.btnProductRegister.setEnabled(false); // Disable the register button
     }
 
     private void deleteProduct() {
@@ -144,10 +185,8 @@ public class ProductController implements ActionListener, MouseListener, KeyList
     }
 
     private void refreshProductData() {
-        // Refresh product table and fields
-        cleanTableAndCmb(); // Clear the table and combo box
+        // Clear the fields; the rows follow the write through the change bus
         cleanFields(); // Clear the input fields
-        loadProducts(); // Load products into the table and combo box
     }
 
     @Override
@@ -191,13 +230,7 @@ public class ProductController implements ActionListener, MouseListener, KeyList
         // Handle table row click to populate product fields
         if (e.getSource() == administration.productTable) {
             int row = administration.productTable.rowAtPoint(e.getPoint()); // Get the clicked row
-            administration.txtProductID.setText(administration.productTable.getValueAt(row, 0).toString());
-            administration.txtProductName.setText(administration.productTable.getValueAt(row, 1).toString());
-            administration.txtProductDescription.setText(administration.productTable.getValueAt(row, 2).toString());
-            administration.txtProductSalesPrice.setText(administration.productTable.getValueAt(row, 3).toString());
-            administration.txtProductQuantity.setText(administration.productTable.getValueAt(row, 4).toString());
-            administration.cmbProductsCategories.setSelectedItem(administration.productTable.getValueAt(row, 5).toString());
-            administration.btnProductRegister.setEnabled(false); // Disable the register button
+            showProduct((Integer) administration.productTable.getValueAt(row, 0));
         } else if (e.getSource() == administration.lblProducts) {
             // Switch to the product management tab
             administration.jTabbedPanePanels.setSelectedIndex(0);
@@ -238,8 +271,7 @@ public class ProductController implements ActionListener, MouseListener, KeyList
     public void keyReleased(KeyEvent e) {
         // Handle key release event in search field
         if (e.getSource() == administration.txtSearchProduct) {
-            cleanTableAndCmb(); // Clear the table and combo box
-            loadProducts(); // Load products based on the search input
+            search.restart(); // Load the rows for the search text once the typing pauses
         }
     }
 }
@@ -1,9 +1,15 @@
 package Controllers;
 
+import Models.CsvExporter;
+import Models.Customer;
+import Models.CustomerActions;
+import Models.Money;
 import Models.Product;
 import Models.ProductActions;
 import Models.Purchase;
 import Models.PurchaseActions;
+import Models.PurchaseLedger;
+import Models.SalesRollup;
 import Views.Administration;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
@@ -13,23 +19,34 @@ import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
-import java.util.ArrayList;
-import java.util.Map;
+import java.time.LocalDate;
+import javax.swing.JMenuItem;
 import javax.swing.JOptionPane;
-import javax.swing.table.DefaultTableModel;
+import javax.swing.JPopupMenu;
 
 public class PurchaseController implements ItemListener, KeyListener, ActionListener, MouseListener {
 
     private final Administration administration; // Reference to the Administration view
     private final PurchaseActions purchaseActions; // Reference to PurchaseActions model
     private final ProductActions productActions; // Reference to ProductActions model
-    private DefaultTableModel model; // Table model for purchases
+    private final CustomerActions customerActions; // Reference to CustomerActions model, resolves report customers
+    private final String cartID = PurchaseActions.terminalCartID(); // Cart of this terminal
     private Product product; // Reference to the current product
+    private final EntityTableModel<Purchase> purchaseModel; // Rows of the cart table, read from its purchases
+    private final EntityTableModel<Sale> reportsModel; // Rows of the reports table, one per completed purchase
 
-    public PurchaseController(Administration administration, PurchaseActions purchaseActions, ProductActions productActions) {
+    // Completed purchase as the reports table shows it; the customer name is looked up when the row is painted
+    private record Sale(int purchaseID, int customerID, long price, int epochDay) {
+    }
+
+    public PurchaseController(Administration administration, PurchaseActions purchaseActions, ProductActions productActions,
+            CustomerActions customerActions) {
         this.administration = administration;
         this.purchaseActions = purchaseActions;
         this.productActions = productActions;
+        this.customerActions = customerActions;
+        this.purchaseModel = EntityTableModel.install(administration.purchaseTable, Purchase::getPurchaseID, this::purchaseValue);
+        this.reportsModel = EntityTableModel.install(administration.reportsTable, Sale::purchaseID, this::saleValue);
         // Add item listener to combo box
         this.administration.cmbPurchasesProduct.addItemListener(this);
         // Add key listener to text field
@@ -38,6 +55,17 @@ public class PurchaseController implements ItemListener, KeyListener, ActionList
         addActionListeners();
         // Add mouse listeners to components
         addMouseListeners();
+        // Offer a CSV export of the completed purchases in the context menu of the reports
+        CsvExportTask.install(administration.reportsTable, CsvExporter.Source.PURCHASES);
+        // Offer the sales of the customer of a completed purchase, read from the rollups
+        JMenuItem customerSalesItem = new JMenuItem("Customer sales...");
+        customerSalesItem.addActionListener(e -> showCustomerSales());
+        JPopupMenu popup = administration.reportsTable.getComponentPopupMenu();
+        if (popup == null) {
+            popup = new JPopupMenu();
+            administration.reportsTable.setComponentPopupMenu(popup);
+        }
+        popup.add(customerSalesItem);
     }
 
     private void addActionListeners() {
@@ -59,17 +87,10 @@ public class PurchaseController implements ItemListener, KeyListener, ActionList
     public void itemStateChanged(ItemEvent e) {
         // Handle item state change in combo box
         if (e.getSource() == administration.cmbPurchasesProduct && e.getStateChange() == ItemEvent.SELECTED) {
-            String productSelected = administration.cmbPurchasesProduct.getSelectedItem().toString().trim();
-            try {
-                // Extract the product ID from the selected item
-                String productIdStr = productSelected.substring(productSelected.lastIndexOf("(") + 1, productSelected.length() - 1);
-                int purchaseProductID = Integer.parseInt(productIdStr);
-                administration.txtPurchaseProductID.setText(String.valueOf(purchaseProductID));
-                // Search for the product by ID
-                product = productActions.searchProductByID(purchaseProductID);
-            } catch (NumberFormatException ex) {
-                ex.printStackTrace();
-            }
+            // The selected item is the product itself; read its current version by ID
+            int purchaseProductID = EntityComboModel.of(administration.cmbPurchasesProduct).selected().getProductID();
+            administration.txtPurchaseProductID.setText(String.valueOf(purchaseProductID));
+            product = productActions.searchProductByID(purchaseProductID);
         }
     }
 
@@ -89,9 +110,12 @@ public class PurchaseController implements ItemListener, KeyListener, ActionList
         if (e.getSource() == administration.txtPurchaseProductQuantity) {
             // Calculate the total price based on the product quantity
             if (!administration.txtPurchaseProductQuantity.getText().isBlank() && purchaseActions.isNumericString(administration.txtPurchaseProductQuantity.getText().trim())) {
-                double productPrice = product.getProductUnitPrice();
-                double purchaseQuantity = Double.parseDouble(administration.txtPurchaseProductQuantity.getText().trim());
-                administration.txtPurchasePrice.setText(String.valueOf(productPrice * purchaseQuantity));
+                try {
+                    int purchaseQuantity = Integer.parseInt(administration.txtPurchaseProductQuantity.getText().trim());
+                    administration.txtPurchasePrice.setText(Money.format(Money.times(product.getProductUnitPrice(), purchaseQuantity)));
+                } catch (NumberFormatException | ArithmeticException ex) {
+                    administration.txtPurchasePrice.setText(""); // More units than any stock holds
+                }
             }
         }
     }
@@ -105,13 +129,9 @@ public class PurchaseController implements ItemListener, KeyListener, ActionList
     }
 
     private void calculateTotalPurchasesInProcess() {
-        // Calculate the total price of purchases in process
-        ArrayList<Purchase> purchases = purchaseActions.listPurchasesInProcess();
-        double total = 0d;
-        for (Purchase purchase : purchases) {
-            total += purchase.getPurchasePrice();
-        }
-        administration.txtPurchaseTotal.setText(String.valueOf(total) + "$");
+        // Read the running total of the purchases in process of this cart
+        long total = purchaseActions.totalInProcess(cartID);
+        administration.txtPurchaseTotal.setText(Money.format(total) + "$");
     }
 
     private void cleanFields() {
@@ -121,50 +141,63 @@ public class PurchaseController implements ItemListener, KeyListener, ActionList
         administration.txtPurchaseID.setText("");
     }
 
-    private void cleanTablePurchases() {
-        // Clear the purchases table
-        model = (DefaultTableModel) administration.purchaseTable.getModel();
-        while (model.getRowCount() > 0) {
-            model.removeRow(0);
-        }
+    private Object purchaseValue(Purchase purchase, int column) {
+        // Cell of a purchase in process, read when it is painted
+        return switch (column) {
+            case 0 -> purchase.getPurchaseID();
+            case 1 -> purchase.getPurchaseProductID();
+            case 2 -> purchase.getPurchaseProduct();
+            case 3 -> purchase.getPurchaseQuantityToBuy();
+            case 4 -> Money.format(purchase.getPurchasePrice());
+            case 5 -> purchase.getPurchaseSupplier();
+            default -> purchase.getPurchaseCustomer();
+        };
     }
 
-    private void cleanTableReports() {
-        // Clear the reports table
-        model = (DefaultTableModel) administration.reportsTable.getModel();
-        while (model.getRowCount() > 0) {
-            model.removeRow(0);
+    private Object saleValue(Sale sale, int column) {
+        // Cell of a completed purchase: customer, price and day
+        if (column == 0) {
+            Customer customer = customerActions.searchCustomerByID(sale.customerID());
+            return (customer != null ? customer.getCustomerName() + " " : "") + "(" + sale.customerID() + ")";
         }
+        return column == 1 ? Money.format(sale.price()) : PurchaseLedger.formatDay(sale.epochDay());
     }
 
     public void loadPurchases() {
-        // Load purchases in process and display in table
-        ArrayList<Purchase> purchases = purchaseActions.listPurchasesInProcess();
-        model = (DefaultTableModel) administration.purchaseTable.getModel();
-        Object[] row = new Object[7];
-        for (Purchase purchase : purchases) {
-            row[0] = purchase.getPurchaseID();
-            row[1] = purchase.getPurchaseProductID();
-            row[2] = purchase.getPurchaseProduct();
-            row[3] = purchase.getPurchaseQuantityToBuy();
-            row[4] = purchase.getPurchasePrice();
-            row[5] = purchase.getPurchaseSupplier();
-            row[6] = purchase.getPurchaseCustomer();
-            model.addRow(row);
-        }
+        // Load purchases in process and display in table, off the event thread
+        TableLoader.load(purchaseModel, rows -> {
+            for (Purchase purchase : purchaseActions.listPurchasesInProcess(cartID)) {
+                rows.add(purchase);
+            }
+        });
     }
 
     public void loadReports() {
-        // Load completed purchases and display in reports table
-        ArrayList<Purchase> purchases = purchaseActions.listPurchasesCompleted();
-        model = (DefaultTableModel) administration.reportsTable.getModel();
-        Object[] row = new Object[3];
-        for (Purchase purchase : purchases) {
-            row[0] = purchase.getPurchaseCustomer();
-            row[1] = purchase.getPurchasePrice();
-            row[2] = purchase.getPurchaseDateTime();
-            model.addRow(row);
+        // Load completed purchases from the ledger and display in reports table, off the event thread
+        TableLoader.load(reportsModel, rows -> {
+            purchaseActions.scanPurchasesCompleted((purchaseID, productID, quantity, price, epochDay, customerID, supplierID)
+                    -> rows.add(new Sale(purchaseID, customerID, price, epochDay)));
+        });
+    }
+
+    private void showCustomerSales() {
+        // Show the purchases of the customer of the selected completed purchase, over 30 days and in all
+        int row = administration.reportsTable.getSelectedRow();
+        if (row < 0) {
+            JOptionPane.showMessageDialog(null, "Select a completed purchase first");
+            return;
         }
+        Sale sale = reportsModel.get(administration.reportsTable.convertRowIndexToModel(row));
+        int today = (int) LocalDate.now().toEpochDay();
+        SalesRollup.Totals lastDays = purchaseActions.salesTotals(SalesRollup.Dimension.CUSTOMER, sale.customerID(), today - 29, today);
+        SalesRollup.Totals allDays = purchaseActions.salesTotals(SalesRollup.Dimension.CUSTOMER, sale.customerID(),
+                Integer.MIN_VALUE, Integer.MAX_VALUE);
+        JOptionPane.showMessageDialog(null, "Sales of the customer " + saleValue(sale, 0)
+                + "\nLast 30 days: " + describe(lastDays) + "\nIn all: " + describe(allDays));
+    }
+
+    private static String describe(SalesRollup.Totals totals) {
+        return totals.count() + " purchases, " + totals.quantity() + " units, " + Money.format(totals.revenue()) + "$";
     }
 
     private void cleanFieldsProducts() {
@@ -176,55 +209,36 @@ public class PurchaseController implements ItemListener, KeyListener, ActionList
         administration.txtProductSalesPrice.setText("");
     }
 
-    public void loadProducts() {
-        // Load products from database and display in table
-        Map<Integer, Product> products = productActions.listProducts(productActions.nameAdditionalValidation(administration.txtSearchProduct.getText().trim()));
-        model = (DefaultTableModel) administration.productTable.getModel();
-        Object[] row = new Object[6];
-        for (Map.Entry<Integer, Product> entry : products.entrySet()) {
-            Product value = entry.getValue();
-            row[0] = value.getProductID();
-            row[1] = value.getProductName();
-            row[2] = value.getProductDescription();
-            row[3] = value.getProductUnitPrice();
-            row[4] = value.getProductQuantity();
-            row[5] = value.getProductCategoryName();
-            model.addRow(row);
-        }
-    }
-
-    private void cleanTableProducts() {
-        // Clear the products table
-        model = (DefaultTableModel) administration.productTable.getModel();
-        while (model.getRowCount() > 0) {
-            model.removeRow(0);
-        }
-    }
-
     private void purchaseAdd() {
         // Add a purchase in process
         if (!purchaseActions.isNumericString(administration.txtPurchaseProductQuantity.getText().trim())) {
             // Show error message if quantity is not numeric
             JOptionPane.showMessageDialog(null, "The format of Quantity entered is not valid");
-        } else if (product.getProductQuantity() == 0) {
+        } else if (productActions.availableQuantity(product.getProductID()) == 0) {
             // Show error message if product quantity is zero
             JOptionPane.showMessageDialog(null, "The quantity of product has run out");
+        } else if (!productActions.isDoubleString(administration.txtPurchasePrice.getText().trim())) {
+            // Show error message if the price is blank, as the quantity leaves it when its price is too large
+            JOptionPane.showMessageDialog(null, "Remember that in the Price field,\nthere can only be a price of up to 13 digits with up to two decimals.\nRequest a lower quantity if it is empty.");
         } else if (Integer.valueOf(administration.txtPurchaseProductQuantity.getText().trim()) <= 0) {
             // Show error message if quantity is not valid
             JOptionPane.showMessageDialog(null, "The amount entered is not valid");
-        } else if (Integer.valueOf(administration.txtPurchaseProductQuantity.getText().trim()) > product.getProductQuantity()) {
+        } else if (Integer.valueOf(administration.txtPurchaseProductQuantity.getText().trim()) > productActions.availableQuantity(product.getProductID())) {
             // Show error message if requested quantity exceeds available quantity
             JOptionPane.showMessageDialog(null, "The quantity requested exceeds the available quantity of the product,\nwhich is: "
-                    + product.getProductQuantity() + "\nPlease request a lower quantity.");
+                    + productActions.availableQuantity(product.getProductID()) + "\nPlease request a lower quantity.");
+        } else if (!purchaseActions.addPurchase(cartID, product.getProductID(),
+                product.getProductName(), EntityComboModel.of(administration.cmbPurchasesSupplier).selectedLabel(),
+                Integer.valueOf(administration.txtPurchaseProductQuantity.getText().trim()),
+                EntityComboModel.of(administration.cmbPurchasesCustomer).selectedLabel(),
+                Money.parse(administration.txtPurchasePrice.getText().trim()))) {
+            // Another terminal took the stock since the product was selected
+            refreshProductData(); // Refresh product data
+            JOptionPane.showMessageDialog(null, "The stock changed in the meantime, the available quantity is now: "
+                    + productActions.availableQuantity(product.getProductID()));
         } else {
-            // Add purchase to the database
-            int productQuantityToRest = Integer.valueOf(administration.txtPurchaseProductQuantity.getText().trim());
-            purchaseActions.addPurchase(product.getProductID(),
-                    product.getProductName(), administration.cmbPurchasesSupplier.getSelectedItem().toString().trim(),
-                    productQuantityToRest, administration.cmbPurchasesCustomer.getSelectedItem().toString(),
-                    Double.valueOf(administration.txtPurchasePrice.getText().trim()));
+            // Units held for this cart until it is bought, deleted or left to expire
             refreshPurchaseData(); // Refresh purchase data
-            product.setProductQuantity(product.getProductQuantity() - productQuantityToRest); // Update product quantity
             refreshProductData(); // Refresh product data
             JOptionPane.showMessageDialog(null, "Successful purchase in process"); // Show success message
         }
@@ -232,11 +246,10 @@ public class PurchaseController implements ItemListener, KeyListener, ActionList
 
     private void buyPurchases() {
         // Finalize purchases in process
-        ArrayList<Purchase> purchasesInProcess = purchaseActions.listPurchasesInProcess();
-        if (!purchasesInProcess.isEmpty()) {
-            purchaseActions.finaliseBuy(); // Finalize all purchases in process
+        if (purchaseActions.finaliseBuy(cartID) != null) { // Finalize all purchases in process of this cart
             refreshPurchaseData(); // Refresh purchase data
             refreshReportsData(); // Refresh reports data
+            refreshProductData(); // The held units left the stock
             calculateGains(); // Calculate total gains
             cleanFields(); // Clear input fields
             administration.txtPurchaseTotal.setText(""); // Clear total purchase text field
@@ -247,44 +260,34 @@ public class PurchaseController implements ItemListener, KeyListener, ActionList
     }
 
     private void deletePurchase() {
-        // Delete a purchase in process
-        int productQuantityToRest = Integer.valueOf(administration.txtPurchaseProductQuantity.getText().trim());
-        purchaseActions.deletePurchaseInProcess(Integer.valueOf(administration.txtPurchaseID.getText().trim())); // Delete purchase
+        // Delete a purchase in process, its held units become available again
+        purchaseActions.deletePurchaseInProcess(cartID, Integer.valueOf(administration.txtPurchaseID.getText().trim())); // Delete purchase
         administration.btnPurchaseAdd.setEnabled(true); // Enable add button
         refreshPurchaseData(); // Refresh purchase data
-        product.setProductQuantity(product.getProductQuantity() + productQuantityToRest); // Update product quantity
         refreshProductData(); // Refresh product data
         JOptionPane.showMessageDialog(null, "Purchase successfully eliminated"); // Show success message
     }
 
     private void calculateGains() {
         // Calculate total gains from completed purchases
-        ArrayList<Purchase> reports = purchaseActions.listPurchasesCompleted();
-        double total = 0d;
-        for (Purchase report : reports) {
-            total += report.getPurchasePrice();
-        }
-        administration.txtPurchaseReport.setText(String.valueOf(total) + "$");
+        long total = purchaseActions.calculateGains();
+        administration.txtPurchaseReport.setText(Money.format(total) + "$");
     }
 
     private void refreshPurchaseData() {
         // Refresh purchases table and fields
-        cleanTablePurchases(); // Clear purchases table
         cleanFields(); // Clear input fields
         loadPurchases(); // Load purchases
         calculateTotalPurchasesInProcess(); // Calculate total purchases in process
     }
 
     private void refreshProductData() {
-        // Refresh products table and fields
-        cleanTableProducts(); // Clear products table
+        // Clear the product fields; the product rows follow the stock and holds through the change bus
         cleanFieldsProducts(); // Clear product input fields
-        loadProducts(); // Load products
     }
 
     private void refreshReportsData() {
         // Refresh reports table
-        cleanTableReports(); // Clear reports table
         loadReports(); // Load reports
     }
 
@@ -323,12 +326,12 @@ public class PurchaseController implements ItemListener, KeyListener, ActionList
             int row = administration.purchaseTable.rowAtPoint(e.getPoint());
             administration.txtPurchaseID.setText(administration.purchaseTable.getValueAt(row, 0).toString());
             administration.txtPurchaseProductID.setText(administration.purchaseTable.getValueAt(row, 1).toString());
-            administration.cmbPurchasesProduct.setSelectedItem(administration.purchaseTable.getValueAt(row, 2)
-                    + " (" + administration.txtPurchaseProductID.getText() + ")");
+            EntityComboModel.of(administration.cmbPurchasesProduct).select(Integer.parseInt(administration.txtPurchaseProductID.getText()));
             administration.txtPurchaseProductQuantity.setText(administration.purchaseTable.getValueAt(row, 3).toString());
             administration.txtPurchasePrice.setText(administration.purchaseTable.getValueAt(row, 4).toString());
-            administration.cmbPurchasesSupplier.setSelectedItem(administration.purchaseTable.getValueAt(row, 5).toString());
-            administration.cmbPurchasesCustomer.setSelectedItem(administration.purchaseTable.getValueAt(row, 6).toString());
+            // Supplier and customer are stored with their "Name (id)" label; select them by ID
+            EntityComboModel.of(administration.cmbPurchasesSupplier).select(EntityComboModel.idOf(administration.purchaseTable.getValueAt(row, 5).toString()));
+            EntityComboModel.of(administration.cmbPurchasesCustomer).select(EntityComboModel.idOf(administration.purchaseTable.getValueAt(row, 6).toString()));
         } else if (e.getSource() == administration.lblPurchases) {
             administration.jTabbedPanePanels.setSelectedIndex(1); // Switch to Purchases tab
         } else if (e.getSource() == administration.lblReports) {
@@ -57,9 +57,11 @@ public class RegisterController implements ActionListener {
             } else if (!employeeActions.userValidation(username)) {
                 // Check if username is unique
                 JOptionPane.showMessageDialog(null, "Username already in use.");
+            } else if (!employeeActions.addEmployee(username, password, name, address, email, role)) {
+                // Another registration took the email or username in the meantime
+                JOptionPane.showMessageDialog(null, "Email or username already in use.");
             } else {
-                // Add new employee to the database
-                employeeActions.addEmployee(username, password, name, address, email, role);
+                // New employee added to the database
                 cleanFields(); // Clear input fields
                 JOptionPane.showMessageDialog(null, "Employee registered successfully.");
                 openLogin(); // Open login view
@@ -0,0 +1,24 @@
+package Controllers;
+
+import javax.swing.Timer;
+
+// Runs the search of a search field once the typing pauses. Each keystroke restarts the wait, so the
+// keystrokes typed within the window become one load of the rows instead of one load each; the load
+// then cancels the one still running for the previous text.
+final class SearchDelay {
+
+    // System property with the number of milliseconds of pause that start a search
+    static final String DELAY_PROPERTY = "pharmacy.search.delay";
+
+    private final Timer timer; // Fires on the event thread once, after the last restart
+
+    SearchDelay(Runnable search) {
+        this.timer = new Timer(Integer.getInteger(DELAY_PROPERTY, 150), event -> search.run());
+        this.timer.setRepeats(false);
+    }
+
+    // A key was typed in the field: search after the pause that follows
+    void restart() {
+        timer.restart();
+    }
+}
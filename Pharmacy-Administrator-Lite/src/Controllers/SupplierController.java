@@ -1,5 +1,6 @@
 package Controllers;
 
+import Models.CsvImporter;
 import Models.Supplier;
 import Models.SupplierActions;
 import Views.Administration;
@@ -13,23 +14,34 @@ import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.swing.JOptionPane;
-import javax.swing.table.DefaultTableModel;
 
 public class SupplierController implements ActionListener, MouseListener, KeyListener {
 
     private final Administration administration; // Reference to the Administration view
     private final SupplierActions supplierActions; // Reference to SupplierActions model
-    private DefaultTableModel model; // Table model for supplier table
+    private static final int SEARCH_LIMIT = 500; // Most rows listed for a name prefix
+    private long supplierVersion; // Version of the supplier shown in the form, checked when it is saved
+    private final EntityTableModel<Supplier> supplierModel; // Rows of the supplier table, read from the listed suppliers
+    private final SearchDelay search = new SearchDelay(this::loadSuppliers); // Loads the rows once the search typing pauses
 
     public SupplierController(Administration administration, SupplierActions supplierActions) {
         this.administration = administration;
         this.supplierActions = supplierActions;
+        this.supplierModel = EntityTableModel.install(administration.supplierTable, Supplier::getSupplierID, this::supplierValue);
+        // The purchase supplier combo box lists the same suppliers as the table
+        EntityComboModel.install(administration.cmbPurchasesSupplier, supplierModel, Supplier::getSupplierName,
+                supplierActions::searchSupplierByID, new Supplier());
         // Add action listeners to buttons
         addActionListeners();
         // Add mouse listeners to components
         addMouseListeners();
         // Add key listeners to search field
         addKeyListeners();
+        // Offer a CSV import in the context menu of the table
+        CsvImportTask.install(administration.supplierTable, CsvImporter.Target.SUPPLIERS, this::loadSuppliers);
+        // Apply the writes of suppliers to their rows
+        TableSync.install(administration, supplierActions.changes(), supplierModel, SEARCH_LIMIT,
+                this::searchPrefix, Supplier::getSupplierName, supplier -> true, this::loadSuppliers);
     }
 
     private void addActionListeners() {
@@ -71,32 +83,32 @@ public class SupplierController implements ActionListener, MouseListener, KeyLis
         administration.txtSupplierTelephone.setText("");
     }
 
-    private void cleanTableAndCmb() {
-        // Clear the supplier table and combo box
-        model = (DefaultTableModel) administration.supplierTable.getModel();
-        while (model.getRowCount() > 0) {
-            model.removeRow(0);
-        }
-        administration.cmbPurchasesSupplier.removeAllItems();
+    private String searchPrefix() {
+        return supplierActions.nameAdditionalValidation(administration.txtSearchSupplier.getText().trim());
+    }
+
+    private Object supplierValue(Supplier value, int column) {
+        // Cell of a supplier in the table, read when it is painted
+        return switch (column) {
+            case 0 -> value.getSupplierID();
+            case 1 -> value.getSupplierName();
+            case 2 -> value.getSupplierDescription();
+            case 3 -> value.getSupplierAddress();
+            case 4 -> value.getSupplierTelephone();
+            case 5 -> value.getSupplierEmail();
+            default -> value.getSupplierCity();
+        };
     }
 
     public void loadSuppliers() {
-        // Load suppliers from the database and display in the table and combo box
-        Map<Integer, Supplier> suppliers = supplierActions.listSuppliers(supplierActions.nameAdditionalValidation(administration.txtSearchSupplier.getText().trim()));
-        model = (DefaultTableModel) administration.supplierTable.getModel();
-        Object[] row = new Object[7];
-        for (Map.Entry<Integer, Supplier> entry : suppliers.entrySet()) {
-            Supplier value = entry.getValue();
-            row[0] = value.getSupplierID();
-            row[1] = value.getSupplierName();
-            row[2] = value.getSupplierDescription();
-            row[3] = value.getSupplierAddress();
-            row[4] = value.getSupplierTelephone();
-            row[5] = value.getSupplierEmail();
-            row[6] = value.getSupplierCity();
-            model.addRow(row); // Add supplier data to the table
-            administration.cmbPurchasesSupplier.addItem(row[1] + " (" + row[0] + ")"); // Add supplier to combo box
-        }
+        // Load suppliers from the database and display in the table and combo box, replacing the previous rows
+        String prefix = searchPrefix();
+        TableLoader.load(supplierModel, rows -> {
+            Map<Integer, Supplier> suppliers = supplierActions.listSuppliersStartingWith(prefix, SEARCH_LIMIT);
+            for (Supplier value : suppliers.values()) {
+                rows.add(value); // Add supplier to the table
+            }
+        });
     }
 
     private void supplierModify() {
@@ -116,10 +128,19 @@ public class SupplierController implements ActionListener, MouseListener, KeyLis
                 JOptionPane.showMessageDialog(null, "Telephone already in use.");
             } else if (supplierActions.modifySupplier(supplierActions.nameAdditionalValidation(administration.txtSupplierName.getText().trim()),
                     email, administration.txtSupplierAddress.getText().trim(),
-                    Integer.valueOf(administration.txtSupplierID.getText()), telephone, administration.txtSupplierCity.getText().trim(), administration.txtSupplierDescription.getText().trim())) {
+                    Integer.valueOf(administration.txtSupplierID.getText()), supplierVersion, telephone, administration.txtSupplierCity.getText().trim(), administration.txtSupplierDescription.getText().trim())) {
                 refreshSupplierData(); // Refresh supplier data
                 JOptionPane.showMessageDialog(null, "Supplier modified successfully.");
                 administration.btnSupplierRegister.setEnabled(true); // Enable register button
+            } else if (supplierActions.versionOf(Integer.valueOf(administration.txtSupplierID.getText())) != supplierVersion) {
+                // Someone else saved this supplier since the form was filled
+                Integer supplierID = Integer.valueOf(administration.txtSupplierID.getText());
+                refreshSupplierData();
+                showSupplier(supplierID);
+                JOptionPane.showMessageDialog(null, "The supplier was changed by someone else in the meantime.\nThe form now shows its current data, please apply your changes again.");
+            } else {
+                // Another supplier took the email or telephone in the meantime
+                JOptionPane.showMessageDialog(null, "Email or telephone already in use.");
             }
         } catch (Exception ex) {
             Logger.getLogger(SupplierController.class.getName()).log(Level.SEVERE, null, ex);
@@ -127,6 +148,23 @@ public class SupplierController implements ActionListener, MouseListener, KeyLis
         }
     }
 
+    private void showSupplier(Integer supplierID) {
+        // Fill the form from the stored supplier, reading its version first so a later change is detected
+        supplierVersion = supplierActions.versionOf(supplierID);
+        Supplier supplier = supplierActions.searchSupplierByID(supplierID);
+        if (supplier == null) {
+            return;
+        }
+        administration.txtSupplierID.setText(String.valueOf(supplier.getSupplierID()));
+        administration.txtSupplierName.setText(supplier.getSupplierName());
+        administration.txtSupplierDescription.setText(supplier.getSupplierDescription());
+        administration.txtSupplierAddress.setText(supplier.getSupplierAddress());
+        administration.txtSupplierTelephone.setText(supplier.getSupplierTelephone());
+        administration.txtSupplierMail.setText(supplier.getSupplierEmail());
+        administration.txtSupplierCity.setText(supplier.getSupplierCity());
+        administration.btnSupplierRegister.setEnabled(false); // Disable register button
+    }
+
     private void supplierRegister() {
         // Register a new supplier
         try {
@@ -140,12 +178,14 @@ public class SupplierController implements ActionListener, MouseListener, KeyLis
                 JOptionPane.showMessageDialog(null, "Invalid telephone format.");
             } else if (!supplierActions.isTelephoneUnique(telephone)) {
                 JOptionPane.showMessageDialog(null, "Telephone already in use.");
-            } else {
-                supplierActions.addSupplier(supplierActions.nameAdditionalValidation(administration.txtSupplierName.getText().trim()),
-                        email, administration.txtSupplierAddress.getText().trim(),
-                        telephone, administration.txtSupplierCity.getText().trim(), administration.txtSupplierDescription.getText().trim());
+            } else if (supplierActions.addSupplier(supplierActions.nameAdditionalValidation(administration.txtSupplierName.getText().trim()),
+                    email, administration.txtSupplierAddress.getText().trim(),
+                    telephone, administration.txtSupplierCity.getText().trim(), administration.txtSupplierDescription.getText().trim())) {
                 refreshSupplierData(); // Refresh supplier data
                 JOptionPane.showMessageDialog(null, "Supplier registered successfully.");
+            } else {
+                // Another registration took the email or telephone in the meantime
+                JOptionPane.showMessageDialog(null, "Email or telephone already in use.");
             }
         } catch (Exception ex) {
             Logger.getLogger(SupplierController.class.getName()).log(Level.SEVERE, null, ex);
@@ -168,10 +208,8 @@ public class SupplierController implements ActionListener, MouseListener, KeyLis
     }
 
     private void refreshSupplierData() {
-        // Refresh supplier table and fields
-        cleanTableAndCmb(); // Clear table and combo box
+        // Clear the fields; the rows follow the write through the change bus
         cleanFields(); // Clear input fields
-        loadSuppliers(); // Load suppliers from the database
     }
 
     @Override
@@ -216,14 +254,7 @@ public class SupplierController implements ActionListener, MouseListener, KeyLis
         if (e.getSource() == administration.supplierTable) {
             // Populate supplier fields when a row in the table is clicked
             int row = administration.supplierTable.rowAtPoint(e.getPoint());
-            administration.txtSupplierID.setText(administration.supplierTable.getValueAt(row, 0).toString());
-            administration.txtSupplierName.setText(administration.supplierTable.getValueAt(row, 1).toString());
-            administration.txtSupplierDescription.setText(administration.supplierTable.getValueAt(row, 2).toString());
-            administration.txtSupplierAddress.setText(administration.supplierTable.getValueAt(row, 3).toString());
-            administration.txtSupplierTelephone.setText(administration.supplierTable.getValueAt(row, 4).toString());
-            administration.txtSupplierMail.setText(administration.supplierTable.getValueAt(row, 5).toString());
-            administration.txtSupplierCity.setText(administration.supplierTable.getValueAt(row, 6).toString());
-            administration.btnSupplierRegister.setEnabled(false); // Disable register button
+            showSupplier((Integer) administration.supplierTable.getValueAt(row, 0));
         } else if (e.getSource() == administration.lblSuppliers) {
             // Switch to suppliers tab when label is clicked
             administration.jTabbedPanePanels.setSelectedIndex(4);
@@ -265,8 +296,7 @@ public class SupplierController implements ActionListener, MouseListener, KeyLis
         // Handle key release events for the search field
         if (e.getSource() == administration.txtSearchSupplier) {
             // Filter suppliers when a key is released in the search field
-            cleanTableAndCmb(); // Clear table and combo box
-            loadSuppliers(); // Load filtered suppliers
+            search.restart(); // Load the rows for the search text once the typing pauses
         }
     }
 }
@@ -0,0 +1,126 @@
+package Controllers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
+
+// Loads the rows of a table off the event thread. The stores are read and the entities listed by a
+// SwingWorker, which hands them to the event thread in pages as it goes: the first page replaces
+// the rows, one fireTableDataChanged, and each later one is appended, one fireTableRowsInserted.
+// The first page is about a screen of rows, so the first matches show as soon as they are found
+// even when the full listing is large; later pages are larger, to keep the events few. A new load
+// of a table cancels the one still running for it, so a search typed quickly only ever shows the
+// rows of its last text.
+final class TableLoader<T> extends SwingWorker<Void, Void> {
+
+    private static final int FIRST_PAGE = 64; // Rows of the first page, a screen of them
+    private static final int MAX_PAGE = 4096; // Pages double up to this many rows
+
+    // Lists the entities of a table into the rows, off the event thread
+    interface Fetch<T> {
+
+        void list(Rows<T> rows) throws Exception;
+    }
+
+    // Entities of a table as they are listed, handed to the event thread a page at a time
+    static final class Rows<T> {
+
+        private final TableLoader<T> loader;
+        private List<T> page = new ArrayList<>(FIRST_PAGE);
+        private int pageSize = FIRST_PAGE;
+
+        private Rows(TableLoader<T> loader) {
+            this.loader = loader;
+        }
+
+        // Add the entity of a row; stops the load once a newer one replaced it
+        void add(T entity) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new CancellationException();
+            }
+            page.add(entity);
+            if (page.size() == pageSize) {
+                flush();
+                pageSize = Math.min(pageSize * 2, MAX_PAGE);
+                page = new ArrayList<>(pageSize);
+            }
+        }
+
+        private void flush() {
+            List<T> full = page;
+            SwingUtilities.invokeLater(() -> loader.show(full)); // In order, and before done
+        }
+    }
+
+    private final EntityTableModel<T> model; // Model receiving the rows
+    private final Fetch<T> fetch; // Reads the stores and lists the entities
+    private boolean shown; // Whether a page replaced the rows yet, read on the event thread
+
+    private TableLoader(EntityTableModel<T> model, Fetch<T> fetch) {
+        this.model = model;
+        this.fetch = fetch;
+    }
+
+    // Replace the rows of the table with the entities listed by fetch, off the event thread
+    static <T> void load(EntityTableModel<T> model, Fetch<T> fetch) {
+        if (model.loader != null) {
+            model.loader.cancel(true); // Its rows are out of date
+        }
+        TableLoader<T> loader = new TableLoader<>(model, fetch);
+        model.loader = loader;
+        loader.execute();
+    }
+
+    // Whether a load of the table is still running; its rows will replace the current ones
+    static boolean isLoading(EntityTableModel<?> model) {
+        return model.loader != null;
+    }
+
+    // Run an action on the event thread once the load running for the table, or the newer one
+    // replacing it, has shown all its rows
+    static void afterLoad(EntityTableModel<?> model, Runnable action) {
+        model.afterLoad.add(action);
+    }
+
+    @Override
+    protected Void doInBackground() throws Exception {
+        Rows<T> rows = new Rows<>(this);
+        fetch.list(rows);
+        rows.flush(); // The last page, empty when the listing was a multiple of pages or empty itself
+        return null;
+    }
+
+    // Show a page of rows, unless a newer load owns the table
+    private void show(List<T> page) {
+        if (isCancelled() || model.loader != this) {
+            return;
+        }
+        if (!shown) {
+            shown = true;
+            model.setEntities(page); // Combo boxes over the model follow, see EntityComboModel
+        } else if (!page.isEmpty()) {
+            model.append(page);
+        }
+    }
+
+    @Override
+    protected void done() {
+        if (isCancelled() || model.loader != this) {
+            return; // A newer load owns the table
+        }
+        model.loader = null;
+        try {
+            get();
+        } catch (InterruptedException | ExecutionException ex) {
+            Logger.getLogger(TableLoader.class.getName()).log(Level.SEVERE, null, ex);
+        }
+        List<Runnable> actions = new ArrayList<>(model.afterLoad);
+        model.afterLoad.clear();
+        actions.forEach(Runnable::run);
+    }
+}
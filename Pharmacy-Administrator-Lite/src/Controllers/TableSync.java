@@ -0,0 +1,139 @@
+package Controllers;
+
+import Models.ChangeBus;
+import Models.EntityChange;
+import java.awt.Window;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import javax.swing.SwingUtilities;
+
+// Keeps the rows of a table, and so the combo boxes listing the same entities, in step with the
+// writes published by a store. Each batch of changes is applied on the event thread as row
+// inserts, updates and deletes, so a write re-renders its own row only instead of the whole table.
+// Changes received while the table is loading are kept and applied once the load has finished.
+// While a search is typed the rows are in name order then ID order, as the name indexes list them,
+// and an added row goes to its place; otherwise they are in ID order, as the store snapshots list
+// them, and an added row goes to its place by ID: usually last, but a row listed again, such as an
+// employee whose role no longer hides them, falls between the others.
+final class TableSync<T> {
+
+    private static final int BATCH_LIMIT = 256; // Larger batches, such as a CSV import, reload the table instead
+
+    private final EntityTableModel<T> model;
+    private final int limit; // Most rows listed for a search
+    private final Supplier<String> search; // Name prefix typed in the search field, blank when none
+    private final Function<T, String> name; // Name of an entity, searched by prefix
+    private final Predicate<T> listed; // Whether the table lists an entity at all
+    private final Runnable reload; // Load the rows again from the store
+    private final List<EntityChange<T>> deferred = new ArrayList<>(); // Changes received during a load
+    private boolean reloadDeferred; // Too many changes received during a load to patch them afterwards
+
+    private TableSync(EntityTableModel<T> model, int limit, Supplier<String> search,
+            Function<T, String> name, Predicate<T> listed, Runnable reload) {
+        this.model = model;
+        this.limit = limit;
+        this.search = search;
+        this.name = name;
+        this.listed = listed;
+        this.reload = reload;
+    }
+
+    // Apply the changes of the bus to the table until the window closes
+    static <T> void install(Window window, ChangeBus<T> bus, EntityTableModel<T> model, int limit,
+            Supplier<String> search, Function<T, String> name, Predicate<T> listed, Runnable reload) {
+        TableSync<T> sync = new TableSync<>(model, limit, search, name, listed, reload);
+        ChangeBus.Subscription<T> subscription = bus.subscribe(SwingUtilities::invokeLater, sync::apply);
+        window.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosed(WindowEvent e) {
+                subscription.cancel();
+            }
+        });
+    }
+
+    private void apply(List<EntityChange<T>> changes) {
+        if (TableLoader.isLoading(model)) {
+            // The rows on their way may predate the changes: they are applied once the load is done,
+            // instead of restarting it, which steady traffic from other terminals would do endlessly
+            if (deferred.isEmpty() && !reloadDeferred) {
+                TableLoader.afterLoad(model, this::applyDeferred);
+            }
+            if (reloadDeferred || deferred.size() + changes.size() > BATCH_LIMIT) {
+                reloadDeferred = true;
+                deferred.clear();
+            } else {
+                deferred.addAll(changes);
+            }
+            return;
+        }
+        if (changes.size() > BATCH_LIMIT) {
+            reload.run(); // Patching would cost more
+            return;
+        }
+        String prefix = search.get();
+        boolean searching = !prefix.isBlank();
+        for (EntityChange<T> change : changes) {
+            int index = searching ? model.indexOf(change.id()) : model.indexOfInIdOrder(change.id());
+            T entity = change.entity();
+            boolean shown = entity != null && listed.test(entity)
+                    // Listed by the search typed, in the case folding of the name indexes
+                    && String.valueOf(name.apply(entity)).regionMatches(true, 0, prefix, 0, prefix.length());
+            if (!shown) {
+                if (index >= 0) {
+                    if (searching && model.getRowCount() >= limit) {
+                        reload.run(); // The row past the limit, not listed yet, moves up
+                        return;
+                    }
+                    model.remove(index);
+                }
+            } else if (index >= 0 && (!searching || String.valueOf(name.apply(model.get(index))).equalsIgnoreCase(String.valueOf(name.apply(entity))))) {
+                model.set(index, entity); // Its place in the order is unchanged
+            } else {
+                if (index >= 0) {
+                    model.remove(index);
+                }
+                insert(entity, searching);
+            }
+        }
+    }
+
+    // Apply the changes received during the load that just finished, in the order they came; those
+    // the rows already reflect leave them unchanged, as every change carries the whole entity
+    private void applyDeferred() {
+        List<EntityChange<T>> changes = new ArrayList<>(deferred);
+        boolean reloadNow = reloadDeferred;
+        deferred.clear();
+        reloadDeferred = false;
+        if (reloadNow) {
+            reload.run(); // Once, whatever the number of changes
+        } else {
+            apply(changes);
+        }
+    }
+
+    private void insert(T entity, boolean searching) {
+        if (!searching) {
+            // Kept in ID order, which indexOfInIdOrder bisects on
+            model.insert(-Collections.binarySearch(model.entities(), entity, Comparator.comparingInt(model.id())) - 1, entity);
+            return;
+        }
+        // Order of the rows of a search: name ignoring case, then ID
+        Comparator<T> byName = Comparator.comparing((T row) -> String.valueOf(name.apply(row)), String.CASE_INSENSITIVE_ORDER)
+                .thenComparingInt(model.id());
+        int index = -Collections.binarySearch(model.entities(), entity, byName) - 1;
+        if (index >= limit) {
+            return; // Past the rows listed by the search
+        }
+        model.insert(index, entity);
+        if (model.getRowCount() > limit) {
+            model.remove(model.getRowCount() - 1); // The last row moved past the limit
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package Interfaces;
+
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+// Storage of the entities of one store, keyed by their ID
+public interface Repository<V> {
+
+    // Value stored under the ID, null if there is none
+    V get(int id);
+
+    // Insert or replace the value stored under the ID
+    void put(int id, V value);
+
+    // Remove the value stored under the ID, returning false if there was none
+    boolean remove(int id);
+
+    // Visit every value
+    void scan(Consumer<? super V> action);
+
+    // A value accepted by the filter, null if none is
+    V find(Predicate<? super V> filter);
+
+    // Number of values stored
+    int count();
+
+    // One past the highest ID ever stored, removed IDs included
+    int nextID();
+
+    // Remove every value
+    void clear();
+
+    // Whether the repository keeps its values in a file, which the snapshots leave out
+    default boolean isDurable() {
+        return false;
+    }
+
+    // Write pending changes to disk
+    default void flush() {
+    }
+}
@@ -1,17 +1,41 @@
 package Main;
 
+import Models.EmployeeActions;
+import Models.Storage;
 import Views.Login;
+import java.awt.GraphicsEnvironment;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import javax.swing.JOptionPane;
 import javax.swing.UnsupportedLookAndFeelException;
 
 public class Main {
 
     public static void main(String[] args) {
+        // Recover the stores saved by previous sessions before any view reads them
+        try {
+            Storage.start();
+        } catch (IOException | UncheckedIOException ex) {
+            // Running on would show stale data and save none of the changes made, so do not start
+            Logger.getLogger(Main.class.getName()).log(Level.SEVERE, "The saved data could not be loaded.", ex);
+            if (!GraphicsEnvironment.isHeadless()) {
+                JOptionPane.showMessageDialog(null, "The saved data could not be loaded: " + ex.getMessage(),
+                        "Pharmacy Administrator", JOptionPane.ERROR_MESSAGE);
+            }
+            System.exit(1);
+        }
+        // Save what is still pending when the application exits
+        Runtime.getRuntime().addShutdownHook(new Thread(Storage::stop, "storage-shutdown"));
         // Create and display the login window
         java.awt.EventQueue.invokeLater(() -> {
             try {
                 Login login = new Login();
+                // Only the first user can register the owner account
+                if (EmployeeActions.getInstance().getUserCount() != 0) {
+                    login.btnRegister.setEnabled(false);
+                }
                 login.setVisible(true);
             } catch (UnsupportedLookAndFeelException ex) {
                 Logger.getLogger(Main.class.getName()).log(Level.SEVERE, null, ex);
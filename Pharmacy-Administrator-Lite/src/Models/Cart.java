@@ -0,0 +1,75 @@
+package Models;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Basket of one terminal or session: its purchases in process, their running total and the
+// expiry of the stock they hold.
+// Every cart has its own monitor, so tills working on different carts never wait for each other.
+final class Cart {
+
+    // Purchase in process together with the cart holding it, as journaled and snapshotted
+    record Line(String cartID, Purchase purchase) {
+    }
+
+    private final String cartID;
+    private final List<Purchase> purchases = new ArrayList<>();
+    private long total = 0L; // Sum of the purchase prices in cents, kept as lines come and go
+    private long expiresAt; // System.nanoTime() at which the stock held by the lines is reclaimed
+
+    Cart(String cartID) {
+        this.cartID = cartID;
+    }
+
+    String cartID() {
+        return cartID;
+    }
+
+    synchronized void add(Purchase purchase) {
+        purchases.add(purchase);
+        total += purchase.getPurchasePrice();
+    }
+
+    // Remove a purchase by ID, returning it or null when the cart does not hold it
+    synchronized Purchase remove(int purchaseID) {
+        for (int i = 0; i < purchases.size(); i++) {
+            if (purchases.get(i).getPurchaseID() == purchaseID) {
+                Purchase purchase = purchases.remove(i);
+                total -= purchase.getPurchasePrice();
+                return purchase;
+            }
+        }
+        return null;
+    }
+
+    // Push back the expiry of the holds of every line, the cart is still in use
+    synchronized void renew(long ttlNanos) {
+        expiresAt = System.nanoTime() + ttlNanos;
+    }
+
+    // Whether the cart holds stock and was left untouched past its expiry
+    synchronized boolean isExpired(long now) {
+        return !purchases.isEmpty() && now - expiresAt >= 0;
+    }
+
+    synchronized ArrayList<Purchase> list() {
+        return new ArrayList<>(purchases);
+    }
+
+    synchronized long total() {
+        return total;
+    }
+
+    synchronized boolean isEmpty() {
+        return purchases.isEmpty();
+    }
+
+    synchronized int size() {
+        return purchases.size();
+    }
+
+    synchronized void clear() {
+        purchases.clear();
+        total = 0L;
+    }
+}
@@ -1,20 +1,37 @@
 package Models;
 
-import java.util.HashMap;
+import Interfaces.Repository;
+import java.io.DataInput;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Map;
 
 public class CategoryActions {
 
-    // Map to store category objects with their IDs
-    private Map<Integer, Category> categories = new HashMap<>();
+    // Repository storing category objects by their IDs
+    private final Repository<Category> categories = Storage.repository("category", EntityCodec::readCategory, EntityCodec::writeCategory);
     // Counter to keep track of the number of categories
-    private Integer categoryCount = 0;
+    private Integer categoryCount = categories.nextID();
+    // Whether a snapshot applies: always on the heap, only while a file repository is still empty
+    private final boolean recovers = !categories.isDurable() || categories.count() == 0;
+    // Category IDs by their unique name
+    private final UniqueIndex nameIndex = new UniqueIndex();
+    // Version stamp of each category, checked by modifyCategory
+    private final Versions versions = new Versions();
+    // Every write of a category, for the views listing them
+    private final ChangeBus<Category> changes = new ChangeBus<>();
+    // Immutable copy of the store replaced by every write, handed out by the listings in O(1)
+    private volatile PersistentIdMap<Category> snapshot = PersistentIdMap.empty();
 
     // Singleton instance of CategoryActions
     private static CategoryActions instance;
 
     // Private constructor to prevent instantiation
     private CategoryActions() {
+        categories.scan(category -> {
+            nameIndex.add(category.getCategoryName(), category.getCategoryID());
+            snapshot = snapshot.with(category.getCategoryID(), category);
+        });
     }
 
     // Singleton instance getter
@@ -32,17 +49,21 @@ public class CategoryActions {
         return new Category(categoryID, categoryName);
     }
 
-    // List all categories
+    // List all categories, in ID order; the map is a snapshot that later writes leave unchanged
     public Map<Integer, Category> listCategories() {
-        // Return the map of categories
-        return categories;
+        return snapshot.asMap();
     }
 
     // Check if a category name is unique
-    public boolean isCategoryNameUnique(String categoryName) {
+    public synchronized boolean isCategoryNameUnique(String categoryName) {
         // Check if no category has the given name
-        return categories.values().stream()
-                .noneMatch(category -> category.getCategoryName().equals(categoryName));
+        return nameIndex.isFree(categoryName);
+    }
+
+    // Search for a category by its exact name
+    public synchronized Category searchCategoryByName(String categoryName) {
+        Integer categoryID = nameIndex.owner(categoryName);
+        return categoryID == null ? null : categories.get(categoryID);
     }
 
     // Validate and format category name
@@ -56,35 +77,147 @@ public class CategoryActions {
         }
     }
 
-    // Add a new category
-    public void addCategory(String categoryName) {
-        // Create a new category and add it to the map
-        Category category = createCategory(categoryCount, categoryName);
-        categories.put(categoryCount, category);
-        // Increment the category count
-        categoryCount++;
+    // Add a new category, refusing a name already in use; returns once it is saved
+    public boolean addCategory(String categoryName) {
+        return Journal.commit(this, () -> {
+            // Checked again under the lock, another registration may have taken it since the form checked
+            if (!nameIndex.isFree(categoryName)) {
+                return false;
+            }
+            // Create a new category and add it to the repository
+            Category category = createCategory(categoryCount, categoryName);
+            store(category);
+            // Increment the category count
+            categoryCount++;
+            journalPut(category);
+            return true;
+        });
     }
 
-    // Modify an existing category
-    public boolean modifyCategory(Integer categoryID, String categoryName) {
-        // Check if the category exists
-        if (categories.containsKey(categoryID)) {
-            // Create a new category and replace the existing one
-            Category category = createCategory(categoryID, categoryName);
-            categories.replace(categoryID, category);
-            return true;
-        }
-        return false;
+    // Search for a category by ID
+    public Category searchCategoryByID(Integer categoryID) {
+        return categories.get(categoryID);
+    }
+
+    // Writes of categories, published as they happen
+    public ChangeBus<Category> changes() {
+        return changes;
+    }
+
+    // Version stamp of a category; pass it back to modifyCategory to detect changes made in the meantime
+    public long versionOf(Integer categoryID) {
+        return versions.of(categoryID);
+    }
+
+    // Modify an existing category if nobody changed it since version was read, refusing a name used
+    // by another category. On false, versionOf tells a stale version from a taken name.
+    public boolean modifyCategory(Integer categoryID, long version, String categoryName) {
+        return Journal.commit(this, () -> {
+            // Check if the category exists and is unchanged
+            if (categories.get(categoryID) != null && versions.matches(categoryID, version) && nameIndex.isFreeFor(categoryName, categoryID)) {
+                // Create a new category and replace the existing one
+                Category category = createCategory(categoryID, categoryName);
+                store(category);
+                journalPut(category);
+                return true;
+            }
+            return false;
+        });
     }
 
     // Delete an existing category
     public boolean deleteCategory(Integer categoryID) {
-        // Check if the category exists
-        if (categories.containsKey(categoryID)) {
-            // Remove the category from the map
-            categories.remove(categoryID);
+        return Journal.commit(this, () -> {
+            // Remove the category if it exists
+            if (unstore(categoryID)) {
+                journalRemove(categoryID);
+                return true;
+            }
+            return false;
+        });
+    }
+
+    // Put a category in the repository and keep the name index in step
+    private void store(Category category) {
+        Category previous = categories.get(category.getCategoryID());
+        categories.put(category.getCategoryID(), category);
+        nameIndex.replace(previous != null ? previous.getCategoryName() : null, category.getCategoryName(), category.getCategoryID());
+        versions.bump(category.getCategoryID());
+        snapshot = snapshot.with(category.getCategoryID(), category);
+        if (previous == null) {
+            changes.added(category.getCategoryID(), category);
+        } else {
+            changes.updated(category.getCategoryID(), category);
+        }
+    }
+
+    // Remove a category from the repository and the name index
+    private boolean unstore(Integer categoryID) {
+        Category category = categories.get(categoryID);
+        if (category != null && categories.remove(categoryID)) {
+            nameIndex.remove(category.getCategoryName(), categoryID);
+            versions.remove(categoryID);
+            snapshot = snapshot.without(categoryID);
+            changes.removed(categoryID);
             return true;
         }
         return false;
     }
+
+    // Record the current state of a category in the journal, whatever the repository
+    private void journalPut(Category category) {
+        Journal.append(Journal.CATEGORY, Journal.PUT, out -> EntityCodec.writeCategory(out, category));
+    }
+
+    // Record the removal of a category in the journal
+    private void journalRemove(Integer categoryID) {
+        Journal.append(Journal.CATEGORY, Journal.REMOVE, out -> out.writeInt(categoryID));
+    }
+
+    // Re-apply a journal record during startup recovery; the records are newer than a file
+    // repository, which is forced whenever the journal rotates
+    synchronized void replay(byte operation, DataInput in) throws IOException {
+        if (operation == Journal.PUT) {
+            Category category = EntityCodec.readCategory(in);
+            store(category);
+            categoryCount = Math.max(categoryCount, category.getCategoryID() + 1); // Never reuse a journaled ID
+        } else if (operation == Journal.REMOVE) {
+            unstore(in.readInt());
+        }
+    }
+
+    // Copy the store for a snapshot, null when the repository persists the categories itself
+    StoreImage<Category> capture() {
+        if (categories.isDurable()) {
+            return null;
+        }
+        PersistentIdMap<Category> current;
+        int counter;
+        synchronized (this) { // Only reading the snapshot and the counter holds the writers back
+            current = snapshot;
+            counter = categoryCount;
+        }
+        return new StoreImage<>(new ArrayList<>(current.asMap().values()), counter);
+    }
+
+    // Replace the store with the content of a snapshot
+    synchronized void restore(StoreImage<Category> image) {
+        if (!recovers) {
+            categoryCount = Math.max(image.counter(), categories.nextID());
+            return; // The file repository is newer than the snapshot
+        }
+        categories.clear();
+        nameIndex.clear();
+        versions.clear();
+        snapshot = PersistentIdMap.empty();
+        for (Category category : image.entities()) {
+            store(category);
+        }
+        categoryCount = Math.max(image.counter(), categories.nextID());
+    }
+
+    // Flush the repository to disk
+    synchronized void force() {
+        categories.flush();
+    }
 }
@@ -0,0 +1,108 @@
+package Models;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+/**
+ * Publishes the writes of one store to its subscribers. Each store owns a bus
+ * and publishes every entity it adds, updates or removes, so a view can apply
+ * the change to the rows it shows instead of reading the store again.
+ *
+ * Changes are coalesced per subscriber: the ones published before its
+ * executor runs the delivery reach it as one batch, holding the net change of
+ * each entity. A burst of writes, such as a checkout selling many products,
+ * becomes one batch once the executor gets to it.
+ *
+ * @param <T> Type of the entities of the store
+ */
+public final class ChangeBus<T> {
+
+    private final List<Subscription<T>> subscriptions = new CopyOnWriteArrayList<>();
+
+    /**
+     * Deliver the changes of the store to the listener, on the executor.
+     *
+     * @param executor Runs the deliveries, SwingUtilities::invokeLater for a view
+     * @param listener Receives each batch of changes, in the order they were first published
+     * @return The subscription, to cancel once the listener is gone
+     */
+    public Subscription<T> subscribe(Executor executor, Consumer<List<EntityChange<T>>> listener) {
+        Subscription<T> subscription = new Subscription<>(this, executor, listener);
+        subscriptions.add(subscription);
+        return subscription;
+    }
+
+    void added(int id, T entity) {
+        publish(EntityChange.Kind.ADDED, id, entity);
+    }
+
+    void updated(int id, T entity) {
+        publish(EntityChange.Kind.UPDATED, id, entity);
+    }
+
+    void removed(int id) {
+        publish(EntityChange.Kind.REMOVED, id, null);
+    }
+
+    private void publish(EntityChange.Kind kind, int id, T entity) {
+        if (subscriptions.isEmpty()) {
+            return; // Nobody listens, as during startup recovery
+        }
+        EntityChange<T> change = new EntityChange<>(kind, id, entity);
+        for (Subscription<T> subscription : subscriptions) {
+            subscription.offer(change);
+        }
+    }
+
+    // Listener of a bus with the changes waiting for its next delivery
+    public static final class Subscription<T> {
+
+        private final ChangeBus<T> bus;
+        private final Executor executor;
+        private final Consumer<List<EntityChange<T>>> listener;
+        private Map<Integer, EntityChange<T>> pending = new LinkedHashMap<>(); // Net change by ID, guarded by this
+        private boolean scheduled; // Whether a delivery is on its way, guarded by this
+
+        private Subscription(ChangeBus<T> bus, Executor executor, Consumer<List<EntityChange<T>>> listener) {
+            this.bus = bus;
+            this.executor = executor;
+            this.listener = listener;
+        }
+
+        // Stop the deliveries; a batch already on its way is dropped
+        public void cancel() {
+            bus.subscriptions.remove(this);
+            synchronized (this) {
+                pending.clear();
+            }
+        }
+
+        private void offer(EntityChange<T> change) {
+            synchronized (this) {
+                pending.merge(change.id(), change, EntityChange::then);
+                if (scheduled) {
+                    return; // Folded into the delivery on its way
+                }
+                scheduled = true;
+            }
+            executor.execute(this::deliver);
+        }
+
+        private void deliver() {
+            List<EntityChange<T>> batch;
+            synchronized (this) {
+                scheduled = false;
+                batch = new ArrayList<>(pending.values());
+                pending = new LinkedHashMap<>();
+            }
+            if (!batch.isEmpty()) {
+                listener.accept(batch);
+            }
+        }
+    }
+}
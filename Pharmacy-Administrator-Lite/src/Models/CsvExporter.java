@@ -0,0 +1,277 @@
+package Models;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Streaming export of the completed purchases, the products and the
+ * customers to CSV files.
+ *
+ * Rows go straight from the ledger columns or the repositories into one
+ * reusable write buffer, which is drained to a FileChannel whenever it fills
+ * up; no list of rows or table model is built, so the heap stays flat however
+ * many rows are written. Purchases are exported with the IDs the ledger
+ * holds; the product and customer exports resolve them to names.
+ */
+public final class CsvExporter {
+
+    // Data written by an export
+    public enum Source {
+        PURCHASES, PRODUCTS, CUSTOMERS
+    }
+
+    // Receives the progress every PROGRESS_ROWS rows; returning false stops the export
+    @FunctionalInterface
+    public interface ProgressListener {
+
+        boolean progress(long written, long total);
+    }
+
+    // Outcome of an export; a stopped export leaves no file behind
+    public record Result(long rows, boolean stopped) {
+    }
+
+    private static final int BUFFER_BYTES = 1 << 16;
+    private static final int MAX_ROW_BYTES = 1 << 12; // Room kept for a row before it is written
+    private static final int PROGRESS_ROWS = 1 << 16;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_BYTES);
+    private final ProgressListener listener;
+    private final long total;
+    private long rows = 0;
+    private boolean firstField = true;
+    // Last date written, purchases of one day follow each other
+    private int cachedDay = Integer.MIN_VALUE;
+    private byte[] cachedDayBytes;
+
+    // Thrown through the scans to stop an export early
+    private static final class StopException extends RuntimeException {
+
+        StopException() {
+            super(null, null, false, false);
+        }
+    }
+
+    private CsvExporter(FileChannel channel, ProgressListener listener, long total) {
+        this.channel = channel;
+        this.listener = listener;
+        this.total = total;
+    }
+
+    // Write the rows of the source to a CSV file, replacing it
+    public static Result exportFile(Path file, Source source, ProgressListener listener) throws IOException {
+        long total = switch (source) {
+            case PURCHASES ->
+                PurchaseActions.getInstance().countPurchasesCompleted();
+            case PRODUCTS ->
+                ProductActions.getInstance().countProducts();
+            case CUSTOMERS ->
+                CustomerActions.getInstance().countCustomers();
+        };
+        boolean stopped = false;
+        long rows;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            CsvExporter exporter = new CsvExporter(channel, listener, total);
+            try {
+                switch (source) {
+                    case PURCHASES ->
+                        exporter.writePurchases();
+                    case PRODUCTS ->
+                        exporter.writeProducts();
+                    case CUSTOMERS ->
+                        exporter.writeCustomers();
+                }
+                exporter.drain();
+            } catch (StopException ex) {
+                stopped = true;
+            } catch (UncheckedIOException ex) {
+                throw ex.getCause();
+            }
+            rows = exporter.rows;
+        }
+        if (stopped) {
+            Files.deleteIfExists(file);
+        } else {
+            listener.progress(rows, rows);
+        }
+        return new Result(rows, stopped);
+    }
+
+    private void writePurchases() throws IOException {
+        header("purchase id,product id,quantity,price,date,customer id,supplier id");
+        PurchaseActions.getInstance().scanPurchasesCompleted((purchaseID, productID, quantity, price, epochDay,
+                customerID, supplierID) -> {
+            field(purchaseID);
+            field(productID);
+            field(quantity);
+            money(price);
+            day(epochDay);
+            field(customerID);
+            field(supplierID);
+            endRow();
+        });
+    }
+
+    private void writeProducts() throws IOException {
+        header("id,name,description,unit price,quantity,category");
+        ProductActions.getInstance().scanProducts(product -> {
+            field(product.getProductID());
+            field(product.getProductName());
+            field(product.getProductDescription());
+            money(product.getProductUnitPrice());
+            field(product.getProductQuantity());
+            field(product.getProductCategoryName());
+            endRow();
+        });
+    }
+
+    private void writeCustomers() throws IOException {
+        header("id,name,email,address,telephone");
+        CustomerActions.getInstance().scanCustomers(customer -> {
+            field(customer.getCustomerID());
+            field(customer.getCustomerName());
+            field(customer.getCustomerEmail());
+            field(customer.getCustomerAddress());
+            field(customer.getCustomerTelephone());
+            endRow();
+        });
+    }
+
+    private void header(String columns) {
+        buffer.put(columns.getBytes(StandardCharsets.US_ASCII)).put((byte) '\n');
+    }
+
+    private void separator() {
+        if (!firstField) {
+            buffer.put((byte) ',');
+        }
+        firstField = false;
+    }
+
+    private void field(long value) {
+        separator();
+        digits(value);
+    }
+
+    // Write a number of cents as units with two decimals, as Money.format does
+    private void money(long cents) {
+        separator();
+        if (cents < 0) {
+            buffer.put((byte) '-');
+        }
+        digits(Math.abs(cents / Money.CENTS_PER_UNIT));
+        int rest = (int) Math.abs(cents % Money.CENTS_PER_UNIT);
+        buffer.put((byte) '.');
+        buffer.put((byte) ('0' + rest / 10));
+        buffer.put((byte) ('0' + rest % 10));
+    }
+
+    private void digits(long value) {
+        if (value < 0) {
+            buffer.put((byte) '-');
+            value = -value;
+        }
+        // Digits are written backwards into place
+        int start = buffer.position();
+        do {
+            buffer.put((byte) ('0' + value % 10));
+            value /= 10;
+        } while (value > 0);
+        for (int i = start, j = buffer.position() - 1; i < j; i++, j--) {
+            byte digit = buffer.get(i);
+            buffer.put(i, buffer.get(j));
+            buffer.put(j, digit);
+        }
+    }
+
+    private void day(int epochDay) {
+        separator();
+        if (epochDay != cachedDay) {
+            cachedDay = epochDay;
+            cachedDayBytes = PurchaseLedger.formatDay(epochDay).getBytes(StandardCharsets.US_ASCII);
+        }
+        buffer.put(cachedDayBytes);
+    }
+
+    private void field(String value) {
+        separator();
+        if (value == null) {
+            return;
+        }
+        boolean quote = value.indexOf(',') >= 0 || value.indexOf('"') >= 0
+                || value.indexOf('\n') >= 0 || value.indexOf('\r') >= 0;
+        if (quote) {
+            buffer.put((byte) '"');
+        }
+        for (int i = 0; i < value.length(); i++) {
+            if (buffer.remaining() < 8) {
+                drainUnchecked(); // Only very long fields get here
+            }
+            int c = value.charAt(i);
+            if (c < 0x80) {
+                if (c == '"') {
+                    buffer.put((byte) '"');
+                }
+                buffer.put((byte) c);
+                continue;
+            }
+            // UTF-8 by hand, avoiding an encoder and a byte array per field
+            if (Character.isHighSurrogate((char) c) && i + 1 < value.length()
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                c = Character.toCodePoint((char) c, value.charAt(++i));
+            } else if (Character.isSurrogate((char) c)) {
+                c = '?';
+            }
+            if (c < 0x80) {
+                buffer.put((byte) c);
+            } else if (c < 0x800) {
+                buffer.put((byte) (0xC0 | c >> 6)).put((byte) (0x80 | c & 0x3F));
+            } else if (c < 0x10000) {
+                buffer.put((byte) (0xE0 | c >> 12)).put((byte) (0x80 | c >> 6 & 0x3F)).put((byte) (0x80 | c & 0x3F));
+            } else {
+                buffer.put((byte) (0xF0 | c >> 18)).put((byte) (0x80 | c >> 12 & 0x3F))
+                        .put((byte) (0x80 | c >> 6 & 0x3F)).put((byte) (0x80 | c & 0x3F));
+            }
+        }
+        if (quote) {
+            buffer.put((byte) '"');
+        }
+    }
+
+    private void endRow() {
+        buffer.put((byte) '\n');
+        firstField = true;
+        rows++;
+        if (buffer.remaining() < MAX_ROW_BYTES) {
+            drainUnchecked();
+        }
+        if (rows % PROGRESS_ROWS == 0 && !listener.progress(rows, total)) {
+            throw new StopException();
+        }
+    }
+
+    // Write the buffer to the file and make it empty again
+    private void drain() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private void drainUnchecked() {
+        try {
+            drain();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+}
@@ -0,0 +1,421 @@
+package Models;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Streaming import of products, customers and suppliers from CSV files.
+ *
+ * The file is read through a FileChannel in fixed-size chunks and parsed one
+ * row at a time, so memory use does not depend on the size of the file. Rows
+ * are validated with the same rules as the forms and inserted in batches;
+ * rejected rows are written to a report next to the file as they are found.
+ *
+ * The first row is a header. The expected columns are:
+ * products: name, description, unit price, quantity, category name
+ * customers: name, email, address, telephone
+ * suppliers: name, email, address, telephone, city, description
+ */
+public final class CsvImporter {
+
+    // Entity imported by a file
+    public enum Target {
+        PRODUCTS(5), CUSTOMERS(4), SUPPLIERS(6);
+
+        private final int columns;
+
+        Target(int columns) {
+            this.columns = columns;
+        }
+    }
+
+    // Receives the progress after every batch; returning false stops the import
+    @FunctionalInterface
+    public interface ProgressListener {
+
+        boolean progress(long bytesRead, long totalBytes, long imported, long rejected);
+    }
+
+    // Outcome of an import; the report is null when no row was rejected
+    public record Result(long imported, long rejected, boolean stopped, Path rejectedReport) {
+    }
+
+    private static final int CHUNK_BYTES = 1 << 16;
+    private static final int BATCH_ROWS = 1000;
+    private static final int MAX_ROW_CHARS = 1 << 16;
+    private static final int MAX_ROW_FIELDS = 64;
+
+    private final Target target;
+    private final ProductActions productActions = ProductActions.getInstance();
+    private final CustomerActions customerActions = CustomerActions.getInstance();
+    private final SupplierActions supplierActions = SupplierActions.getInstance();
+    private final CategoryActions categoryActions = CategoryActions.getInstance();
+    // Emails and telephones of the pending batch, which the stores do not know yet
+    private final Set<String> batchEmails = new HashSet<>();
+    private final Set<String> batchTelephones = new HashSet<>();
+    private final List<Product> products = new ArrayList<>();
+    private final List<Customer> customers = new ArrayList<>();
+    private final List<Supplier> suppliers = new ArrayList<>();
+    // Line and fields of every row of the pending batch, to report the ones the store refuses
+    private final List<Long> batchLines = new ArrayList<>();
+    private final List<List<String>> batchRows = new ArrayList<>();
+    private final Path report;
+    private BufferedWriter reportWriter = null; // Opened with the first rejected row
+    private long rejected = 0;
+
+    private CsvImporter(Path file, Target target) {
+        this.report = file.resolveSibling(file.getFileName() + ".rejected.csv");
+        this.target = target;
+    }
+
+    // Import the rows of a CSV file into the store of the target
+    public static Result importFile(Path file, Target target, ProgressListener listener) throws IOException {
+        return new CsvImporter(file, target).run(file, listener);
+    }
+
+    private Result run(Path file, ProgressListener listener) throws IOException {
+        Files.deleteIfExists(report);
+        long imported = 0;
+        boolean stopped = false;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            RowReader reader = new RowReader(channel);
+            long totalBytes = channel.size();
+            reader.next(); // Header
+            List<String> row;
+            while ((row = reader.next()) != null) {
+                String reason;
+                if (reader.tooLong()) {
+                    reason = "Row longer than " + MAX_ROW_CHARS + " characters";
+                } else if (reader.tooManyFields()) {
+                    reason = "Row with more than " + MAX_ROW_FIELDS + " fields";
+                } else {
+                    reason = validate(row);
+                }
+                if (reason == null) {
+                    batchLines.add(reader.line());
+                    batchRows.add(row);
+                    imported++;
+                } else {
+                    reject(reader.line(), reason, row);
+                }
+                if (pending() == BATCH_ROWS) {
+                    imported -= flushBatch();
+                    if (!listener.progress(reader.bytesRead(), totalBytes, imported, rejected)) {
+                        stopped = true;
+                        break;
+                    }
+                }
+            }
+            imported -= flushBatch();
+            if (!stopped) {
+                listener.progress(totalBytes, totalBytes, imported, rejected);
+            }
+        } finally {
+            if (reportWriter != null) {
+                reportWriter.close();
+            }
+        }
+        return new Result(imported, rejected, stopped, rejected > 0 ? report : null);
+    }
+
+    // Validate a row and queue it for the next batch, returning the reason of a rejection or null
+    private String validate(List<String> row) {
+        if (row.size() != target.columns) {
+            return "Expected " + target.columns + " columns but found " + row.size();
+        }
+        String name = row.get(0).trim();
+        if (name.isBlank()) {
+            return "The name is empty";
+        }
+        return switch (target) {
+            case PRODUCTS ->
+                validateProduct(productActions.nameAdditionalValidation(name), row);
+            case CUSTOMERS ->
+                validateCustomer(customerActions.nameAdditionalValidation(name), row);
+            case SUPPLIERS ->
+                validateSupplier(supplierActions.nameAdditionalValidation(name), row);
+        };
+    }
+
+    private String validateProduct(String name, List<String> row) {
+        String price = row.get(2).trim();
+        String quantity = row.get(3).trim();
+        if (!productActions.isDoubleString(price)) {
+            return "The unit price is not a price of up to 13 digits with up to two decimals";
+        } else if (!productActions.isNumericString(quantity)) {
+            return "The quantity is not a whole number";
+        }
+        Category category = categoryActions.searchCategoryByName(categoryActions.nameAdditionalValidation(row.get(4).trim()));
+        if (category == null) {
+            return "Unknown category";
+        }
+        int productQuantity;
+        try {
+            productQuantity = Integer.parseInt(quantity);
+        } catch (NumberFormatException ex) {
+            return "The quantity is too large";
+        }
+        products.add(new Product(null, name, row.get(1).trim(), Money.parse(price), productQuantity,
+                category.getCategoryName() + " (" + category.getCategoryID() + ")"));
+        return null;
+    }
+
+    // Apply the checks of the customer form, in the same order
+    private String validateCustomer(String name, List<String> row) {
+        String email = row.get(1).trim().toLowerCase();
+        String telephone = row.get(3).trim();
+        if (!customerActions.emailValidationOne(email)) {
+            return "Invalid email format";
+        } else if (batchEmails.contains(email) || !customerActions.isEmailUnique(email)) {
+            return "Email already in use";
+        } else if (!customerActions.isNumericString(telephone)) {
+            return "Invalid telephone format";
+        } else if (batchTelephones.contains(telephone) || !customerActions.isTelephoneUnique(telephone)) {
+            return "Telephone already in use";
+        }
+        batchEmails.add(email);
+        batchTelephones.add(telephone);
+        customers.add(new Customer(null, name, email, row.get(2).trim(), telephone));
+        return null;
+    }
+
+    // Apply the checks of the supplier form, in the same order
+    private String validateSupplier(String name, List<String> row) {
+        String email = row.get(1).trim().toLowerCase();
+        String telephone = row.get(3).trim();
+        if (!supplierActions.emailValidationOne(email)) {
+            return "Invalid email format";
+        } else if (batchEmails.contains(email) || !supplierActions.isEmailUnique(email)) {
+            return "Email already in use";
+        } else if (!supplierActions.isNumericString(telephone)) {
+            return "Invalid telephone format";
+        } else if (batchTelephones.contains(telephone) || !supplierActions.isTelephoneUnique(telephone)) {
+            return "Telephone already in use";
+        }
+        batchEmails.add(email);
+        batchTelephones.add(telephone);
+        suppliers.add(new Supplier(name, email, row.get(2).trim(), null, telephone,
+                row.get(4).trim(), row.get(5).trim()));
+        return null;
+    }
+
+    private int pending() {
+        return products.size() + customers.size() + suppliers.size();
+    }
+
+    // Insert the queued rows in one call to their store, reporting the ones it refused because a
+    // concurrent registration took their email or telephone after validation; returns how many
+    private int flushBatch() throws IOException {
+        int refused = 0;
+        if (!products.isEmpty()) {
+            productActions.addProducts(products);
+            products.clear();
+        }
+        if (!customers.isEmpty()) {
+            refused += rejectRefused(customers, customerActions.addCustomers(customers));
+            customers.clear();
+        }
+        if (!suppliers.isEmpty()) {
+            refused += rejectRefused(suppliers, supplierActions.addSuppliers(suppliers));
+            suppliers.clear();
+        }
+        batchEmails.clear();
+        batchTelephones.clear();
+        batchLines.clear();
+        batchRows.clear();
+        return refused;
+    }
+
+    // Report the rows of the refused entries, which the store returns in batch order
+    private <T> int rejectRefused(List<T> batch, List<T> refused) throws IOException {
+        int next = 0;
+        for (int i = 0; i < batch.size() && next < refused.size(); i++) {
+            if (batch.get(i) == refused.get(next)) {
+                reject(batchLines.get(i), "Email or telephone taken by another registration", batchRows.get(i));
+                next++;
+            }
+        }
+        return refused.size();
+    }
+
+    private void reject(long line, String reason, List<String> row) throws IOException {
+        if (reportWriter == null) {
+            reportWriter = Files.newBufferedWriter(report, StandardCharsets.UTF_8);
+            reportWriter.write("line,reason,row");
+            reportWriter.newLine();
+        }
+        reportWriter.write(Long.toString(line));
+        reportWriter.write(',');
+        reportWriter.write(quote(reason));
+        for (String field : row) {
+            reportWriter.write(',');
+            reportWriter.write(quote(field));
+        }
+        reportWriter.newLine();
+        rejected++;
+    }
+
+    private static String quote(String field) {
+        if (field.indexOf(',') < 0 && field.indexOf('"') < 0 && field.indexOf('\n') < 0 && field.indexOf('\r') < 0) {
+            return field;
+        }
+        return '"' + field.replace("\"", "\"\"") + '"';
+    }
+
+    // Incremental CSV parser over a channel, holding one chunk and one row at a time
+    private static final class RowReader {
+
+        private final FileChannel channel;
+        private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        private final ByteBuffer bytes = ByteBuffer.allocate(CHUNK_BYTES);
+        private final CharBuffer chars = CharBuffer.allocate(CHUNK_BYTES);
+        private final StringBuilder field = new StringBuilder();
+        private boolean endOfInput = false;
+        private boolean flushed = false; // Decoder finished, nothing left to read
+        private long bytesRead = 0;
+        private long line = 0; // Line where the current row starts
+        private long nextLine = 1;
+        private int rowChars = 0;
+        private int rowFields = 0;
+
+        RowReader(FileChannel channel) {
+            this.channel = channel;
+            chars.flip(); // Start empty
+        }
+
+        long bytesRead() {
+            return bytesRead;
+        }
+
+        long line() {
+            return line;
+        }
+
+        // Whether the last row was cut because it exceeded the size limit
+        boolean tooLong() {
+            return rowChars > MAX_ROW_CHARS;
+        }
+
+        // Whether the last row was cut because it exceeded the field limit
+        boolean tooManyFields() {
+            return rowFields > MAX_ROW_FIELDS;
+        }
+
+        // Next row, or null at the end of the file; blank lines are skipped
+        List<String> next() throws IOException {
+            List<String> row = new ArrayList<>();
+            boolean quoted = false;
+            boolean afterQuote = false;
+            boolean blank = true;
+            line = nextLine;
+            rowChars = 0;
+            rowFields = 0;
+            field.setLength(0);
+            while (true) {
+                if (!chars.hasRemaining() && !fill()) {
+                    if (blank) {
+                        return null;
+                    }
+                    endField(row);
+                    return row;
+                }
+                char c = chars.get();
+                if (c == '\n') {
+                    nextLine++;
+                }
+                if (quoted) {
+                    if (c == '"') {
+                        quoted = false;
+                        afterQuote = true;
+                    } else {
+                        append(c);
+                    }
+                    continue;
+                }
+                if (c == '"') {
+                    if (afterQuote) {
+                        append('"'); // Doubled quote inside a quoted field
+                    }
+                    quoted = true;
+                    afterQuote = false;
+                    blank = false;
+                } else if (c == ',') {
+                    endField(row);
+                    afterQuote = false;
+                    blank = false;
+                } else if (c == '\n') {
+                    if (blank) {
+                        line = nextLine;
+                        continue;
+                    }
+                    endField(row);
+                    return row;
+                } else if (c != '\r') {
+                    append(c);
+                    afterQuote = false;
+                    blank = false;
+                }
+            }
+        }
+
+        // Keep at most MAX_ROW_FIELDS fields of a row, the rest only counts, so a line of
+        // separators alone does not grow the row either
+        private void endField(List<String> row) {
+            if (++rowFields <= MAX_ROW_FIELDS) {
+                row.add(field.toString());
+            }
+            field.setLength(0);
+        }
+
+        // Keep at most MAX_ROW_CHARS characters of a row, the rest only counts
+        private void append(char c) {
+            if (++rowChars <= MAX_ROW_CHARS) {
+                field.append(c);
+            }
+        }
+
+        // Decode the next chunk, returning false at the end of the file
+        private boolean fill() throws IOException {
+            chars.clear();
+            while (chars.position() == 0) {
+                if (flushed) {
+                    chars.flip();
+                    return false;
+                }
+                if (!endOfInput) {
+                    int read = channel.read(bytes);
+                    if (read < 0) {
+                        endOfInput = true;
+                    } else {
+                        bytesRead += read;
+                    }
+                }
+                bytes.flip();
+                CoderResult result = decoder.decode(bytes, chars, endOfInput);
+                bytes.compact();
+                if (endOfInput && result.isUnderflow()) {
+                    decoder.flush(chars);
+                    flushed = true;
+                }
+            }
+            chars.flip();
+            return true;
+        }
+    }
+}
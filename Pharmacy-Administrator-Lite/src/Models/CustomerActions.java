@@ -1,22 +1,45 @@
 package Models;
 
-import java.util.HashMap;
+import Interfaces.Repository;
+import java.io.DataInput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public class CustomerActions {
 
-    // Map to store customer data
-    private Map<Integer, Customer> customers = new HashMap<>();
+    // Repository storing customer data
+    private final Repository<Customer> customers = Storage.repository("customer", EntityCodec::readCustomer, EntityCodec::writeCustomer);
     // Counter to assign unique IDs to customers
-    private Integer customerCount = 0;
+    private Integer customerCount = customers.nextID();
+    // Whether a snapshot applies: always on the heap, only while a file repository is still empty
+    private final boolean recovers = !customers.isDurable() || customers.count() == 0;
+    // Customer IDs by case-insensitive name, kept in step with the repository
+    private final NameIndex nameIndex = new NameIndex();
+    // Customer IDs by email and by telephone, both unique
+    private final UniqueIndex emailIndex = new UniqueIndex();
+    private final UniqueIndex telephoneIndex = new UniqueIndex();
+    // Version stamp of each customer, checked by modifyCustomer
+    private final Versions versions = new Versions();
+    // Every write of a customer, for the views listing them
+    private final ChangeBus<Customer> changes = new ChangeBus<>();
+    // Immutable copy of the store replaced by every write, handed out by the listings in O(1)
+    private volatile PersistentIdMap<Customer> snapshot = PersistentIdMap.empty();
 
     // Singleton instance of CustomerActions
     private static CustomerActions instance;
 
     // Private constructor for singleton pattern
     private CustomerActions() {
+        customers.scan(customer -> {
+            index(customer);
+            snapshot = snapshot.with(customer.getCustomerID(), customer);
+        });
     }
 
     // Singleton instance getter
@@ -42,9 +65,8 @@ public class CustomerActions {
     }
 
     // Check if email is unique
-    public boolean isEmailUnique(String customerEmail) {
-        return customers.values().stream()
-                .noneMatch(customer -> customer.getCustomerEmail().equals(customerEmail));
+    public synchronized boolean isEmailUnique(String customerEmail) {
+        return emailIndex.isFree(customerEmail);
     }
 
     // Check if the input string is numeric
@@ -67,52 +89,221 @@ public class CustomerActions {
     }
 
     // Check if telephone is unique
-    public boolean isTelephoneUnique(String customerTelephone) {
-        return customers.values().stream()
-                .noneMatch(customer -> customer.getCustomerTelephone().equals(customerTelephone));
+    public synchronized boolean isTelephoneUnique(String customerTelephone) {
+        return telephoneIndex.isFree(customerTelephone);
     }
 
-    // Add a new customer
-    public void addCustomer(String customerName, String customerEmail, String customerAddress, String customerTelephone) {
-        // Create a new customer and add to the map
+    // Add a new customer, refusing an email or telephone already in use; returns once it is saved
+    public boolean addCustomer(String customerName, String customerEmail, String customerAddress, String customerTelephone) {
+        return Journal.commit(this, () -> insertCustomer(customerName, customerEmail, customerAddress, customerTelephone));
+    }
+
+    // Add a batch of customers under one lock, each getting the next customer ID; returns the ones refused, in batch order
+    public List<Customer> addCustomers(List<Customer> batch) {
+        return Journal.commit(this, () -> {
+            List<Customer> refused = new ArrayList<>();
+            for (Customer imported : batch) {
+                if (!insertCustomer(imported.getCustomerName(), imported.getCustomerEmail(), imported.getCustomerAddress(),
+                        imported.getCustomerTelephone())) {
+                    refused.add(imported);
+                }
+            }
+            return refused;
+        });
+    }
+
+    // Add a customer under the lock of the store, without waiting for the journal
+    private boolean insertCustomer(String customerName, String customerEmail, String customerAddress, String customerTelephone) {
+        // Checked again under the lock, another registration may have taken them since the form checked
+        if (!emailIndex.isFree(customerEmail) || !telephoneIndex.isFree(customerTelephone)) {
+            return false;
+        }
+        // Create a new customer and add to the repository
         Customer customer = createCustomer(customerCount, customerName, customerEmail, customerAddress, customerTelephone);
-        customers.put(customerCount, customer);
+        store(customer);
         customerCount++; // Increment the customer count
+        journalPut(customer);
+        return true;
     }
 
-    // Modify an existing customer
-    public boolean modifyCustomer(Integer customerID, String customerName, String customerEmail, String customerAddress, String customerTelephone) {
-        if (customers.containsKey(customerID)) {
-            // Create a new customer object with the same ID but updated details
-            Customer customer = createCustomer(customerID, customerName, customerEmail, customerAddress, customerTelephone);
-            customers.replace(customerID, customer);
-            return true; // Return true if customer was found and updated
-        }
-        return false; // Return false if customer ID was not found
+    // Writes of customers, published as they happen
+    public ChangeBus<Customer> changes() {
+        return changes;
+    }
+
+    // Version stamp of a customer; pass it back to modifyCustomer to detect changes made in the meantime
+    public long versionOf(Integer customerID) {
+        return versions.of(customerID);
+    }
+
+    // Modify an existing customer if nobody changed it since version was read, refusing an email or
+    // telephone used by another customer. On false, versionOf tells a stale version from a taken key.
+    public boolean modifyCustomer(Integer customerID, long version, String customerName, String customerEmail, String customerAddress, String customerTelephone) {
+        return Journal.commit(this, () -> {
+            if (customers.get(customerID) != null && versions.matches(customerID, version) && emailIndex.isFreeFor(customerEmail, customerID)
+                    && telephoneIndex.isFreeFor(customerTelephone, customerID)) {
+                // Create a new customer object with the same ID but updated details
+                Customer customer = createCustomer(customerID, customerName, customerEmail, customerAddress, customerTelephone);
+                store(customer);
+                journalPut(customer);
+                return true; // Return true if customer was found and updated
+            }
+            return false; // Return false if customer ID was not found, was changed meanwhile or the email or telephone is taken
+        });
     }
 
     // Delete an existing customer
     public boolean deleteCustomer(Integer customerID) {
-        if (customers.containsKey(customerID)) {
-            customers.remove(customerID);
-            return true; // Return true if customer was found and deleted
+        return Journal.commit(this, () -> {
+            if (unstore(customerID)) {
+                journalRemove(customerID);
+                return true; // Return true if customer was found and deleted
+            }
+            return false; // Return false if customer ID was not found
+        });
+    }
+
+    // Search for a customer by ID
+    public Customer searchCustomerByID(Integer customerID) {
+        return customers.get(customerID);
+    }
+
+    // List customers, optionally filtering by name. Listing them all, as a blank name or one without
+    // matches does, hands out the current snapshot in ID order, which later writes leave unchanged.
+    public synchronized Map<Integer, Customer> listCustomers(String customerName) {
+        if (!customerName.isBlank()) {
+            Map<Integer, Customer> listedCustomers = new LinkedHashMap<>();
+            // Look the name up in the index instead of comparing every customer
+            for (Integer customerID : nameIndex.get(customerName)) {
+                listedCustomers.put(customerID, customers.get(customerID));
+            }
+            if (!listedCustomers.isEmpty()) {
+                return listedCustomers;
+            }
+        }
+        return snapshot.asMap(); // All customers if no filter is provided or none match
+    }
+
+    // List at most limit customers whose name starts with the prefix, in name order; a blank prefix lists them all
+    public synchronized Map<Integer, Customer> listCustomersStartingWith(String prefix, int limit) {
+        if (prefix.isBlank()) {
+            return listCustomers(prefix);
         }
-        return false; // Return false if customer ID was not found
+        Map<Integer, Customer> listedCustomers = new LinkedHashMap<>();
+        for (Integer customerID : nameIndex.startingWith(prefix, limit)) {
+            listedCustomers.put(customerID, customers.get(customerID));
+        }
+        return listedCustomers; // Empty when no name matches
+    }
+
+    // Visit every customer without copying the store; changes wait until the visit ends
+    public synchronized void scanCustomers(Consumer<? super Customer> action) {
+        customers.scan(action);
+    }
+
+    // Number of customers stored
+    public int countCustomers() {
+        return customers.count();
     }
 
-    // List customers, optionally filtering by name
-    public Map<Integer, Customer> listCustomers(String customerName) {
-        if (customerName.isBlank()) {
-            return customers; // Return all customers if no filter is provided
+    // Put a customer in the repository and keep the indexes in step
+    private void store(Customer customer) {
+        Customer previous = customers.get(customer.getCustomerID());
+        customers.put(customer.getCustomerID(), customer);
+        if (previous != null) {
+            unindex(previous);
+        }
+        index(customer);
+        versions.bump(customer.getCustomerID());
+        snapshot = snapshot.with(customer.getCustomerID(), customer);
+        if (previous == null) {
+            changes.added(customer.getCustomerID(), customer);
         } else {
-            // Create a filtered map based on the customer name
-            Map<Integer, Customer> customersBased = new HashMap<>();
-            for (Customer customer : customers.values()) {
-                if (customer.getCustomerName().equalsIgnoreCase(customerName)) {
-                    customersBased.put(customer.getCustomerID(), customer);
-                }
-            }
-            return customersBased.isEmpty() ? customers : customersBased; // Return filtered map or all customers if none match
+            changes.updated(customer.getCustomerID(), customer);
         }
     }
+
+    // Remove a customer from the repository and the indexes
+    private boolean unstore(Integer customerID) {
+        Customer customer = customers.get(customerID);
+        if (customer != null && customers.remove(customerID)) {
+            unindex(customer);
+            versions.remove(customerID);
+            snapshot = snapshot.without(customerID);
+            changes.removed(customerID);
+            return true;
+        }
+        return false;
+    }
+
+    private void index(Customer customer) {
+        nameIndex.add(customer.getCustomerName(), customer.getCustomerID());
+        emailIndex.add(customer.getCustomerEmail(), customer.getCustomerID());
+        telephoneIndex.add(customer.getCustomerTelephone(), customer.getCustomerID());
+    }
+
+    private void unindex(Customer customer) {
+        nameIndex.remove(customer.getCustomerName(), customer.getCustomerID());
+        emailIndex.remove(customer.getCustomerEmail(), customer.getCustomerID());
+        telephoneIndex.remove(customer.getCustomerTelephone(), customer.getCustomerID());
+    }
+
+    // Record the current state of a customer in the journal, whatever the repository
+    private void journalPut(Customer customer) {
+        Journal.append(Journal.CUSTOMER, Journal.PUT, out -> EntityCodec.writeCustomer(out, customer));
+    }
+
+    // Record the removal of a customer in the journal
+    private void journalRemove(Integer customerID) {
+        Journal.append(Journal.CUSTOMER, Journal.REMOVE, out -> out.writeInt(customerID));
+    }
+
+    // Re-apply a journal record during startup recovery; the records are newer than a file
+    // repository, which is forced whenever the journal rotates
+    synchronized void replay(byte operation, DataInput in) throws IOException {
+        if (operation == Journal.PUT) {
+            Customer customer = EntityCodec.readCustomer(in);
+            store(customer);
+            customerCount = Math.max(customerCount, customer.getCustomerID() + 1); // Never reuse a journaled ID
+        } else if (operation == Journal.REMOVE) {
+            unstore(in.readInt());
+        }
+    }
+
+    // Copy the store for a snapshot, null when the repository persists the customers itself
+    StoreImage<Customer> capture() {
+        if (customers.isDurable()) {
+            return null;
+        }
+        PersistentIdMap<Customer> current;
+        int counter;
+        synchronized (this) { // Only reading the snapshot and the counter holds the writers back
+            current = snapshot;
+            counter = customerCount;
+        }
+        return new StoreImage<>(new ArrayList<>(current.asMap().values()), counter);
+    }
+
+    // Replace the store with the content of a snapshot
+    synchronized void restore(StoreImage<Customer> image) {
+        if (!recovers) {
+            customerCount = Math.max(image.counter(), customers.nextID());
+            return; // The file repository is newer than the snapshot
+        }
+        customers.clear();
+        nameIndex.clear();
+        emailIndex.clear();
+        telephoneIndex.clear();
+        versions.clear();
+        snapshot = PersistentIdMap.empty();
+        for (Customer customer : image.entities()) {
+            store(customer);
+        }
+        customerCount = Math.max(image.counter(), customers.nextID());
+    }
+
+    // Flush the repository to disk
+    synchronized void force() {
+        customers.flush();
+    }
 }
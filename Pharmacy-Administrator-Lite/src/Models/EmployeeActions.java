@@ -1,7 +1,13 @@
 package Models;
 
-import java.util.HashMap;
+import Interfaces.Repository;
+import java.io.DataInput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -10,17 +16,34 @@ public class EmployeeActions {
     // Singleton instance of EmployeeActions
     private static EmployeeActions instance;
 
-    // Map to store employees with their ID as the key
-    private Map<Integer, Employee> employees = new HashMap<>();
+    // Repository storing employees by their ID
+    private final Repository<Employee> employees = Storage.repository("employee", EntityCodec::readEmployee, EntityCodec::writeEmployee);
 
-    // Variable to store the current logged-in employee
-    private Employee currentEmployee;
+    // Open sessions by session ID, one per login
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
 
     // Counter to keep track of the total number of users
-    private Integer userCount = 0;
+    private Integer userCount = employees.nextID();
+    // Whether a snapshot applies: always on the heap, only while a file repository is still empty
+    private final boolean recovers = !employees.isDurable() || employees.count() == 0;
+    // Employee IDs by case-insensitive name, kept in step with the repository
+    private final NameIndex nameIndex = new NameIndex();
+    // Employee IDs by email and by username, both unique
+    private final UniqueIndex emailIndex = new UniqueIndex();
+    private final UniqueIndex userIndex = new UniqueIndex();
+    // Version stamp of each employee, checked by modifyEmployee
+    private final Versions versions = new Versions();
+    // Every write of an employee, for the views listing them
+    private final ChangeBus<Employee> changes = new ChangeBus<>();
+    // Immutable copy of the store replaced by every write, handed out by the listings in O(1)
+    private volatile PersistentIdMap<Employee> snapshot = PersistentIdMap.empty();
 
     // Private constructor to prevent instantiation
     private EmployeeActions() {
+        employees.scan(employee -> {
+            index(employee);
+            snapshot = snapshot.with(employee.getEmployeeID(), employee);
+        });
     }
 
     // Singleton instance getter method. Ensures that only one instance of this class exists.
@@ -31,9 +54,15 @@ public class EmployeeActions {
         return instance;
     }
 
-    // Returns the current logged-in employee
-    public Employee getCurrentEmployee() {
-        return currentEmployee;
+    // Returns an open session by its ID, or null
+    public Session searchSession(String sessionID) {
+        return sessions.get(sessionID);
+    }
+
+    // Ends a session; its views can no longer act for the employee
+    public void logout(Session session) {
+        sessions.remove(session.getSessionID());
+        session.close();
     }
 
     // Returns the total number of users (employees) currently stored
@@ -57,30 +86,37 @@ public class EmployeeActions {
         }
     }
 
-    // Lists all employees, or filters by name if a name is provided
-    public Map<Integer, Employee> listEmployees(String employeeName) {
-        if (employeeName.isBlank()) {
-            return employees; // Return all employees if no filter is provided
-        } else {
-            Map<Integer, Employee> filteredEmployees = new HashMap<>();
-            for (Employee employee : employees.values()) {
-                if (employee.getEmployeeName().equalsIgnoreCase(employeeName)) { // Case-insensitive name matching
-                    filteredEmployees.put(employee.getEmployeeID(), employee);
-                }
+    // Lists all employees, or filters by name if a name is provided. Listing them all hands out the
+    // current snapshot in ID order, which later writes leave unchanged.
+    public synchronized Map<Integer, Employee> listEmployees(String employeeName) {
+        if (!employeeName.isBlank()) {
+            Map<Integer, Employee> listedEmployees = new LinkedHashMap<>();
+            // Case-insensitive name lookup in the index instead of comparing every employee
+            for (Integer employeeID : nameIndex.get(employeeName)) {
+                listedEmployees.put(employeeID, employees.get(employeeID));
             }
-            // Return filtered list if not empty, otherwise return all employees
-            return filteredEmployees.isEmpty() ? employees : filteredEmployees;
+            if (!listedEmployees.isEmpty()) {
+                return listedEmployees;
+            }
+        }
+        return snapshot.asMap(); // All employees if no filter is provided or none match
+    }
+
+    // Lists at most limit employees whose name starts with the prefix, in name order; a blank prefix lists them all
+    public synchronized Map<Integer, Employee> listEmployeesStartingWith(String prefix, int limit) {
+        if (prefix.isBlank()) {
+            return listEmployees(prefix);
+        }
+        Map<Integer, Employee> listedEmployees = new LinkedHashMap<>();
+        for (Integer employeeID : nameIndex.startingWith(prefix, limit)) {
+            listedEmployees.put(employeeID, employees.get(employeeID));
         }
+        return listedEmployees; // Empty when no name matches
     }
 
     // Searches for an employee by their unique ID
     public Employee searchEmployeeByID(Integer employeeID) {
-        for (Employee employee : employees.values()) {
-            if (employee.getEmployeeID().equals(employeeID)) { // Compare the ID with each employee's ID
-                return employee; // Return the matching employee
-            }
-        }
-        return null; // Return null if no employee matches the given ID
+        return employees.get(employeeID); // The repository is keyed by ID
     }
 
     // Validates the format of an email address using a regular expression
@@ -92,63 +128,226 @@ public class EmployeeActions {
     }
 
     // Checks if an email is unique among all employees
-    public boolean isEmailUnique(String employeeEmail) {
-        return employees.values().stream()
-                .noneMatch(employee -> employee.getEmployeeEmail().equals(employeeEmail)); // Ensure no employee has the same email
+    public synchronized boolean isEmailUnique(String employeeEmail) {
+        return emailIndex.isFree(employeeEmail); // Ensure no employee has the same email
     }
 
     // Checks if a username is unique among all employees
-    public boolean userValidation(String employeeUser) {
-        return employees.values().stream()
-                .noneMatch(employee -> employee.getEmployeeUser().equals(employeeUser)); // Ensure no employee has the same username
+    public synchronized boolean userValidation(String employeeUser) {
+        return userIndex.isFree(employeeUser); // Ensure no employee has the same username
     }
 
-    // Adds a new employee to the system
-    public void addEmployee(String employeeUser, String employeePassword, String employeeName,
+    // Adds a new employee to the system, refusing an email or username already in use; returns once it is saved
+    public boolean addEmployee(String employeeUser, String employeePassword, String employeeName,
             String employeeAddress, String employeeEmail, String employeeRole) {
-        Employee employee = createEmployee(userCount, employeeUser, employeePassword,
-                employeeName, employeeAddress, employeeEmail, employeeRole); // Create new Employee object
-        employees.put(userCount, employee); // Store the employee in the map with their ID
-        userCount++; // Increment the user count
+        return Journal.commit(this, () -> {
+            // Checked again under the lock, another registration may have taken them since the form checked
+            if (!emailIndex.isFree(employeeEmail) || !userIndex.isFree(employeeUser)) {
+                return false;
+            }
+            Employee employee = createEmployee(userCount, employeeUser, employeePassword,
+                    employeeName, employeeAddress, employeeEmail, employeeRole); // Create new Employee object
+            store(employee); // Store the employee in the repository with their ID
+            userCount++; // Increment the user count
+            journalPut(employee);
+            return true;
+        });
+    }
+
+    // Writes of employees, published as they happen
+    public ChangeBus<Employee> changes() {
+        return changes;
     }
 
-    // Modifies the details of an existing employee
-    public boolean modifyEmployee(Integer employeeID, String employeeUser, String employeePassword,
+    // Version stamp of an employee; pass it back to modifyEmployee to detect changes made in the meantime
+    public long versionOf(Integer employeeID) {
+        return versions.of(employeeID);
+    }
+
+    // Modifies the details of an existing employee if nobody changed them since version was read.
+    // On false, versionOf tells a stale version from a username or email already taken.
+    public boolean modifyEmployee(Integer employeeID, long version, String employeeUser, String employeePassword,
             String employeeName, String employeeAddress, String employeeEmail, String employeeRole) {
-        // Check if the employee exists and the username is either unique or belongs to the current employee
-        if (employees.containsKey(employeeID) && (userValidation(employeeUser) || employees.get(employeeID).getEmployeeUser().equals(employeeUser))) {
-            Employee employee = createEmployee(employeeID, employeeUser, employeePassword,
-                    employeeName, employeeAddress, employeeEmail, employeeRole); // Create updated Employee object
-            employees.replace(employeeID, employee); // Replace the existing employee with the updated one
-            return true; // Return true indicating successful modification
-        }
-        return false; // Return false if validation fails
+        return Journal.commit(this, () -> {
+            // Check if the employee exists unchanged and the username and email are either unique or belong to this employee
+            if (employees.get(employeeID) != null && versions.matches(employeeID, version) && userIndex.isFreeFor(employeeUser, employeeID)
+                    && emailIndex.isFreeFor(employeeEmail, employeeID)) {
+                Employee employee = createEmployee(employeeID, employeeUser, employeePassword,
+                        employeeName, employeeAddress, employeeEmail, employeeRole); // Create updated Employee object
+                store(employee); // Replace the existing employee with the updated one
+                journalPut(employee);
+                return true; // Return true indicating successful modification
+            }
+            return false; // Return false if validation fails
+        });
     }
 
-    // Updates the password of an existing employee
-    public boolean modifyPassword(Integer employeeID, String newPassword) {
-        if (employees.containsKey(employeeID)) { // Check if the employee exists
+    // Updates the password of the employee logged in to the session
+    public boolean modifyPassword(Session session, String newPassword) {
+        return Journal.commit(this, () -> {
+            Integer employeeID = session.getEmployeeID();
             Employee employee = employees.get(employeeID); // Retrieve the employee
-            employee.setEmployeePassword(newPassword); // Set the new password
-            employees.replace(employeeID, employee); // Update the employee in the map
-            return true; // Return true indicating success
-        }
-        return false; // Return false if the employee doesn't exist
+            if (session.isOpen() && employee != null) { // Check if the employee exists
+                // A new copy with the new password, snapshots handed out keep the previous one
+                Employee modified = createEmployee(employeeID, employee.getEmployeeUser(), newPassword,
+                        employee.getEmployeeName(), employee.getEmployeeAddress(), employee.getEmployeeEmail(), employee.getEmployeeRol());
+                store(modified); // A form filled before the new password is stale
+                journalPut(modified);
+                return true; // Return true indicating success
+            }
+            return false; // Return false if the employee doesn't exist
+        });
+    }
+
+    // Updates the name, email and address of the employee logged in to the session, refusing an email used by another employee
+    public boolean modifyPersonalData(Session session, String employeeName, String employeeEmail, String employeeAddress) {
+        return Journal.commit(this, () -> {
+            Integer employeeID = session.getEmployeeID();
+            Employee employee = employees.get(employeeID);
+            if (session.isOpen() && employee != null && emailIndex.isFreeFor(employeeEmail, employeeID)) { // Check if the employee exists
+                // A new copy with the new data, snapshots handed out keep the previous one
+                Employee modified = createEmployee(employeeID, employee.getEmployeeUser(), employee.getEmployeePassword(),
+                        employeeName, employeeAddress, employeeEmail, employee.getEmployeeRol());
+                store(modified); // Update the employee in the repository and the indexes
+                journalPut(modified);
+                return true; // Return true indicating success
+            }
+            return false; // Return false if the employee doesn't exist or the email is taken
+        });
     }
 
     // Deletes an employee by their ID
     public boolean deleteEmployee(Integer employeeID) {
-        return employees.remove(employeeID) != null; // Remove the employee and return true if successful
+        return Journal.commit(this, () -> {
+            if (unstore(employeeID)) { // Remove the employee if it exists
+                journalRemove(employeeID);
+                return true;
+            }
+            return false;
+        });
+    }
+
+    // Authenticates an employee using their username and password, opening a session for them
+    public synchronized Session employeeLogin(String employeeUser, String employeePassword) {
+        // Usernames are unique, so the index names the only candidate
+        Integer employeeID = userIndex.owner(employeeUser);
+        Employee employee = employeeID == null ? null : employees.get(employeeID);
+        if (employee != null && employee.getEmployeePassword().equals(employeePassword)) {
+            Session session = new Session(UUID.randomUUID().toString(), employee);
+            sessions.put(session.getSessionID(), session);
+            return session; // Return the session of the employee if credentials match
+        }
+        return null; // Return null if no match is found
+    }
+
+    // Puts an employee in the repository and keeps the indexes in step
+    private void store(Employee employee) {
+        Employee previous = employees.get(employee.getEmployeeID());
+        employees.put(employee.getEmployeeID(), employee);
+        if (previous != null) {
+            unindex(previous);
+        }
+        index(employee);
+        versions.bump(employee.getEmployeeID());
+        snapshot = snapshot.with(employee.getEmployeeID(), employee);
+        if (previous == null) {
+            changes.added(employee.getEmployeeID(), employee);
+        } else {
+            changes.updated(employee.getEmployeeID(), employee);
+        }
+        for (Session session : sessions.values()) {
+            if (session.getEmployeeID() == employee.getEmployeeID()) {
+                session.refresh(employee); // A new role takes effect at once
+            }
+        }
     }
 
-    // Authenticates an employee using their username and password
-    public boolean employeeLogin(String employeeUser, String employeePassword) {
-        for (Employee employee : employees.values()) {
-            if (employee.getEmployeeUser().equals(employeeUser) && employee.getEmployeePassword().equals(employeePassword)) {
-                currentEmployee = employee; // Set the current logged-in employee if credentials match
-                return true; // Return true indicating successful login
+    // Removes an employee from the repository and the indexes
+    private boolean unstore(Integer employeeID) {
+        Employee employee = employees.get(employeeID);
+        if (employee != null && employees.remove(employeeID)) {
+            unindex(employee);
+            versions.remove(employeeID);
+            snapshot = snapshot.without(employeeID);
+            changes.removed(employeeID);
+            for (Session session : sessions.values()) {
+                if (session.getEmployeeID() == employeeID) {
+                    logout(session); // A deleted employee is logged out everywhere
+                }
             }
+            return true;
+        }
+        return false;
+    }
+
+    private void index(Employee employee) {
+        nameIndex.add(employee.getEmployeeName(), employee.getEmployeeID());
+        emailIndex.add(employee.getEmployeeEmail(), employee.getEmployeeID());
+        userIndex.add(employee.getEmployeeUser(), employee.getEmployeeID());
+    }
+
+    private void unindex(Employee employee) {
+        nameIndex.remove(employee.getEmployeeName(), employee.getEmployeeID());
+        emailIndex.remove(employee.getEmployeeEmail(), employee.getEmployeeID());
+        userIndex.remove(employee.getEmployeeUser(), employee.getEmployeeID());
+    }
+
+    // Records the current state of an employee in the journal, whatever the repository
+    private void journalPut(Employee employee) {
+        Journal.append(Journal.EMPLOYEE, Journal.PUT, out -> EntityCodec.writeEmployee(out, employee));
+    }
+
+    // Records the removal of an employee in the journal
+    private void journalRemove(Integer employeeID) {
+        Journal.append(Journal.EMPLOYEE, Journal.REMOVE, out -> out.writeInt(employeeID));
+    }
+
+    // Re-applies a journal record during startup recovery; the records are newer than a file
+    // repository, which is forced whenever the journal rotates
+    synchronized void replay(byte operation, DataInput in) throws IOException {
+        if (operation == Journal.PUT) {
+            Employee employee = EntityCodec.readEmployee(in);
+            store(employee);
+            userCount = Math.max(userCount, employee.getEmployeeID() + 1); // Never reuse a journaled ID
+        } else if (operation == Journal.REMOVE) {
+            unstore(in.readInt());
+        }
+    }
+
+    // Copy the store for a snapshot, null when the repository persists the employees itself
+    StoreImage<Employee> capture() {
+        if (employees.isDurable()) {
+            return null;
         }
-        return false; // Return false if no match is found
+        PersistentIdMap<Employee> current;
+        int counter;
+        synchronized (this) { // Only reading the snapshot and the counter holds the writers back
+            current = snapshot;
+            counter = userCount;
+        }
+        return new StoreImage<>(new ArrayList<>(current.asMap().values()), counter);
+    }
+
+    // Replace the store with the content of a snapshot
+    synchronized void restore(StoreImage<Employee> image) {
+        if (!recovers) {
+            userCount = Math.max(image.counter(), employees.nextID());
+            return; // The file repository is newer than the snapshot
+        }
+        employees.clear();
+        nameIndex.clear();
+        emailIndex.clear();
+        userIndex.clear();
+        versions.clear();
+        snapshot = PersistentIdMap.empty();
+        for (Employee employee : image.entities()) {
+            store(employee);
+        }
+        userCount = Math.max(image.counter(), employees.nextID());
+    }
+
+    // Flush the repository to disk
+    synchronized void force() {
+        employees.flush();
     }
 }
@@ -0,0 +1,25 @@
+package Models;
+
+/**
+ * One write of an entity, as published by the ChangeBus of its store. The
+ * entity is its state after the write, null for a removal.
+ *
+ * @param <T> Type of the entity
+ */
+public record EntityChange<T>(Kind kind, int id, T entity) {
+
+    public enum Kind {
+        ADDED, UPDATED, REMOVED
+    }
+
+    // The net effect of this change followed by next, null when they cancel out
+    EntityChange<T> then(EntityChange<T> next) {
+        if (kind == Kind.ADDED) {
+            return next.kind == Kind.REMOVED ? null : new EntityChange<>(Kind.ADDED, id, next.entity);
+        }
+        if (kind == Kind.REMOVED && next.kind == Kind.ADDED) {
+            return new EntityChange<>(Kind.UPDATED, id, next.entity); // Removed then stored again
+        }
+        return next;
+    }
+}
@@ -0,0 +1,194 @@
+package Models;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+// Binary encoding of the entities, shared by every on-disk format of the Models layer
+final class EntityCodec {
+
+    // Decoder of one entity
+    @FunctionalInterface
+    interface Reader<V> {
+
+        V read(DataInput in) throws IOException;
+    }
+
+    // Encoder of one entity
+    @FunctionalInterface
+    interface Writer<V> {
+
+        void write(DataOutput out, V value) throws IOException;
+    }
+
+    // Private constructor to prevent instantiation
+    private EntityCodec() {
+    }
+
+    // ID at the end of a "Name (id)" label, as the combo boxes format them, or -1
+    static int labelID(String label) {
+        if (label == null) {
+            return -1;
+        }
+        int open = label.lastIndexOf('(');
+        int close = label.lastIndexOf(')');
+        if (open < 0 || close < open) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(label.substring(open + 1, close).trim());
+        } catch (NumberFormatException ex) {
+            return -1;
+        }
+    }
+
+    // Write a string that may be null
+    static void writeString(DataOutput out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    // Read a string written by writeString
+    static String readString(DataInput in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    // Write a product
+    static void writeProduct(DataOutput out, Product product) throws IOException {
+        out.writeInt(product.getProductID());
+        writeString(out, product.getProductName());
+        writeString(out, product.getProductDescription());
+        out.writeDouble(Money.toDouble(product.getProductUnitPrice())); // Stored in units, as it always was
+        out.writeInt(product.getProductQuantity());
+        writeString(out, product.getProductCategoryName());
+    }
+
+    // Read a product
+    static Product readProduct(DataInput in) throws IOException {
+        Integer productID = in.readInt();
+        String productName = readString(in);
+        String productDescription = readString(in);
+        long productUnitPrice = Money.ofDouble(in.readDouble());
+        Integer productQuantity = in.readInt();
+        String productCategoryName = readString(in);
+        return new Product(productID, productName, productDescription, productUnitPrice, productQuantity, productCategoryName);
+    }
+
+    // Write a customer
+    static void writeCustomer(DataOutput out, Customer customer) throws IOException {
+        out.writeInt(customer.getCustomerID());
+        writeString(out, customer.getCustomerName());
+        writeString(out, customer.getCustomerEmail());
+        writeString(out, customer.getCustomerAddress());
+        writeString(out, customer.getCustomerTelephone());
+    }
+
+    // Read a customer
+    static Customer readCustomer(DataInput in) throws IOException {
+        Integer customerID = in.readInt();
+        String customerName = readString(in);
+        String customerEmail = readString(in);
+        String customerAddress = readString(in);
+        String customerTelephone = readString(in);
+        return new Customer(customerID, customerName, customerEmail, customerAddress, customerTelephone);
+    }
+
+    // Write a supplier
+    static void writeSupplier(DataOutput out, Supplier supplier) throws IOException {
+        out.writeInt(supplier.getSupplierID());
+        writeString(out, supplier.getSupplierName());
+        writeString(out, supplier.getSupplierEmail());
+        writeString(out, supplier.getSupplierAddress());
+        writeString(out, supplier.getSupplierTelephone());
+        writeString(out, supplier.getSupplierCity());
+        writeString(out, supplier.getSupplierDescription());
+    }
+
+    // Read a supplier
+    static Supplier readSupplier(DataInput in) throws IOException {
+        Integer supplierID = in.readInt();
+        String supplierName = readString(in);
+        String supplierEmail = readString(in);
+        String supplierAddress = readString(in);
+        String supplierTelephone = readString(in);
+        String supplierCity = readString(in);
+        String supplierDescription = readString(in);
+        return new Supplier(supplierName, supplierEmail, supplierAddress, supplierID, supplierTelephone, supplierCity, supplierDescription);
+    }
+
+    // Write a category
+    static void writeCategory(DataOutput out, Category category) throws IOException {
+        out.writeInt(category.getCategoryID());
+        writeString(out, category.getCategoryName());
+    }
+
+    // Read a category
+    static Category readCategory(DataInput in) throws IOException {
+        Integer categoryID = in.readInt();
+        String categoryName = readString(in);
+        return new Category(categoryID, categoryName);
+    }
+
+    // Write an employee
+    static void writeEmployee(DataOutput out, Employee employee) throws IOException {
+        out.writeInt(employee.getEmployeeID());
+        writeString(out, employee.getEmployeeUser());
+        writeString(out, employee.getEmployeePassword());
+        writeString(out, employee.getEmployeeName());
+        writeString(out, employee.getEmployeeAddress());
+        writeString(out, employee.getEmployeeEmail());
+        writeString(out, employee.getEmployeeRol());
+    }
+
+    // Read an employee
+    static Employee readEmployee(DataInput in) throws IOException {
+        Integer employeeID = in.readInt();
+        String employeeUser = readString(in);
+        String employeePassword = readString(in);
+        String employeeName = readString(in);
+        String employeeAddress = readString(in);
+        String employeeEmail = readString(in);
+        String employeeRol = readString(in);
+        return new Employee(employeeID, employeeUser, employeePassword, employeeName, employeeAddress, employeeEmail, employeeRol);
+    }
+
+    // Write a purchase
+    static void writePurchase(DataOutput out, Purchase purchase) throws IOException {
+        out.writeInt(purchase.getPurchaseID());
+        out.writeInt(purchase.getPurchaseProductID());
+        writeString(out, purchase.getPurchaseProduct());
+        writeString(out, purchase.getPurchaseSupplier());
+        out.writeInt(purchase.getPurchaseQuantityToBuy());
+        writeString(out, purchase.getPurchaseCustomer());
+        out.writeDouble(Money.toDouble(purchase.getPurchasePrice())); // Stored in units, as it always was
+        writeString(out, purchase.getPurchaseDateTime());
+    }
+
+    // Read a purchase
+    static Purchase readPurchase(DataInput in) throws IOException {
+        Integer purchaseID = in.readInt();
+        Integer purchaseProductID = in.readInt();
+        String purchaseProduct = readString(in);
+        String purchaseSupplier = readString(in);
+        Integer purchaseQuantityToBuy = in.readInt();
+        String purchaseCustomer = readString(in);
+        long purchasePrice = Money.ofDouble(in.readDouble());
+        String purchaseDateTime = readString(in);
+        return new Purchase(purchaseID, purchaseProductID, purchaseProduct, purchaseSupplier,
+                purchaseQuantityToBuy, purchaseCustomer, purchasePrice, purchaseDateTime);
+    }
+
+    // Write a purchase in process preceded by the cart holding it
+    static void writeCartLine(DataOutput out, Cart.Line line) throws IOException {
+        writeString(out, line.cartID());
+        writePurchase(out, line.purchase());
+    }
+
+    // Read a purchase in process and its cart
+    static Cart.Line readCartLine(DataInput in) throws IOException {
+        String cartID = readString(in);
+        return new Cart.Line(cartID, readPurchase(in));
+    }
+}
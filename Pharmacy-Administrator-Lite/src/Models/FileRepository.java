@@ -0,0 +1,321 @@
+package Models;
+
+import Interfaces.Repository;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.zip.CRC32;
+
+/**
+ * Repository keeping its values in a log file instead of the heap. Every put
+ * appends the encoded value and every remove appends a tombstone:
+ *
+ * [id][body length, -1 for a tombstone][crc32 of id, length and body][body]
+ *
+ * Only the offset of the latest record of each ID is held in memory. The log
+ * is replayed when the repository opens, dropping a torn tail, and rewritten
+ * without its dead records once they take more than half of the file, checked
+ * when it opens and after every put or remove.
+ *
+ * Appends are not forced one by one: the file is forced when the journal
+ * rotates, and the journal, which records every change of the store, is
+ * replayed over it at startup.
+ */
+final class FileRepository<V> implements Repository<V> {
+
+    private static final int RECORD_HEADER_BYTES = 12;
+    private static final int REMOVED = -1;
+    private static final long COMPACT_MIN_BYTES = 1 << 20;
+
+    private final Path file;
+    private final EntityCodec.Reader<V> reader;
+    private final EntityCodec.Writer<V> writer;
+    private FileChannel channel;
+    private long[] offsets = new long[0]; // Offset of the live record of each ID, -1 if none
+    private int[] lengths = new int[0]; // Body length of the live record of each ID
+    private int nextID = 0; // One past the highest ID in the log
+    private int count = 0; // Number of live records
+    private long end = 0; // End of the log
+    private long liveBytes = 0; // Bytes taken by live records
+
+    FileRepository(Path file, EntityCodec.Reader<V> reader, EntityCodec.Writer<V> writer) throws IOException {
+        this.file = file;
+        this.reader = reader;
+        this.writer = writer;
+        open();
+        compactIfSparse();
+    }
+
+    @Override
+    public synchronized V get(int id) {
+        if (id < 0 || id >= nextID || offsets[id] < 0) {
+            return null;
+        }
+        try {
+            ByteBuffer body = ByteBuffer.allocate(lengths[id]);
+            readFully(body, offsets[id] + RECORD_HEADER_BYTES);
+            return reader.read(new DataInputStream(new ByteArrayInputStream(body.array())));
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Record " + id + " of " + file + " could not be read.", ex);
+        }
+    }
+
+    @Override
+    public synchronized void put(int id, V value) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+            writer.write(new DataOutputStream(bytes), value);
+            byte[] body = bytes.toByteArray();
+            long offset = append(id, body);
+            ensureID(id);
+            if (offsets[id] < 0) {
+                count++;
+            } else {
+                liveBytes -= RECORD_HEADER_BYTES + lengths[id];
+            }
+            offsets[id] = offset;
+            lengths[id] = body.length;
+            liveBytes += RECORD_HEADER_BYTES + body.length;
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Record " + id + " could not be written to " + file + ".", ex);
+        }
+        compactAfterChange();
+    }
+
+    @Override
+    public synchronized boolean remove(int id) {
+        if (id < 0 || id >= nextID || offsets[id] < 0) {
+            return false;
+        }
+        try {
+            append(id, null);
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Record " + id + " could not be removed from " + file + ".", ex);
+        }
+        liveBytes -= RECORD_HEADER_BYTES + lengths[id];
+        offsets[id] = -1;
+        count--;
+        compactAfterChange();
+        return true;
+    }
+
+    @Override
+    public synchronized void scan(Consumer<? super V> action) {
+        for (int id = 0; id < nextID; id++) {
+            if (offsets[id] >= 0) {
+                action.accept(get(id));
+            }
+        }
+    }
+
+    @Override
+    public synchronized V find(Predicate<? super V> filter) {
+        for (int id = 0; id < nextID; id++) {
+            if (offsets[id] >= 0) {
+                V value = get(id);
+                if (filter.test(value)) {
+                    return value;
+                }
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public synchronized int count() {
+        return count;
+    }
+
+    @Override
+    public synchronized int nextID() {
+        return nextID;
+    }
+
+    @Override
+    public synchronized void clear() {
+        try {
+            channel.truncate(0);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(file + " could not be cleared.", ex);
+        }
+        Arrays.fill(offsets, -1L);
+        count = 0;
+        end = 0;
+        liveBytes = 0;
+        // nextID is kept so cleared IDs are not handed out again in this run
+    }
+
+    @Override
+    public boolean isDurable() {
+        return true;
+    }
+
+    @Override
+    public synchronized void flush() {
+        try {
+            channel.force(false);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(file + " could not be flushed.", ex);
+        }
+    }
+
+    // Open the log and rebuild the offsets, truncating an incomplete last record
+    private void open() throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = channel.size();
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_BYTES);
+        while (end + RECORD_HEADER_BYTES <= size) {
+            header.clear();
+            readFully(header, end);
+            int id = header.getInt(0);
+            int length = header.getInt(4);
+            if (id < 0 || length < REMOVED || end + RECORD_HEADER_BYTES + Math.max(length, 0) > size) {
+                break;
+            }
+            ByteBuffer body = ByteBuffer.allocate(Math.max(length, 0));
+            readFully(body, end + RECORD_HEADER_BYTES);
+            if (checksum(id, length, body.array()) != header.getInt(8)) {
+                break;
+            }
+            ensureID(id);
+            if (length == REMOVED) {
+                if (offsets[id] >= 0) {
+                    liveBytes -= RECORD_HEADER_BYTES + lengths[id];
+                    offsets[id] = -1;
+                    count--;
+                }
+            } else {
+                if (offsets[id] < 0) {
+                    count++;
+                } else {
+                    liveBytes -= RECORD_HEADER_BYTES + lengths[id];
+                }
+                offsets[id] = end;
+                lengths[id] = length;
+                liveBytes += RECORD_HEADER_BYTES + length;
+            }
+            end += RECORD_HEADER_BYTES + Math.max(length, 0);
+        }
+        if (end < size) {
+            channel.truncate(end); // Torn or corrupted tail
+        }
+    }
+
+    // Compact the log once its dead records take more than half of it. The live bytes are at least
+    // half of the file after a compaction, so the rewrites stay proportional to the changes made.
+    private void compactIfSparse() throws IOException {
+        if (end > COMPACT_MIN_BYTES && liveBytes < end / 2) {
+            compact();
+        }
+    }
+
+    // Compact after a put or remove; the change itself is already in the log
+    private void compactAfterChange() {
+        try {
+            compactIfSparse();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(file + " could not be compacted.", ex);
+        }
+    }
+
+    // Rewrite the log with the live records only. The rewrite is forced before it replaces the log,
+    // so the appends not forced yet are on disk too; should the replacement fail, the log is reopened.
+    private void compact() throws IOException {
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel target = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long position = 0;
+            for (int id = 0; id < nextID; id++) {
+                if (offsets[id] >= 0) {
+                    ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_BYTES + lengths[id]);
+                    readFully(record, offsets[id]);
+                    record.flip();
+                    position += writeFully(target, record, position);
+                }
+            }
+            if (nextID > 0 && offsets[nextID - 1] < 0) {
+                // Keep the highest ID known so it is not reused
+                position += writeFully(target, tombstone(nextID - 1), position);
+            }
+            target.force(true);
+        }
+        channel.close();
+        try {
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Arrays.fill(offsets, -1L);
+            nextID = 0;
+            count = 0;
+            end = 0;
+            liveBytes = 0;
+            open();
+        }
+    }
+
+    // Append a record, a tombstone when the body is null, and return its offset
+    private long append(int id, byte[] body) throws IOException {
+        ByteBuffer record;
+        if (body == null) {
+            record = tombstone(id);
+        } else {
+            record = ByteBuffer.allocate(RECORD_HEADER_BYTES + body.length);
+            record.putInt(id).putInt(body.length).putInt(checksum(id, body.length, body)).put(body).flip();
+        }
+        long offset = end;
+        end += writeFully(channel, record, offset);
+        return offset;
+    }
+
+    private static ByteBuffer tombstone(int id) {
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_BYTES);
+        record.putInt(id).putInt(REMOVED).putInt(checksum(id, REMOVED, new byte[0])).flip();
+        return record;
+    }
+
+    private static int checksum(int id, int length, byte[] body) {
+        CRC32 crc = new CRC32();
+        crc.update(ByteBuffer.allocate(8).putInt(id).putInt(length).flip());
+        crc.update(body);
+        return (int) crc.getValue();
+    }
+
+    // Make room for the ID in the offset arrays
+    private void ensureID(int id) {
+        if (id >= offsets.length) {
+            int length = Math.max(id + 1, Math.max(64, offsets.length * 2));
+            int previous = offsets.length;
+            offsets = Arrays.copyOf(offsets, length);
+            lengths = Arrays.copyOf(lengths, length);
+            Arrays.fill(offsets, previous, length, -1L);
+        }
+        nextID = Math.max(nextID, id + 1);
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of " + file);
+            }
+        }
+    }
+
+    private static int writeFully(FileChannel target, ByteBuffer buffer, long position) throws IOException {
+        int written = 0;
+        while (buffer.hasRemaining()) {
+            written += target.write(buffer, position + written);
+        }
+        return written;
+    }
+}
@@ -0,0 +1,415 @@
+package Models;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only write-ahead journal of every mutation made through the *Actions
+ * singletons. Records are framed as [length][crc32][entity][operation][body]
+ * and hold the full state of the entity after the change, so replaying a
+ * record twice leaves the stores unchanged.
+ *
+ * Appends only encode and enqueue the record; a single writer thread drains
+ * everything queued since its last pass, writes it with one gathering write
+ * and forces it to disk with one fsync (group commit). Every change made
+ * through the *Actions singletons waits for that fsync before it returns, with
+ * the lock of its store already released, so a change the views report as
+ * done is on disk and the changes of concurrent terminals share one fsync.
+ * Files the records refer to, such as the purchase ledger, are forced by the
+ * writer before each write, so they share the same group commit.
+ *
+ * The journal is split in numbered segments. A snapshot rotates to a new
+ * segment before capturing the stores, after which the older segments are
+ * covered by the snapshot and can be deleted.
+ */
+final class Journal {
+
+    // Entity tags
+    static final byte PRODUCT = 1;
+    static final byte CUSTOMER = 2;
+    static final byte SUPPLIER = 3;
+    static final byte CATEGORY = 4;
+    static final byte EMPLOYEE = 5;
+    static final byte PURCHASE = 6;
+
+    // Operation tags
+    static final byte PUT = 1; // Body is the whole entity
+    static final byte REMOVE = 2; // Body is the entity ID
+    static final byte FINALISE = 3; // Body is the list of purchase IDs moved to completed
+    static final byte PUT_IN_CART = 4; // Body is a cart ID and the whole purchase in process
+    static final byte SALE = 5; // Body is the list of purchase IDs moved to completed and the products they were sold from
+
+    private static final int HEADER_BYTES = 8; // Length and checksum of each record
+    private static final int MAX_BATCH = 4096; // Most records committed by one fsync
+    private static final byte[] CLOSE = new byte[0]; // Marker that stops the writer thread
+    private static final byte[] ROTATE = new byte[0]; // Marker that switches to the next segment
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private static final Logger LOGGER = Logger.getLogger(Journal.class.getName());
+
+    // Journal currently open, null when persistence is disabled
+    private static volatile Journal instance;
+
+    // Files the records refer to, forced before every write of records
+    private static final List<Barrier> barriers = new CopyOnWriteArrayList<>();
+
+    // Body of a record, written into the encoding buffer
+    @FunctionalInterface
+    interface RecordBody {
+
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    // File written outside the journal that records may refer to, such as the purchase ledger
+    @FunctionalInterface
+    interface Barrier {
+
+        void force() throws IOException;
+    }
+
+    private final Path directory; // Directory holding the segments
+    private final BlockingQueue<byte[]> pending = new LinkedBlockingQueue<>(); // Records waiting for the writer
+    private final Thread writer; // Group commit thread
+    private FileChannel channel; // Segment being written, only touched by the writer thread
+    private long segment; // Number of the newest segment
+    private long appended = 0; // Number of entries handed to the writer
+    private long committed = 0; // Number of entries already forced to disk
+    private long records = 0; // Number of records appended since the journal was opened
+    private volatile boolean failed = false; // Set when the writer cannot write anymore
+
+    private Journal(Path directory, long segment) throws IOException {
+        this.directory = directory;
+        this.segment = segment;
+        this.channel = openSegment(directory, segment);
+        this.writer = new Thread(this::writeLoop, "journal-writer");
+        this.writer.setDaemon(true);
+    }
+
+    // Replay the segments numbered from firstSegment on and start accepting appends
+    static synchronized void open(Path directory, long firstSegment) throws IOException {
+        if (instance != null) {
+            return;
+        }
+        long last = firstSegment - 1;
+        for (long number : listSegments(directory)) {
+            Path file = segmentPath(directory, number);
+            if (number < firstSegment) {
+                // Already contained in the snapshot
+                Files.delete(file);
+            } else {
+                long validBytes;
+                try (FileChannel segmentChannel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                    // Drop a torn record left by a crash in the middle of a write
+                    validBytes = replay(segmentChannel);
+                    segmentChannel.truncate(validBytes);
+                }
+                if (validBytes == 0) {
+                    Files.delete(file); // Nothing was written to it
+                }
+                last = number;
+            }
+        }
+        Journal journal = new Journal(directory, last + 1);
+        journal.writer.start();
+        instance = journal;
+    }
+
+    // Commit every pending record and close the journal
+    static synchronized void close() {
+        Journal journal = instance;
+        if (journal == null) {
+            return;
+        }
+        instance = null;
+        journal.pending.add(CLOSE);
+        try {
+            journal.writer.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Append a record to the open journal, if any
+    static void append(byte entity, byte operation, RecordBody body) {
+        Journal journal = instance;
+        if (journal != null) {
+            journal.enqueue(encode(entity, operation, body), true);
+        }
+    }
+
+    // Force a file before every write of records, so no record on disk refers to data that is not
+    static void forceBefore(Barrier barrier) {
+        barriers.add(barrier);
+    }
+
+    // Block until every record appended so far is on disk; without a journal the barriers are still forced
+    static void sync() {
+        Journal journal = instance;
+        if (journal != null) {
+            journal.awaitCommitted();
+        } else {
+            try {
+                forceBarriers();
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+    }
+
+    // Make a change under the lock of its store and wait until its records are on disk. The lock is
+    // released before the wait, so changes made by other threads meanwhile share the same fsync.
+    static <R> R commit(Object lock, Supplier<R> change) {
+        R result;
+        synchronized (lock) {
+            result = change.get();
+        }
+        sync();
+        return result;
+    }
+
+    // Number of records appended since the journal was opened
+    static long changes() {
+        Journal journal = instance;
+        if (journal == null) {
+            return 0;
+        }
+        synchronized (journal) {
+            return journal.records;
+        }
+    }
+
+    // Start a new segment and return its number, or -1 when the journal is closed
+    static long rotate() {
+        Journal journal = instance;
+        if (journal == null) {
+            return -1;
+        }
+        long next;
+        synchronized (journal) {
+            next = ++journal.segment;
+            journal.enqueue(ROTATE, false);
+        }
+        journal.awaitCommitted();
+        return next;
+    }
+
+    // Delete the segments numbered below firstSegment
+    static void deleteSegmentsBefore(Path directory, long firstSegment) throws IOException {
+        for (long number : listSegments(directory)) {
+            if (number < firstSegment) {
+                Files.deleteIfExists(segmentPath(directory, number));
+            }
+        }
+    }
+
+    private static List<Long> listSegments(Path directory) throws IOException {
+        List<Long> numbers = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    numbers.add(Long.valueOf(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+                } catch (NumberFormatException ex) {
+                    LOGGER.log(Level.WARNING, "Ignoring unexpected file {0}.", file);
+                }
+            }
+        }
+        Collections.sort(numbers);
+        return numbers;
+    }
+
+    private static Path segmentPath(Path directory, long number) {
+        return directory.resolve(String.format("%s%010d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX));
+    }
+
+    private static FileChannel openSegment(Path directory, long number) throws IOException {
+        return FileChannel.open(segmentPath(directory, number), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private static byte[] encode(byte entity, byte operation, RecordBody body) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeLong(0L); // Room for the header, filled in below
+            out.writeByte(entity);
+            out.writeByte(operation);
+            body.write(out);
+            byte[] record = bytes.toByteArray();
+            CRC32 crc = new CRC32();
+            crc.update(record, HEADER_BYTES, record.length - HEADER_BYTES);
+            ByteBuffer header = ByteBuffer.wrap(record, 0, HEADER_BYTES);
+            header.putInt(record.length - HEADER_BYTES);
+            header.putInt((int) crc.getValue());
+            return record;
+        } catch (IOException ex) {
+            // Writing into a byte array cannot fail
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private synchronized void enqueue(byte[] entry, boolean isRecord) {
+        if (failed) {
+            return;
+        }
+        appended++;
+        if (isRecord) {
+            records++;
+        }
+        pending.add(entry);
+    }
+
+    private synchronized void awaitCommitted() {
+        long target = appended;
+        while (committed < target && !failed) {
+            try {
+                wait();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void writeLoop() {
+        List<byte[]> batch = new ArrayList<>();
+        List<byte[]> run = new ArrayList<>();
+        boolean closing = false;
+        long nextSegment = segment;
+        try {
+            while (!closing) {
+                batch.add(pending.take());
+                pending.drainTo(batch, MAX_BATCH);
+                for (byte[] entry : batch) {
+                    if (entry == CLOSE) {
+                        closing = true;
+                    } else if (entry == ROTATE) {
+                        // Everything queued before the marker belongs to the current segment
+                        writeRun(run);
+                        channel.close();
+                        channel = openSegment(directory, ++nextSegment);
+                    } else {
+                        run.add(entry);
+                    }
+                }
+                writeRun(run);
+                synchronized (this) {
+                    committed += batch.size();
+                    notifyAll();
+                }
+                batch.clear();
+            }
+            channel.close();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (IOException ex) {
+            LOGGER.log(Level.SEVERE, "The journal could not be written, further changes will not be saved.", ex);
+            synchronized (this) {
+                failed = true;
+                notifyAll();
+            }
+        }
+    }
+
+    // Write the records gathered so far and force them to disk with one fsync
+    private void writeRun(List<byte[]> run) throws IOException {
+        if (run.isEmpty()) {
+            return;
+        }
+        forceBarriers();
+        ByteBuffer[] buffers = new ByteBuffer[run.size()];
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = ByteBuffer.wrap(run.get(i));
+        }
+        while (buffers[buffers.length - 1].hasRemaining()) {
+            channel.write(buffers);
+        }
+        channel.force(false);
+        run.clear();
+    }
+
+    private static void forceBarriers() throws IOException {
+        for (Barrier barrier : barriers) {
+            try {
+                barrier.force();
+            } catch (UncheckedIOException ex) {
+                throw ex.getCause(); // Mapped files report their failures unchecked
+            }
+        }
+    }
+
+    // Apply every complete record to the stores and return the length of the valid prefix
+    private static long replay(FileChannel channel) throws IOException {
+        long size = channel.size();
+        long position = 0;
+        int replayed = 0;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Channels.newInputStream(channel.position(0)), 1 << 16));
+        CRC32 crc = new CRC32();
+        while (position + HEADER_BYTES <= size) {
+            int length = in.readInt();
+            int checksum = in.readInt();
+            if (length < 2 || position + HEADER_BYTES + length > size) {
+                break; // Torn tail
+            }
+            byte[] payload = new byte[length];
+            in.readFully(payload);
+            crc.reset();
+            crc.update(payload);
+            if ((int) crc.getValue() != checksum) {
+                break; // Corrupted tail
+            }
+            apply(payload[0], payload[1], new DataInputStream(new ByteArrayInputStream(payload, 2, length - 2)));
+            position += HEADER_BYTES + length;
+            replayed++;
+        }
+        if (position < size) {
+            LOGGER.log(Level.WARNING, "Discarding {0} bytes at the end of a journal segment.", size - position);
+        }
+        LOGGER.log(Level.INFO, "Replayed {0} journal records.", replayed);
+        return position;
+    }
+
+    // Dispatch one record to the store that owns the entity
+    private static void apply(byte entity, byte operation, DataInputStream in) throws IOException {
+        switch (entity) {
+            case PRODUCT ->
+                ProductActions.getInstance().replay(operation, in);
+            case CUSTOMER ->
+                CustomerActions.getInstance().replay(operation, in);
+            case SUPPLIER ->
+                SupplierActions.getInstance().replay(operation, in);
+            case CATEGORY ->
+                CategoryActions.getInstance().replay(operation, in);
+            case EMPLOYEE ->
+                EmployeeActions.getInstance().replay(operation, in);
+            case PURCHASE ->
+                PurchaseActions.getInstance().replay(operation, in);
+            default ->
+                LOGGER.log(Level.WARNING, "Unknown journal entity {0}, record skipped.", entity);
+        }
+    }
+}
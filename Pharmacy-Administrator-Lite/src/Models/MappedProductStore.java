@@ -0,0 +1,279 @@
+package Models;
+
+import Interfaces.Repository;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Product storage backed by two memory-mapped files, for catalogs too large to
+ * keep as Product objects on the heap.
+ *
+ * The record file holds one fixed-width record per product ID, so the record
+ * of a product is found by a direct offset computation:
+ *
+ * [live][id][unit price][quantity][category id][name][description][category]
+ *
+ * The three last fields are offsets into the string heap file, where every
+ * string is stored as [int length][UTF-8 bytes]. Strings are only appended;
+ * a modified name leaves its old bytes behind, an unchanged one is reused.
+ * The heap is mapped in regions of 1 GiB, as one mapping cannot exceed 2 GiB,
+ * and a string never straddles two regions, so the offsets are longs and the
+ * heap may grow past 2 GiB.
+ *
+ * The files are only forced when the journal rotates; the changes made since
+ * are journaled like those of the heap repositories and replayed over the
+ * files at startup.
+ *
+ * Replacing a live product whose strings are unchanged only writes into its
+ * own record, so such puts may run concurrently for different products.
+ */
+final class MappedProductStore implements Repository<Product> {
+
+    private static final int HEADER_BYTES = 16; // Magic, number of record slots and end of the string heap
+    private static final int RECORD_BYTES = 48;
+    private static final int MAGIC = 0x50484D50; // "PHMP"
+    private static final long NO_STRING = -1L;
+    private static final int REGION_SHIFT = 30; // The string heap is mapped by regions of 1 GiB
+    private static final long REGION_BYTES = 1L << REGION_SHIFT;
+
+    // Field offsets inside a record
+    private static final int LIVE = 0;
+    private static final int ID = 4;
+    private static final int UNIT_PRICE = 8;
+    private static final int QUANTITY = 16;
+    private static final int CATEGORY_ID = 20;
+    private static final int NAME = 24;
+    private static final int DESCRIPTION = 32;
+    private static final int CATEGORY = 40;
+
+    private final FileChannel recordChannel;
+    private final FileChannel stringChannel;
+    private volatile MappedByteBuffer records; // Mapping of the record file
+    private volatile MappedByteBuffer[] strings; // Mappings of the string heap, by region
+    private long stringCapacity; // Bytes of the string heap mapped
+    private int slots; // Number of record slots in use, one past the highest ID stored
+    private int size; // Number of live products
+    private long stringEnd; // First free byte of the string heap
+
+    MappedProductStore(Path directory) throws IOException {
+        recordChannel = FileChannel.open(directory.resolve("products.dat"), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        stringChannel = FileChannel.open(directory.resolve("products.str"), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        records = recordChannel.map(FileChannel.MapMode.READ_WRITE, 0,
+                Math.max(recordChannel.size(), HEADER_BYTES + 1024L * RECORD_BYTES));
+        stringCapacity = Math.max(stringChannel.size(), 1 << 16);
+        strings = mapStrings(new MappedByteBuffer[0], stringCapacity);
+        if (records.getInt(0) == MAGIC) {
+            slots = records.getInt(4);
+            stringEnd = records.getLong(8);
+        } else {
+            // New file
+            records.putInt(0, MAGIC);
+            records.putInt(4, 0);
+            records.putLong(8, 0L);
+        }
+        for (int id = 0; id < slots; id++) {
+            if (records.getInt(recordOffset(id) + LIVE) != 0) {
+                size++;
+            }
+        }
+    }
+
+    // Read a product, null if no product has this ID
+    @Override
+    public Product get(int productID) {
+        if (productID < 0 || productID >= slots) {
+            return null;
+        }
+        MappedByteBuffer buffer = records;
+        int offset = recordOffset(productID);
+        if (buffer.getInt(offset + LIVE) == 0) {
+            return null;
+        }
+        return new Product(productID, readString(buffer.getLong(offset + NAME)),
+                readString(buffer.getLong(offset + DESCRIPTION)), Money.ofDouble(buffer.getDouble(offset + UNIT_PRICE)),
+                buffer.getInt(offset + QUANTITY), readString(buffer.getLong(offset + CATEGORY)));
+    }
+
+    // Insert or replace a product
+    @Override
+    public void put(int productID, Product product) {
+        try {
+            ensureSlot(productID);
+            int offset = recordOffset(productID);
+            MappedByteBuffer buffer = records;
+            boolean live = buffer.getInt(offset + LIVE) != 0;
+            if (!live) {
+                size++;
+            }
+            buffer.putInt(offset + ID, productID);
+            buffer.putDouble(offset + UNIT_PRICE, Money.toDouble(product.getProductUnitPrice()));
+            buffer.putInt(offset + QUANTITY, product.getProductQuantity());
+            buffer.putInt(offset + CATEGORY_ID, EntityCodec.labelID(product.getProductCategoryName()));
+            putString(buffer, offset + NAME, live, product.getProductName());
+            putString(buffer, offset + DESCRIPTION, live, product.getProductDescription());
+            putString(buffer, offset + CATEGORY, live, product.getProductCategoryName());
+            buffer.putInt(offset + LIVE, 1); // Published last
+        } catch (IOException ex) {
+            throw new UncheckedIOException("The product could not be stored.", ex);
+        }
+    }
+
+    // Remove a product
+    @Override
+    public boolean remove(int productID) {
+        if (productID < 0 || productID >= slots || records.getInt(recordOffset(productID) + LIVE) == 0) {
+            return false;
+        }
+        records.putInt(recordOffset(productID) + LIVE, 0);
+        size--;
+        return true;
+    }
+
+    // Visit every product in ID order
+    @Override
+    public void scan(Consumer<? super Product> action) {
+        int end = slots;
+        for (int id = 0; id < end; id++) {
+            Product product = get(id);
+            if (product != null) {
+                action.accept(product);
+            }
+        }
+    }
+
+    // First product in ID order accepted by the filter
+    @Override
+    public Product find(Predicate<? super Product> filter) {
+        int end = slots;
+        for (int id = 0; id < end; id++) {
+            Product product = get(id);
+            if (product != null && filter.test(product)) {
+                return product;
+            }
+        }
+        return null;
+    }
+
+    // Number of products stored
+    @Override
+    public int count() {
+        return size;
+    }
+
+    // Number of record slots in use, the next free product ID
+    @Override
+    public int nextID() {
+        return slots;
+    }
+
+    // Remove every product
+    @Override
+    public void clear() {
+        for (int id = 0; id < slots; id++) {
+            records.putInt(recordOffset(id) + LIVE, 0);
+        }
+        size = 0;
+    }
+
+    @Override
+    public boolean isDurable() {
+        return true;
+    }
+
+    // Flush both files to disk, the strings first. The end of the heap is recorded only once the
+    // strings below it are on disk, so the recorded end never covers a string that is not.
+    @Override
+    public void flush() {
+        for (MappedByteBuffer region : strings) {
+            region.force();
+        }
+        records.putLong(8, stringEnd);
+        records.force();
+    }
+
+    private static int recordOffset(int productID) {
+        return HEADER_BYTES + productID * RECORD_BYTES;
+    }
+
+    // Grow the record file so the slot of productID exists
+    private void ensureSlot(int productID) throws IOException {
+        long needed = recordOffset(productID + 1);
+        if (needed > records.capacity()) {
+            flush();
+            records = recordChannel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(needed, records.capacity() * 2L));
+        }
+        if (productID >= slots) {
+            slots = productID + 1;
+            records.putInt(4, slots);
+        }
+    }
+
+    // Point a string field at the value, appending it unless the record already holds it. Only a
+    // string below stringEnd is read back: while the journal is replayed that is the end recorded by
+    // the last flush, and a string past it was written after that flush and may be lost.
+    private void putString(MappedByteBuffer buffer, int field, boolean live, String value) throws IOException {
+        long current = buffer.getLong(field);
+        if (live && value != null && current != NO_STRING && current < stringEnd && value.equals(readString(current))) {
+            return;
+        }
+        buffer.putLong(field, writeString(value));
+    }
+
+    private long writeString(String value) throws IOException {
+        if (value == null) {
+            return NO_STRING;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        long offset = stringEnd;
+        if ((offset & (REGION_BYTES - 1)) + 4 + bytes.length > REGION_BYTES) {
+            offset = (offset | (REGION_BYTES - 1)) + 1; // Start the next region instead of straddling two
+        }
+        long needed = offset + 4 + bytes.length;
+        if (needed > stringCapacity) {
+            stringCapacity = Math.max(needed, stringCapacity * 2);
+            strings = mapStrings(strings, stringCapacity);
+        }
+        MappedByteBuffer region = strings[(int) (offset >>> REGION_SHIFT)];
+        int position = (int) (offset & (REGION_BYTES - 1));
+        region.putInt(position, bytes.length);
+        region.put(position + 4, bytes);
+        stringEnd = needed;
+        return offset;
+    }
+
+    // String at an offset; one past the end of the heap, left by a record written after the last
+    // flush and waiting for its journal record to be replayed, reads as none
+    private String readString(long offset) {
+        if (offset == NO_STRING || offset >= stringEnd) {
+            return null;
+        }
+        MappedByteBuffer region = strings[(int) (offset >>> REGION_SHIFT)];
+        int position = (int) (offset & (REGION_BYTES - 1));
+        byte[] bytes = new byte[region.getInt(position)];
+        region.get(position + 4, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Map the string heap up to length, keeping the regions already mapped in full
+    private MappedByteBuffer[] mapStrings(MappedByteBuffer[] mapped, long length) throws IOException {
+        MappedByteBuffer[] regions = Arrays.copyOf(mapped, (int) ((length + REGION_BYTES - 1) >>> REGION_SHIFT));
+        for (int i = 0; i < regions.length; i++) {
+            long start = (long) i << REGION_SHIFT;
+            long size = Math.min(REGION_BYTES, length - start);
+            if (regions[i] == null || regions[i].capacity() < size) {
+                regions[i] = stringChannel.map(FileChannel.MapMode.READ_WRITE, start, size);
+            }
+        }
+        return regions;
+    }
+}
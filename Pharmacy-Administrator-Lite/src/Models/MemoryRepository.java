@@ -0,0 +1,63 @@
+package Models;
+
+import Interfaces.Repository;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+// Repository keeping its values on the heap; the journal and the snapshots persist them.
+// Replacing the values of existing IDs is safe from several threads at once.
+final class MemoryRepository<V> implements Repository<V> {
+
+    private final Map<Integer, V> values = new ConcurrentHashMap<>();
+    private int nextID = 0; // One past the highest ID stored
+
+    @Override
+    public V get(int id) {
+        return values.get(id);
+    }
+
+    @Override
+    public void put(int id, V value) {
+        values.put(id, value);
+        if (id >= nextID) {
+            nextID = id + 1;
+        }
+    }
+
+    @Override
+    public boolean remove(int id) {
+        return values.remove(id) != null;
+    }
+
+    @Override
+    public void scan(Consumer<? super V> action) {
+        values.values().forEach(action);
+    }
+
+    @Override
+    public V find(Predicate<? super V> filter) {
+        for (V value : values.values()) {
+            if (filter.test(value)) {
+                return value;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public int count() {
+        return values.size();
+    }
+
+    @Override
+    public int nextID() {
+        return nextID;
+    }
+
+    @Override
+    public void clear() {
+        values.clear();
+    }
+}
@@ -0,0 +1,156 @@
+package Models;
+
+/**
+ * Amounts of money as a long number of cents. Prices, purchase prices and
+ * totals are kept in cents, so adding them up is exact integer arithmetic
+ * whatever the number of sales, and none of it allocates: an amount is a
+ * primitive long, not an object.
+ *
+ * The journal, the snapshots, the mapped product store and the ledger still
+ * hold the amounts as 8-byte doubles, as they always did; they are converted
+ * with {@link #ofDouble(double)} and {@link #toDouble(long)} when read and
+ * written, which is exact for any amount below 10^13 units.
+ */
+public final class Money {
+
+    public static final int CENTS_PER_UNIT = 100;
+
+    private static final int MAX_CHARS = 21; // "-92233720368547758.08"
+
+    private Money() {
+    }
+
+    /**
+     * Amount written as digits with up to two decimals, such as "12", "12.5"
+     * or "12.50", with an optional leading minus sign.
+     *
+     * @param text Amount in units
+     * @return Amount in cents
+     * @throws NumberFormatException If the text is not such an amount or does
+     * not fit in a long
+     */
+    public static long parse(String text) {
+        int length = text.length();
+        int i = 0;
+        boolean negative = length > 0 && text.charAt(0) == '-';
+        if (negative) {
+            i++;
+        }
+        long units = 0;
+        int digits = 0;
+        for (; i < length && text.charAt(i) != '.'; i++, digits++) {
+            if (units > ((Long.MAX_VALUE - 99) / CENTS_PER_UNIT - 9) / 10) { // units * 100 + 99 must fit
+                throw new NumberFormatException("Amount too large: " + text);
+            }
+            units = units * 10 + digit(text, i);
+        }
+        long cents = 0;
+        int decimals = 0;
+        if (i < length) {
+            for (i++; i < length; i++, decimals++) {
+                if (decimals == 2) {
+                    throw new NumberFormatException("More than two decimals: " + text);
+                }
+                cents = cents * 10 + digit(text, i);
+            }
+            if (decimals == 0) {
+                throw new NumberFormatException("No decimals after the point: " + text);
+            }
+        }
+        if (digits == 0) {
+            throw new NumberFormatException("Not an amount: " + text);
+        }
+        if (decimals == 1) {
+            cents *= 10;
+        }
+        long amount = units * CENTS_PER_UNIT + cents;
+        return negative ? -amount : amount;
+    }
+
+    private static int digit(String text, int i) {
+        char c = text.charAt(i);
+        if (c < '0' || c > '9') {
+            throw new NumberFormatException("Not an amount: " + text);
+        }
+        return c - '0';
+    }
+
+    /**
+     * Amount stored as a double, as the files hold them, rounded to the cent.
+     *
+     * @param amount Amount in units
+     * @return Amount in cents
+     */
+    public static long ofDouble(double amount) {
+        return Math.round(amount * CENTS_PER_UNIT);
+    }
+
+    /**
+     * Amount as a double, for the files holding them so.
+     *
+     * @param cents Amount in cents
+     * @return Amount in units
+     */
+    public static double toDouble(long cents) {
+        return cents / (double) CENTS_PER_UNIT;
+    }
+
+    /**
+     * Price of a quantity of units.
+     *
+     * @param cents Price of one unit, in cents
+     * @param quantity Number of units
+     * @return Price of all of them, in cents
+     * @throws ArithmeticException If it does not fit in a long
+     */
+    public static long times(long cents, int quantity) {
+        return Math.multiplyExact(cents, (long) quantity);
+    }
+
+    /**
+     * Amount in units with two decimals, such as "12.50".
+     *
+     * @param cents Amount in cents
+     * @return The amount as text
+     */
+    public static String format(long cents) {
+        char[] chars = new char[MAX_CHARS];
+        int start = fill(chars, cents);
+        return new String(chars, start, MAX_CHARS - start);
+    }
+
+    /**
+     * Append an amount as {@link #format(long)} writes it, without creating
+     * any object, to a builder reused across amounts.
+     *
+     * @param builder Builder receiving the amount
+     * @param cents Amount in cents
+     * @return The builder
+     */
+    public static StringBuilder appendTo(StringBuilder builder, long cents) {
+        if (cents < 0) {
+            builder.append('-');
+        }
+        long units = Math.abs(cents / CENTS_PER_UNIT);
+        int rest = (int) Math.abs(cents % CENTS_PER_UNIT);
+        return builder.append(units).append('.').append((char) ('0' + rest / 10)).append((char) ('0' + rest % 10));
+    }
+
+    // Write the amount at the end of chars, returning where it starts
+    private static int fill(char[] chars, long cents) {
+        int i = chars.length;
+        long rest = Math.abs(cents % CENTS_PER_UNIT);
+        long units = Math.abs(cents / CENTS_PER_UNIT);
+        chars[--i] = (char) ('0' + rest % 10);
+        chars[--i] = (char) ('0' + rest / 10);
+        chars[--i] = '.';
+        do {
+            chars[--i] = (char) ('0' + units % 10);
+            units /= 10;
+        } while (units > 0);
+        if (cents < 0) {
+            chars[--i] = '-';
+        }
+        return i;
+    }
+}
@@ -0,0 +1,81 @@
+package Models;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+// Secondary index from a case-insensitive name to the IDs carrying it, sorted to answer prefix searches
+final class NameIndex {
+
+    private final NavigableMap<String, Set<Integer>> ids = new TreeMap<>();
+
+    // Fold the case the way String.equalsIgnoreCase compares characters
+    static String normalize(String name) {
+        char[] chars = name.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = Character.toLowerCase(Character.toUpperCase(chars[i]));
+        }
+        return new String(chars);
+    }
+
+    // IDs of the entities with this name, in ID order
+    Set<Integer> get(String name) {
+        Set<Integer> matches = ids.get(normalize(name));
+        return matches == null ? Collections.emptySet() : Collections.unmodifiableSet(matches);
+    }
+
+    // IDs of at most limit entities whose name starts with the prefix, in name order then ID order.
+    // Folding keeps the length of every character, so the matching names are one contiguous run
+    // of the sorted keys and the walk stops at the first key past it.
+    List<Integer> startingWith(String prefix, int limit) {
+        String key = normalize(prefix);
+        List<Integer> matches = new ArrayList<>(Math.min(limit, 64));
+        for (Map.Entry<String, Set<Integer>> entry : ids.tailMap(key, true).entrySet()) {
+            if (!entry.getKey().startsWith(key)) {
+                break;
+            }
+            for (Integer id : entry.getValue()) {
+                if (matches.size() == limit) {
+                    return matches;
+                }
+                matches.add(id);
+            }
+        }
+        return matches;
+    }
+
+    void add(String name, int id) {
+        if (name != null) {
+            ids.computeIfAbsent(normalize(name), key -> new TreeSet<>()).add(id);
+        }
+    }
+
+    void remove(String name, int id) {
+        if (name == null) {
+            return;
+        }
+        String key = normalize(name);
+        Set<Integer> matches = ids.get(key);
+        if (matches != null && matches.remove(id) && matches.isEmpty()) {
+            ids.remove(key);
+        }
+    }
+
+    // Move an ID from its previous name to the new one
+    void replace(String previousName, String name, int id) {
+        if (previousName != null && name != null && normalize(previousName).equals(normalize(name))) {
+            return;
+        }
+        remove(previousName, id);
+        add(name, id);
+    }
+
+    void clear() {
+        ids.clear();
+    }
+}
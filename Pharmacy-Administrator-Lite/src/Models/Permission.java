@@ -0,0 +1,23 @@
+package Models;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+// What a logged-in employee may do, worked out once from the role at login
+public enum Permission {
+
+    MANAGE_EMPLOYEES, // List, register, modify and delete other employees
+    MANAGE_CATEGORIES, // Register, modify and delete categories
+    MANAGE_PRODUCTS, // Register, modify and delete products
+    MANAGE_CUSTOMERS, // Register, modify and delete customers
+    MANAGE_SUPPLIERS, // Register, modify and delete suppliers
+    SELL; // Fill a cart and buy it
+
+    // Permissions of a role; an unknown role only sells
+    static Set<Permission> ofRole(String role) {
+        if ("Owner".equals(role) || "Administrator".equals(role)) {
+            return EnumSet.allOf(Permission.class);
+        }
+        return EnumSet.of(SELL); // Auxiliary
+    }
+}
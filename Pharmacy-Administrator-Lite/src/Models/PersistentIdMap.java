@@ -0,0 +1,207 @@
+package Models;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+
+// Immutable map from non-negative IDs to entities, as a trie of 32-wide nodes indexed by 5 bits of
+// the ID. A write copies the nodes on the path to its ID only, at most 7 of them, and shares the
+// rest with the previous version, so every version stays valid and a store can hand one out as a
+// point-in-time snapshot without copying anything. Entities are listed in ID order.
+final class PersistentIdMap<V> {
+
+    private static final int BITS = 5;
+    private static final int WIDTH = 1 << BITS;
+    private static final int MASK = WIDTH - 1;
+    private static final int MAX_DEPTH = 7; // Levels needed for 31-bit IDs
+
+    private static final PersistentIdMap<?> EMPTY = new PersistentIdMap<>(null, 0, 0);
+
+    private final Object[] root; // Null when empty
+    private final int shift; // Bits of the ID below the root level, a multiple of BITS
+    private final int size; // Number of entities
+
+    private PersistentIdMap(Object[] root, int shift, int size) {
+        this.root = root;
+        this.shift = shift;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <V> PersistentIdMap<V> empty() {
+        return (PersistentIdMap<V>) EMPTY;
+    }
+
+    int size() {
+        return size;
+    }
+
+    // Entity stored under the ID, null if there is none
+    @SuppressWarnings("unchecked")
+    V get(int id) {
+        if (root == null || id < 0 || (id >>> shift) >= WIDTH) {
+            return null;
+        }
+        Object[] node = root;
+        for (int level = shift; level > 0; level -= BITS) {
+            node = (Object[]) node[(id >>> level) & MASK];
+            if (node == null) {
+                return null;
+            }
+        }
+        return (V) node[id & MASK];
+    }
+
+    // This map with the entity stored under the ID
+    PersistentIdMap<V> with(int id, V value) {
+        Objects.requireNonNull(value);
+        if (id < 0) {
+            throw new IllegalArgumentException("Negative ID " + id);
+        }
+        Object[] top = root;
+        int topShift = shift;
+        while ((id >>> topShift) >= WIDTH) {
+            // Grow a level: the current trie becomes the first child of a new root
+            Object[] grown = new Object[WIDTH];
+            grown[0] = top;
+            top = grown;
+            topShift += BITS;
+        }
+        return new PersistentIdMap<>(put(top, topShift, id, value), topShift, get(id) == null ? size + 1 : size);
+    }
+
+    // This map without the entity stored under the ID
+    PersistentIdMap<V> without(int id) {
+        if (get(id) == null) {
+            return this;
+        }
+        if (size == 1) {
+            return empty();
+        }
+        return new PersistentIdMap<>(remove(root, shift, id), shift, size - 1);
+    }
+
+    private static Object[] put(Object[] node, int level, int id, Object value) {
+        Object[] copy = node == null ? new Object[WIDTH] : node.clone();
+        int slot = (id >>> level) & MASK;
+        copy[slot] = level == 0 ? value : put((Object[]) copy[slot], level - BITS, id, value);
+        return copy;
+    }
+
+    // Copy of the node without the ID, null once the node holds nothing
+    private static Object[] remove(Object[] node, int level, int id) {
+        int slot = (id >>> level) & MASK;
+        Object child = level == 0 ? null : remove((Object[]) node[slot], level - BITS, id);
+        Object[] copy = node.clone();
+        copy[slot] = child;
+        for (Object entry : copy) {
+            if (entry != null) {
+                return copy;
+            }
+        }
+        return null;
+    }
+
+    // Read-only Map over this version; get is a walk down the trie and iteration is in ID order
+    Map<Integer, V> asMap() {
+        return new View();
+    }
+
+    private final class View extends AbstractMap<Integer, V> {
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public V get(Object key) {
+            return key instanceof Integer id ? PersistentIdMap.this.get(id) : null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return get(key) != null;
+        }
+
+        @Override
+        public Set<Map.Entry<Integer, V>> entrySet() {
+            return new AbstractSet<>() {
+                @Override
+                public Iterator<Map.Entry<Integer, V>> iterator() {
+                    return new Walk();
+                }
+
+                @Override
+                public int size() {
+                    return size;
+                }
+            };
+        }
+    }
+
+    // Depth-first walk over the leaves, keeping the slot taken at each level
+    private final class Walk implements Iterator<Map.Entry<Integer, V>> {
+
+        private final Object[][] nodes = new Object[MAX_DEPTH][];
+        private final int[] slots = new int[MAX_DEPTH];
+        private int depth; // Level being walked, -1 once done
+        private Map.Entry<Integer, V> next;
+
+        private Walk() {
+            if (root == null) {
+                depth = -1;
+            } else {
+                nodes[0] = root;
+                slots[0] = -1;
+            }
+            advance();
+        }
+
+        @SuppressWarnings("unchecked")
+        private void advance() {
+            next = null;
+            while (depth >= 0) {
+                int slot = ++slots[depth];
+                if (slot == WIDTH) {
+                    depth--; // Node done, back to its parent
+                    continue;
+                }
+                Object child = nodes[depth][slot];
+                if (child == null) {
+                    continue;
+                }
+                if (depth * BITS == shift) {
+                    int id = 0;
+                    for (int level = 0; level <= depth; level++) {
+                        id |= slots[level] << (shift - level * BITS);
+                    }
+                    next = Map.entry(id, (V) child);
+                    return;
+                }
+                depth++;
+                nodes[depth] = (Object[]) child;
+                slots[depth] = -1;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Map.Entry<Integer, V> next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            Map.Entry<Integer, V> entry = next;
+            advance();
+            return entry;
+        }
+    }
+}
@@ -6,7 +6,7 @@ public class Product {
     private Integer productID; // Unique identifier for the product
     private String productName; // Name of the product
     private String productDescription; // Description of the product
-    private double productUnitPrice; // Unit price of the product
+    private long productUnitPrice; // Unit price of the product, in cents, see Money
     private Integer productQuantity; // Quantity of the product available
     private String productCategoryName; // Category name to which the product belongs
 
@@ -16,7 +16,7 @@ public class Product {
 
     // Parameterized constructor
     public Product(Integer productID, String productName, String productDescription,
-            double productUnitPrice, Integer productQuantity, String productCategoryName) {
+            long productUnitPrice, Integer productQuantity, String productCategoryName) {
         this.productID = productID;
         this.productName = productName;
         this.productDescription = productDescription;
@@ -55,13 +55,13 @@ public class Product {
         this.productDescription = productDescription;
     }
 
-    // Get the product unit price
-    public double getProductUnitPrice() {
+    // Get the product unit price, in cents
+    public long getProductUnitPrice() {
         return productUnitPrice;
     }
 
-    // Set the product unit price
-    public void setProductUnitPrice(double productUnitPrice) {
+    // Set the product unit price, in cents
+    public void setProductUnitPrice(long productUnitPrice) {
         this.productUnitPrice = productUnitPrice;
     }
 
@@ -1,20 +1,72 @@
 package Models;
 
-import java.util.HashMap;
+import Interfaces.Repository;
+import java.io.DataInput;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public class ProductActions {
 
-    // Map to store products with their IDs
-    private Map<Integer, Product> products = new HashMap<>();
-    private Integer productCount = 0; // Counter for product IDs
+    private static final int STOCK_STRIPES = 64; // Power of two, product IDs are spread by their low bits
+
+    // Repository storing products with their IDs
+    private final Repository<Product> products;
+    private Integer productCount; // Counter for product IDs
+    // Whether a snapshot applies: always on the heap, only while a file repository is still empty
+    private final boolean recovers;
+    // Product IDs by case-insensitive name, kept in step with the repository
+    private final NameIndex nameIndex = new NameIndex();
+    // Catalog changes take the write lock; reads and stock movements share the read lock
+    private final ReentrantReadWriteLock catalogLock = new ReentrantReadWriteLock();
+    private final Lock readLock = catalogLock.readLock();
+    private final Lock writeLock = catalogLock.writeLock();
+    // Stock movements of one product are serialised by its stripe, other products move in parallel
+    private final Object[] stockStripes = new Object[STOCK_STRIPES];
+    // Units held by open carts per product ID, changed under the stripe of the product
+    private final Map<Integer, Integer> held = new ConcurrentHashMap<>();
+    // Version stamp of each product, checked by updateProduct and bumped by every stock movement
+    private final Versions versions = new Versions();
+    // Every write of a product, stock and holds included, for the views listing products
+    private final ChangeBus<Product> changes = new ChangeBus<>();
+    // Immutable copy of the store replaced by every write, handed out by the listings in O(1). Stock
+    // movements of different stripes replace it at the same time, hence the compare-and-set.
+    private final AtomicReference<PersistentIdMap<Product>> snapshot = new AtomicReference<>(PersistentIdMap.empty());
 
     private static ProductActions instance; // Singleton instance
 
     // Private constructor to prevent instantiation
     private ProductActions() {
+        if (Storage.isFileBacked("product")) {
+            try {
+                // Fixed-width mapped records suit large catalogs better than the generic log file
+                products = new MappedProductStore(Storage.directory());
+            } catch (IOException ex) {
+                throw new UncheckedIOException("The product store could not be opened.", ex);
+            }
+        } else {
+            products = new MemoryRepository<>();
+        }
+        productCount = products.nextID();
+        recovers = !products.isDurable() || products.count() == 0;
+        products.scan(product -> {
+            nameIndex.add(product.getProductName(), product.getProductID());
+            snapshot.updateAndGet(map -> map.with(product.getProductID(), product));
+        });
+        for (int i = 0; i < STOCK_STRIPES; i++) {
+            stockStripes[i] = new Object();
+        }
     }
 
     // Singleton instance getter
@@ -27,31 +79,97 @@ public class ProductActions {
 
     // Create a new Product object
     private Product createProduct(Integer productID, String productName, String productDescription,
-            double productUnitPrice, Integer productQuantity, String productCategoryName) {
+            long productUnitPrice, Integer productQuantity, String productCategoryName) {
         return new Product(productID, productName, productDescription, productUnitPrice, productQuantity, productCategoryName);
     }
 
-    // List products, optionally filtering by name
+    // List products, optionally filtering by name. Listing them all, as a blank name or one without
+    // matches does, hands out the current snapshot in ID order, which later writes leave unchanged.
     public Map<Integer, Product> listProducts(String productName) {
-        if (productName.isBlank()) {
-            // Return all products if the name is blank
-            return products;
-        } else {
-            // Filter products by name
-            HashMap<Integer, Product> filteredProducts = new HashMap<>();
-            for (Product product : products.values()) {
-                if (product.getProductName().equalsIgnoreCase(productName)) {
-                    filteredProducts.put(product.getProductID(), product);
+        if (!productName.isBlank()) {
+            readLock.lock();
+            try {
+                Map<Integer, Product> listedProducts = new LinkedHashMap<>();
+                // Look the name up in the index instead of comparing every product
+                for (Integer productID : nameIndex.get(productName)) {
+                    listedProducts.put(productID, products.get(productID));
+                }
+                if (!listedProducts.isEmpty()) {
+                    return listedProducts;
                 }
+            } finally {
+                readLock.unlock();
             }
-            // Return filtered products or all products if no match is found
-            return filteredProducts.isEmpty() ? products : filteredProducts;
+        }
+        return snapshot.get().asMap(); // All products if the name is blank or no match is found
+    }
+
+    // List at most limit products whose name starts with the prefix, in name order; a blank prefix lists them all
+    public Map<Integer, Product> listProductsStartingWith(String prefix, int limit) {
+        if (prefix.isBlank()) {
+            return listProducts(prefix);
+        }
+        readLock.lock();
+        try {
+            Map<Integer, Product> listedProducts = new LinkedHashMap<>();
+            for (Integer productID : nameIndex.startingWith(prefix, limit)) {
+                listedProducts.put(productID, products.get(productID));
+            }
+            return listedProducts; // Empty when no name matches
+        } finally {
+            readLock.unlock();
         }
     }
 
     // Search for a product by ID
     public Product searchProductByID(Integer productID) {
-        return products.get(productID); // Retrieve product by ID
+        readLock.lock();
+        try {
+            return products.get(productID); // Retrieve product by ID
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    // Visit every product without copying the store; catalog changes wait until the visit ends
+    public void scanProducts(Consumer<? super Product> action) {
+        readLock.lock();
+        try {
+            products.scan(action);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    // Units of a product that can still be sold: its stock minus the units held by open carts
+    public int availableQuantity(Integer productID) {
+        readLock.lock();
+        try {
+            Product product = products.get(productID);
+            return product == null ? 0 : availableQuantity(product);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    // Available units of a product already read from the store
+    public int availableQuantity(Product product) {
+        return product.getProductQuantity() - heldQuantity(product.getProductID());
+    }
+
+    // Units of a product held by open carts; its stock is never set below them
+    public int heldQuantity(Integer productID) {
+        return held.getOrDefault(productID, 0);
+    }
+
+    // Number of products stored
+    public int countProducts() {
+        readLock.lock();
+        try {
+            return products.count();
+        } finally {
+            readLock.unlock();
+        }
     }
 
     // Validate and format name: capitalize the first letter, rest in lowercase
@@ -72,42 +190,360 @@ public class ProductActions {
         return matcher.matches(); // Return true if input is numeric
     }
 
-    // Check if the input string is a valid double
+    // Check if the input string is a valid price: units with at most two decimals, see Money.parse
     public boolean isDoubleString(String input) {
-        String numericRegex = "^[0-9]+(\\.[0-9]+)?$"; // Regular expression for double string
+        // Regular expression for a price, below the 10^13 units the files keep exactly, see Money
+        String numericRegex = "^[0-9]{1,13}(\\.[0-9]{1,2})?$";
         Pattern pattern = Pattern.compile(numericRegex);
         Matcher matcher = pattern.matcher(input);
         return matcher.matches(); // Return true if input is a valid double
     }
 
-    // Add a new product
-    public void addProduct(String productName, String productDescription, double productUnitPrice,
+    // Add a new product; returns once it is saved
+    public void addProduct(String productName, String productDescription, long productUnitPrice,
+            Integer productQuantity, String productCategoryName) {
+        writeLock.lock();
+        try {
+            insertProduct(productName, productDescription, productUnitPrice, productQuantity, productCategoryName);
+        } finally {
+            writeLock.unlock();
+        }
+        Journal.sync();
+    }
+
+    // Add a batch of products under one lock, each getting the next product ID
+    public void addProducts(List<Product> batch) {
+        writeLock.lock();
+        try {
+            for (Product imported : batch) {
+                insertProduct(imported.getProductName(), imported.getProductDescription(), imported.getProductUnitPrice(),
+                        imported.getProductQuantity(), imported.getProductCategoryName());
+            }
+        } finally {
+            writeLock.unlock();
+        }
+        Journal.sync(); // One wait for the whole batch
+    }
+
+    // Add a product under the write lock, without waiting for the journal
+    private void insertProduct(String productName, String productDescription, long productUnitPrice,
             Integer productQuantity, String productCategoryName) {
         Product product = createProduct(productCount, productName, productDescription,
                 productUnitPrice, productQuantity, productCategoryName);
-        products.put(productCount, product); // Add product to map
+        store(product); // Add product to the storage
         productCount++; // Increment product count
+        journalPut(product);
+    }
+
+    // Writes of products, published as they happen
+    public ChangeBus<Product> changes() {
+        return changes;
+    }
+
+    // Version stamp of a product; pass it back to updateProduct to detect changes made in the meantime
+    public long versionOf(Integer productID) {
+        return versions.of(productID);
     }
 
-    // Update an existing product
-    public boolean updateProduct(Integer productID, String productName, String productDescription,
-            double productUnitPrice, Integer productQuantity, String productCategoryName) {
-        if (products.containsKey(productID)) {
-            // Create and update product if ID exists
-            Product product = createProduct(productID, productName, productDescription,
-                    productUnitPrice, productQuantity, productCategoryName);
-            products.replace(productID, product); // Replace existing product
+    // Update an existing product if nobody changed it since version was read, a sale included, and
+    // the stock is not below the units held by open carts, see heldQuantity. An edit of the price or
+    // the stock only is swapped in under the stripe of the product; a change of the texts takes the
+    // catalog write lock for the name index and the string area.
+    public boolean updateProduct(Integer productID, long version, String productName, String productDescription,
+            long productUnitPrice, Integer productQuantity, String productCategoryName) {
+        boolean updated = replaceProduct(productID, version, productName, productDescription,
+                productUnitPrice, productQuantity, productCategoryName);
+        Journal.sync(); // Waited for outside the locks, so concurrent edits share the fsync
+        return updated;
+    }
+
+    private boolean replaceProduct(Integer productID, long version, String productName, String productDescription,
+            long productUnitPrice, Integer productQuantity, String productCategoryName) {
+        Product product = createProduct(productID, productName, productDescription,
+                productUnitPrice, productQuantity, productCategoryName);
+        readLock.lock();
+        try {
+            synchronized (stripe(productID)) {
+                Product current = products.get(productID);
+                if (current == null || !versions.matches(productID, version) || productQuantity < heldQuantity(productID)) {
+                    return false; // Return false if product ID does not exist, was changed meanwhile or is held
+                }
+                if (Objects.equals(current.getProductName(), productName)
+                        && Objects.equals(current.getProductDescription(), productDescription)
+                        && Objects.equals(current.getProductCategoryName(), productCategoryName)) {
+                    storeStock(product); // Replace existing product
+                    journalPut(product);
+                    return true;
+                }
+            }
+        } finally {
+            readLock.unlock();
+        }
+        writeLock.lock();
+        try {
+            if (products.get(productID) == null || !versions.matches(productID, version)
+                    || productQuantity < heldQuantity(productID)) {
+                return false; // Deleted, changed or held between the two locks
+            }
+            store(product); // Replace existing product
+            journalPut(product);
             return true;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // Update the stock of an existing product, refusing a stock below the units held by open carts
+    public boolean updateProductQuantity(Integer productID, Integer productQuantity) {
+        boolean updated = false; // False if product ID does not exist or the units are held
+        writeLock.lock();
+        try {
+            Product product = products.get(productID);
+            if (product != null && productQuantity >= heldQuantity(productID)) {
+                Product restocked = withQuantity(product, productQuantity);
+                store(restocked);
+                journalPut(restocked);
+                updated = true;
+            }
+        } finally {
+            writeLock.unlock();
+        }
+        Journal.sync();
+        return updated;
+    }
+
+    // Take quantity units out of the stock of a product, only if that many are available.
+    // The check and the decrement are one step, so two tills can never both sell the last unit.
+    public boolean decrementProductQuantity(Integer productID, int quantity) {
+        if (quantity <= 0) {
+            return false; // As the forms refuse it, a negative decrement would add stock
+        }
+        boolean moved = moveStock(productID, -quantity);
+        Journal.sync();
+        return moved;
+    }
+
+    // Put quantity units back into the stock of a product
+    public boolean incrementProductQuantity(Integer productID, int quantity) {
+        if (quantity <= 0) {
+            return false; // As the forms refuse it, a negative increment would take stock
+        }
+        boolean moved = moveStock(productID, quantity);
+        Journal.sync();
+        return moved;
+    }
+
+    // Add delta to the stock of a product unless it would take units held by carts. Movements share
+    // the read lock, so they never wait for each other unless they fall on the same stripe.
+    private boolean moveStock(Integer productID, int delta) {
+        readLock.lock();
+        try {
+            synchronized (stripe(productID)) {
+                Product product = products.get(productID);
+                if (product == null || availableQuantity(product) + (long) delta < 0
+                        || product.getProductQuantity() + (long) delta > Integer.MAX_VALUE) {
+                    return false; // Unknown product, not enough stock or too much of it
+                }
+                Product moved = withQuantity(product, product.getProductQuantity() + delta);
+                storeStock(moved);
+                journalPut(moved);
+                return true;
+            }
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    // Hold quantity units of a product for a cart, only if that many are available
+    boolean holdProductQuantity(Integer productID, int quantity) {
+        readLock.lock();
+        try {
+            synchronized (stripe(productID)) {
+                Product product = products.get(productID);
+                if (product == null || quantity <= 0 || availableQuantity(product) < quantity) {
+                    return false; // Unknown product, nothing to hold or not enough available
+                }
+                held.merge(productID, quantity, Integer::sum);
+                changes.updated(productID, product); // Fewer units available
+                return true;
+            }
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    // Give units held by a cart back to the available stock
+    void releaseProductQuantity(Integer productID, int quantity) {
+        readLock.lock();
+        try {
+            synchronized (stripe(productID)) {
+                unhold(productID, quantity);
+                Product product = products.get(productID);
+                if (product != null) {
+                    changes.updated(productID, product); // More units available
+                }
+            }
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    // Turn units held by a cart into a sale: they leave the holds and the stock together. The product
+    // with its new stock, or null when it was deleted, is handed to sold while the stripe is held, so
+    // the caller journals the sale in the same order as the other writes of the product.
+    void sellHeldProductQuantity(Integer productID, int quantity, Consumer<Product> sold) {
+        readLock.lock();
+        try {
+            synchronized (stripe(productID)) {
+                unhold(productID, quantity);
+                Product product = products.get(productID);
+                if (product != null) { // The product may have been deleted while in a cart
+                    Product remaining = withQuantity(product, product.getProductQuantity() - quantity);
+                    storeStock(remaining);
+                    sold.accept(remaining);
+                } else {
+                    sold.accept(null);
+                }
+            }
+        } finally {
+            readLock.unlock();
         }
-        return false; // Return false if product ID does not exist
+    }
+
+    // Copy of a product with another stock; stored products are never changed in place, so the
+    // snapshots handed out keep the stock they were taken with
+    private Product withQuantity(Product product, int quantity) {
+        return createProduct(product.getProductID(), product.getProductName(), product.getProductDescription(),
+                product.getProductUnitPrice(), quantity, product.getProductCategoryName());
+    }
+
+    // Replace a product keeping its name, under its stripe: the name index needs no update, so the
+    // read lock is enough
+    private void storeStock(Product product) {
+        products.put(product.getProductID(), product);
+        versions.bump(product.getProductID());
+        snapshot.updateAndGet(map -> map.with(product.getProductID(), product));
+        changes.updated(product.getProductID(), product);
+    }
+
+    private void unhold(Integer productID, int quantity) {
+        held.computeIfPresent(productID, (id, units) -> units > quantity ? units - quantity : null);
+    }
+
+    private Object stripe(Integer productID) {
+        return stockStripes[productID & (STOCK_STRIPES - 1)];
     }
 
     // Delete an existing product
     public boolean deleteProduct(Integer productID) {
-        if (products.containsKey(productID)) {
-            products.remove(productID); // Remove product by ID
-            return true;
+        boolean deleted = false; // False if product ID does not exist
+        writeLock.lock();
+        try {
+            Product product = products.get(productID);
+            if (product != null && products.remove(productID)) { // Remove product by ID
+                nameIndex.remove(product.getProductName(), productID);
+                versions.remove(productID);
+                snapshot.updateAndGet(map -> map.without(productID));
+                changes.removed(productID);
+                Journal.append(Journal.PRODUCT, Journal.REMOVE, out -> out.writeInt(productID));
+                deleted = true;
+            }
+        } finally {
+            writeLock.unlock();
+        }
+        Journal.sync();
+        return deleted;
+    }
+
+    // Put a product in the repository and keep the name index in step
+    private void store(Product product) {
+        Product previous = products.get(product.getProductID());
+        products.put(product.getProductID(), product);
+        nameIndex.replace(previous != null ? previous.getProductName() : null, product.getProductName(), product.getProductID());
+        versions.bump(product.getProductID());
+        snapshot.updateAndGet(map -> map.with(product.getProductID(), product));
+        if (previous == null) {
+            changes.added(product.getProductID(), product);
+        } else {
+            changes.updated(product.getProductID(), product);
+        }
+    }
+
+    // Record the current state of a product in the journal; a file-backed repository is only forced
+    // when the journal rotates, so its changes are journaled as well
+    private void journalPut(Product product) {
+        Journal.append(Journal.PRODUCT, Journal.PUT, out -> EntityCodec.writeProduct(out, product));
+    }
+
+    // Re-apply a journal record during startup recovery; the records are newer than a file-backed
+    // repository, which is forced whenever the journal rotates
+    void replay(byte operation, DataInput in) throws IOException {
+        writeLock.lock();
+        try {
+            if (operation == Journal.PUT) {
+                Product product = EntityCodec.readProduct(in);
+                store(product);
+                productCount = Math.max(productCount, product.getProductID() + 1); // Never reuse a journaled ID
+            } else if (operation == Journal.REMOVE) {
+                int productID = in.readInt();
+                Product product = products.get(productID);
+                if (product != null && products.remove(productID)) {
+                    nameIndex.remove(product.getProductName(), productID);
+                    versions.remove(productID);
+                    snapshot.updateAndGet(map -> map.without(productID));
+                    changes.removed(productID);
+                }
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // Copy the store for a snapshot, null when the repository persists the products itself
+    StoreImage<Product> capture() {
+        if (products.isDurable()) {
+            return null;
+        }
+        PersistentIdMap<Product> current;
+        int counter;
+        writeLock.lock(); // Holds the stock movements back so the image is one point in time
+        try {
+            current = snapshot.get(); // The copy itself runs after the lock, movements go on meanwhile
+            counter = productCount;
+        } finally {
+            writeLock.unlock();
+        }
+        return new StoreImage<>(new ArrayList<>(current.asMap().values()), counter);
+    }
+
+    // Replace the store with the content of a snapshot
+    void restore(StoreImage<Product> image) {
+        writeLock.lock();
+        try {
+            if (!recovers) {
+                productCount = Math.max(image.counter(), products.nextID());
+                return; // The file repository is newer than the snapshot
+            }
+            products.clear();
+            nameIndex.clear();
+            versions.clear();
+            snapshot.set(PersistentIdMap.empty());
+            for (Product product : image.entities()) {
+                store(product);
+            }
+            productCount = Math.max(image.counter(), products.nextID());
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // Flush the repository to disk
+    void force() {
+        writeLock.lock();
+        try {
+            products.flush();
+        } finally {
+            writeLock.unlock();
         }
-        return false; // Return false if product ID does not exist
     }
 }
@@ -8,7 +8,7 @@ public class Purchase {
     private String purchaseSupplier; // Supplier of the product (Combo Box)
     private Integer purchaseQuantityToBuy; // Quantity of the product to buy
     private String purchaseCustomer; // Customer associated with the purchase
-    private double purchasePrice; // Price of the product for this purchase
+    private long purchasePrice; // Price of the product for this purchase, in cents, see Money
     private String purchaseDateTime; // Date and time of the purchase
 
     // Default constructor
@@ -18,7 +18,7 @@ public class Purchase {
     // Parameterized constructor to initialize a Purchase object
     public Purchase(Integer purchaseID, Integer purchaseProductID, String purchaseProduct,
             String purchaseSupplier, Integer purchaseQuantityToBuy, String purchaseCustomer,
-            double purchasePrice, String purchaseDateTime) {
+            long purchasePrice, String purchaseDateTime) {
         this.purchaseID = purchaseID;
         this.purchaseProductID = purchaseProductID;
         this.purchaseProduct = purchaseProduct;
@@ -99,13 +99,13 @@ public class Purchase {
         this.purchaseCustomer = purchaseCustomer;
     }
 
-    // Get the price of the product for this purchase
-    public double getPurchasePrice() {
+    // Get the price of the product for this purchase, in cents
+    public long getPurchasePrice() {
         return purchasePrice;
     }
 
-    // Set the price of the product for this purchase
-    public void setPurchasePrice(double purchasePrice) {
+    // Set the price of the product for this purchase, in cents
+    public void setPurchasePrice(long purchasePrice) {
         this.purchasePrice = purchasePrice;
     }
 }
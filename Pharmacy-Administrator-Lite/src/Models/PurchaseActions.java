@@ -1,34 +1,64 @@
 package Models;
 
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
+import java.io.DataInput;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
-import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public class PurchaseActions {
 
-    // List to hold purchases that are currently in process
-    private ArrayList<Purchase> purchasesInProcess = new ArrayList<>();
+    // Cart used when no terminal is configured, and by purchases journaled before carts existed
+    public static final String DEFAULT_CART = "default";
+    // System property naming the cart of this terminal
+    public static final String TERMINAL_PROPERTY = "pharmacy.terminal";
+    // System property with the number of seconds a cart left untouched keeps its stock held
+    public static final String HOLD_TTL_PROPERTY = "pharmacy.hold.ttl";
 
-    // List to hold completed purchases
-    private ArrayList<Purchase> purchasesCompleted = new ArrayList<>();
+    // Time after the last addition to a cart at which the stock held by its lines is reclaimed
+    private final long holdTTLNanos = TimeUnit.SECONDS.toNanos(Long.getLong(HOLD_TTL_PROPERTY, 900L));
 
-    // Date format for purchase date and time
-    private DateFormat dateFormat = new SimpleDateFormat("dd/MM/yyyy");
+    // Open carts by terminal or session ID, each holding its own purchases in process
+    private final Map<String, Cart> carts = new ConcurrentHashMap<>();
 
-    // Current date to be used for purchases
-    private Date date = new Date();
+    // Columnar ledger holding completed purchases on disk
+    private final PurchaseLedger ledger;
 
-    // Counter for purchase IDs
-    private Integer purchaseCount = 0;
+    // Rollups of the completed purchases by day, added to as the ledger is; replaced by a rebuild
+    private volatile SalesRollup rollup;
+
+    // Serialises the completions of all carts while they take their ledger rows and journal their
+    // records, so both are in the same order; the wait for the disk is made outside it
+    private final Object completionLock = new Object();
+
+    // Date format for purchase date and time; immutable, so shared by every cart
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("dd/MM/yyyy");
+
+    // Counter for purchase IDs, shared by every cart
+    private final AtomicInteger purchaseCount = new AtomicInteger();
 
     // Singleton instance of PurchaseActions
     private static PurchaseActions instance;
 
     // Private constructor to prevent instantiation
     private PurchaseActions() {
+        try {
+            ledger = new PurchaseLedger(Storage.directory().resolve("ledger"));
+        } catch (IOException ex) {
+            throw new UncheckedIOException("The purchase ledger could not be opened.", ex);
+        }
+        purchaseCount.set(ledger.lastPurchaseID() + 1);
+        rollup = SalesRollup.rebuild(ledger);
+        Journal.forceBefore(ledger::force); // No SALE record reaches the disk before its ledger row
     }
 
     // Singleton instance getter
@@ -39,14 +69,52 @@ public class PurchaseActions {
         return instance;
     }
 
-    // List all purchases that are currently in process
-    public ArrayList<Purchase> listPurchasesInProcess() {
-        return purchasesInProcess;
+    // ID of the cart used by this terminal
+    public static String terminalCartID() {
+        return System.getProperty(TERMINAL_PROPERTY, DEFAULT_CART);
+    }
+
+    // Cart of a terminal or session, opened on first use
+    private Cart cart(String cartID) {
+        return carts.computeIfAbsent(cartID, Cart::new);
+    }
+
+    // List the purchases in process of a cart
+    public ArrayList<Purchase> listPurchasesInProcess(String cartID) {
+        return cart(cartID).list();
+    }
+
+    // Total price in cents of the purchases in process of a cart, kept by the cart as lines come and go
+    public long totalInProcess(String cartID) {
+        return cart(cartID).total();
+    }
+
+    // Number of completed purchases
+    public long countPurchasesCompleted() {
+        return ledger.size();
+    }
+
+    // Visit every completed purchase, reading the ledger columns
+    public void scanPurchasesCompleted(PurchaseLedger.RowVisitor visitor) {
+        ledger.scan(visitor);
+    }
+
+    // Total price in cents of all completed purchases, kept by the ledger as purchases are completed
+    public long calculateGains() {
+        return ledger.sumPrices();
+    }
+
+    // Count, units and revenue of the completed purchases of a product, customer or supplier
+    // from one epoch day to another, read from the rollups instead of the ledger
+    public SalesRollup.Totals salesTotals(SalesRollup.Dimension dimension, int id, int fromDay, int toDay) {
+        return rollup.totals(dimension, id, fromDay, toDay);
     }
 
-    // List all completed purchases
-    public ArrayList<Purchase> listPurchasesCompleted() {
-        return purchasesCompleted;
+    // Roll up the completed purchases again from the ledger, in parallel; completions wait for it
+    public void rebuildSalesRollup() {
+        synchronized (completionLock) {
+            rollup = SalesRollup.rebuild(ledger);
+        }
     }
 
     // Check if the input string is numeric
@@ -60,43 +128,238 @@ public class PurchaseActions {
     // Create a new Purchase object
     private Purchase createPurchase(Integer purchaseID, Integer purchaseProductID, String purchaseProduct,
             String purchaseSupplier, Integer purchaseQuantityToBuy,
-            String purchaseCustomer, double purchasePrice, String purchaseDateTime) {
+            String purchaseCustomer, long purchasePrice, String purchaseDateTime) {
         return new Purchase(purchaseID, purchaseProductID, purchaseProduct, purchaseSupplier, purchaseQuantityToBuy, purchaseCustomer, purchasePrice, purchaseDateTime);
     }
 
-    // Add a new purchase to the list of purchases in process
-    public void addPurchase(Integer purchaseProductID, String purchaseProduct,
+    // Add a new purchase to the purchases in process of a cart, holding its units of stock.
+    // Returns false when the product no longer has that many units available, once saved otherwise.
+    public boolean addPurchase(String cartID, Integer purchaseProductID, String purchaseProduct,
             String purchaseSupplier, Integer purchaseQuantityToBuy,
-            String purchaseCustomer, double purchasePrice) {
-        // Create a new Purchase object with the provided details and current date
-        Purchase purchase = createPurchase(purchaseCount, purchaseProductID, purchaseProduct, purchaseSupplier, purchaseQuantityToBuy, purchaseCustomer, purchasePrice, dateFormat.format(date));
-        // Add the new purchase to the list of purchases in process
-        purchasesInProcess.add(purchase);
-        // Increment the purchase count
-        purchaseCount++;
-    }
-
-    // Finalize the purchase, moving all purchases in process to completed
-    public ArrayList<Purchase> finaliseBuy() {
-        if (!purchasesInProcess.isEmpty()) {
-            // Move all purchases in process to the list of completed purchases
-            purchasesCompleted.addAll(purchasesInProcess);
-            // Clear the list of purchases in process
-            purchasesInProcess.clear();
-            return purchasesCompleted; // Return the list of completed purchases
-        }
-        return null; // Return null if there are no purchases in process
-    }
-
-    // Delete a purchase in process by its ID
-    public boolean deletePurchaseInProcess(Integer purchaseID) {
-        for (int i = 0; i < purchasesInProcess.size(); i++) {
-            if (purchasesInProcess.get(i).getPurchaseID().equals(purchaseID)) {
-                // Remove the purchase from the list if the ID matches
-                purchasesInProcess.remove(i);
+            String purchaseCustomer, long purchasePrice) {
+        Cart cart = cart(cartID);
+        return Journal.commit(cart, () -> {
+            if (!ProductActions.getInstance().holdProductQuantity(purchaseProductID, purchaseQuantityToBuy)) {
+                return false;
+            }
+            // Create a new Purchase object with the provided details and current date
+            Purchase purchase = createPurchase(purchaseCount.getAndIncrement(), purchaseProductID, purchaseProduct, purchaseSupplier,
+                    purchaseQuantityToBuy, purchaseCustomer, purchasePrice, LocalDate.now().format(DATE_FORMAT));
+            // Add the new purchase to the purchases in process of the cart
+            cart.add(purchase);
+            cart.renew(holdTTLNanos); // The holds of the whole cart last while it is in use
+            Journal.append(Journal.PURCHASE, Journal.PUT_IN_CART,
+                    out -> EntityCodec.writeCartLine(out, new Cart.Line(cartID, purchase)));
+            return true;
+        });
+    }
+
+    // Finalize the purchase of a cart, moving its purchases in process to the ledger
+    public ArrayList<Purchase> finaliseBuy(String cartID) {
+        Cart cart = cart(cartID);
+        ArrayList<Purchase> purchasesCompleted;
+        synchronized (cart) {
+            if (cart.isEmpty()) {
+                return null; // Return null if there are no purchases in process
+            }
+            purchasesCompleted = cart.list();
+            synchronized (completionLock) {
+                try {
+                    // Forced by the journal before any SALE record; recovery completes the rows found at its tail
+                    ledger.append(purchasesCompleted, rollup::add);
+                } catch (IOException ex) {
+                    throw new UncheckedIOException("The completed purchases could not be written.", ex);
+                }
+                // The held units become sales and leave the stock, journaled in the order of the ledger rows
+                sell(purchasesCompleted);
+            }
+            // Clear the purchases in process of the cart
+            cart.clear();
+        }
+        // Waited for outside the locks, so the checkouts of other carts share the force of the ledger and the fsync
+        Journal.sync();
+        return purchasesCompleted; // Return the purchases just completed
+    }
+
+    // Take the units of completed purchases out of the stock, journaling each one as it is sold
+    private void sell(List<Purchase> purchases) {
+        for (Purchase purchase : purchases) {
+            ProductActions.getInstance().sellHeldProductQuantity(purchase.getPurchaseProductID(),
+                    purchase.getPurchaseQuantityToBuy(), sold -> journalSale(purchase, sold));
+        }
+    }
+
+    // Journal a completed purchase with the stock it left in one record, so a crash can never keep
+    // one half of the sale without the other. Appended under the stripe of the product, so an edit
+    // of the product made meanwhile is replayed in the order it was made and never overwritten.
+    private void journalSale(Purchase purchase, Product sold) {
+        Journal.append(Journal.PURCHASE, Journal.SALE, out -> {
+            out.writeInt(1);
+            out.writeInt(purchase.getPurchaseID());
+            out.writeInt(sold == null ? 0 : 1); // None when the product was deleted while in the cart
+            if (sold != null) {
+                EntityCodec.writeProduct(out, sold);
+            }
+        });
+    }
+
+    // Delete a purchase in process of a cart by its ID, giving its held units back
+    public boolean deletePurchaseInProcess(String cartID, Integer purchaseID) {
+        Cart cart = cart(cartID);
+        return Journal.commit(cart, () -> {
+            Purchase purchase = cart.remove(purchaseID);
+            if (purchase != null) {
+                release(purchase);
                 return true; // Return true if the purchase was removed
             }
+            return false; // Return false if no matching purchase was found
+        });
+    }
+
+    // Return the units of a purchase removed from its cart and journal the removal
+    private void release(Purchase purchase) {
+        ProductActions.getInstance().releaseProductQuantity(purchase.getPurchaseProductID(), purchase.getPurchaseQuantityToBuy());
+        Journal.append(Journal.PURCHASE, Journal.REMOVE, out -> out.writeInt(purchase.getPurchaseID()));
+    }
+
+    // Empty the carts left untouched past their expiry, one cart per batch, and return the units
+    // they held. Run periodically by the storage scheduler; returns the number of lines reclaimed.
+    public int reclaimExpiredHolds() {
+        int reclaimed = 0;
+        for (Cart cart : carts.values()) {
+            synchronized (cart) {
+                // Checked under the cart lock, so a cashier adding a line right now keeps the cart
+                if (!cart.isExpired(System.nanoTime())) {
+                    continue;
+                }
+                for (Purchase purchase : cart.list()) {
+                    cart.remove(purchase.getPurchaseID());
+                    release(purchase);
+                    reclaimed++;
+                }
+            }
+        }
+        Journal.sync();
+        return reclaimed;
+    }
+
+    // Hold the stock of the purchases in process recovered at startup, each cart getting a full
+    // TTL again. Lines whose units are no longer available are dropped from their cart.
+    void holdInProcess() {
+        for (Cart cart : carts.values()) {
+            synchronized (cart) {
+                for (Purchase purchase : cart.list()) {
+                    if (!ProductActions.getInstance().holdProductQuantity(purchase.getPurchaseProductID(),
+                            purchase.getPurchaseQuantityToBuy())) {
+                        cart.remove(purchase.getPurchaseID());
+                        Journal.append(Journal.PURCHASE, Journal.REMOVE, out -> out.writeInt(purchase.getPurchaseID()));
+                    }
+                }
+                cart.renew(holdTTLNanos);
+            }
+        }
+    }
+
+    // Re-apply a journal record during startup recovery
+    synchronized void replay(byte operation, DataInput in) throws IOException {
+        if (operation == Journal.PUT || operation == Journal.PUT_IN_CART) {
+            // Records written before carts existed belong to the default cart
+            Cart.Line line = operation == Journal.PUT ? new Cart.Line(DEFAULT_CART, EntityCodec.readPurchase(in))
+                    : EntityCodec.readCartLine(in);
+            int purchaseID = line.purchase().getPurchaseID();
+            purchaseCount.accumulateAndGet(purchaseID + 1, Math::max); // Never reuse a journaled ID
+            deleteInProcessOnly(purchaseID); // Keep the replay idempotent
+            cart(line.cartID()).add(line.purchase());
+        } else if (operation == Journal.REMOVE) {
+            deleteInProcessOnly(in.readInt());
+        } else if (operation == Journal.FINALISE || operation == Journal.SALE) {
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                deleteInProcessOnly(in.readInt()); // The ledger already holds them
+            }
+            if (operation == Journal.SALE) {
+                // The products after the sale, as whole records; FINALISE records were followed by their own
+                int products = in.readInt();
+                for (int i = 0; i < products; i++) {
+                    ProductActions.getInstance().replay(Journal.PUT, in);
+                }
+            }
+        }
+    }
+
+    // Remove a purchase in process from whichever cart holds it, without journaling it
+    private Purchase deleteInProcessOnly(Integer purchaseID) {
+        for (Cart cart : carts.values()) {
+            Purchase purchase = cart.remove(purchaseID);
+            if (purchase != null) {
+                return purchase;
+            }
+        }
+        return null;
+    }
+
+    // Complete the recovered purchases in process that the ledger already holds. A crash between
+    // the ledger append and the commit of its SALE records leaves the lines whose record was lost at
+    // the tail of the ledger, in the order of their records, and they cannot be more than the
+    // purchases still in process. The stock each one left went with its lost record, so it is taken
+    // out again; nothing is held yet at startup.
+    synchronized void reconcileWithLedger() {
+        int inProcess = 0;
+        for (Cart cart : carts.values()) {
+            inProcess += cart.size();
+        }
+        if (inProcess == 0) {
+            return;
+        }
+        Set<Integer> completed = ledger.tailPurchaseIDs(inProcess);
+        List<Purchase> reconciled = new ArrayList<>();
+        for (Cart cart : carts.values()) {
+            for (Purchase purchase : cart.list()) {
+                if (completed.contains(purchase.getPurchaseID())) {
+                    cart.remove(purchase.getPurchaseID());
+                    reconciled.add(purchase);
+                }
+            }
+        }
+        if (!reconciled.isEmpty()) {
+            sell(reconciled);
+            Journal.sync();
+        }
+    }
+
+    // Copy the purchases in process of every cart for a snapshot
+    StoreImage<Cart.Line> captureInProcess() {
+        List<Cart.Line> lines = new ArrayList<>();
+        for (Cart cart : carts.values()) {
+            for (Purchase purchase : cart.list()) {
+                lines.add(new Cart.Line(cart.cartID(), purchase));
+            }
+        }
+        return new StoreImage<>(lines, purchaseCount.get());
+    }
+
+    // Replace the purchases in process with the content of a snapshot
+    synchronized void restore(StoreImage<Cart.Line> inProcess) {
+        carts.values().forEach(Cart::clear);
+        for (Cart.Line line : inProcess.entities()) {
+            cart(line.cartID()).add(line.purchase());
+        }
+        purchaseCount.set(Math.max(inProcess.counter(), ledger.lastPurchaseID() + 1));
+    }
+
+    // Move completed purchases of a snapshot written before the ledger existed
+    synchronized void importCompleted(List<Purchase> purchases) throws IOException {
+        List<Purchase> missing = new ArrayList<>();
+        for (Purchase purchase : purchases) {
+            if (purchase.getPurchaseID() > ledger.lastPurchaseID()) {
+                missing.add(purchase);
+            }
+        }
+        if (!missing.isEmpty()) {
+            synchronized (completionLock) {
+                ledger.append(missing, rollup::add);
+            }
+            ledger.force(); // Loaded before the journal opens, which would force it otherwise
         }
-        return false; // Return false if no matching purchase was found
     }
 }
@@ -0,0 +1,226 @@
+package Models;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Columnar ledger of completed purchases. Rows are appended to fixed-size
+ * segment files; inside a segment every column is stored contiguously, so a
+ * report or a total reads one column sequentially instead of walking
+ * Purchase objects.
+ *
+ * Segment layout: [magic][row count] followed by one region per column, each
+ * sized for SEGMENT_ROWS values. Rows below the row count never change, so
+ * readers only need the count published after the values.
+ */
+public final class PurchaseLedger {
+
+    // Receives the columns of one completed purchase, its price in cents
+    @FunctionalInterface
+    public interface RowVisitor {
+
+        void visit(int purchaseID, int productID, int quantity, long price,
+                int epochDay, int customerID, int supplierID);
+    }
+
+    private static final int MAGIC = 0x50484D4C; // "PHML"
+    private static final int HEADER_BYTES = 8;
+    private static final int SEGMENT_ROWS = 1 << 16;
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("dd/MM/yyyy");
+
+    // Start of each column region inside a segment
+    private static final int PURCHASE_ID = HEADER_BYTES;
+    private static final int PRODUCT_ID = PURCHASE_ID + 4 * SEGMENT_ROWS;
+    private static final int QUANTITY = PRODUCT_ID + 4 * SEGMENT_ROWS;
+    private static final int PRICE = QUANTITY + 4 * SEGMENT_ROWS;
+    private static final int EPOCH_DAY = PRICE + 8 * SEGMENT_ROWS;
+    private static final int CUSTOMER_ID = EPOCH_DAY + 4 * SEGMENT_ROWS;
+    private static final int SUPPLIER_ID = CUSTOMER_ID + 4 * SEGMENT_ROWS;
+    private static final int SEGMENT_BYTES = SUPPLIER_ID + 4 * SEGMENT_ROWS;
+
+    private final Path directory;
+    private final List<MappedByteBuffer> segments = new CopyOnWriteArrayList<>(); // Oldest first
+    private final List<MappedByteBuffer> unforced = new ArrayList<>(); // Segments appended to since the last force
+    private final Object forceLock = new Object(); // Held while forcing, so a force returns only once the rows are on disk
+    private int lastPurchaseID = -1; // Highest purchase ID in the ledger
+    private long rows = 0; // Number of rows in every segment
+    private long priceTotal = 0L; // Sum of the price column in cents, kept as rows are appended
+
+    PurchaseLedger(Path directory) throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory);
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "ledger-*.seg")) {
+            stream.forEach(files::add);
+        }
+        Collections.sort(files); // Names are zero padded
+        for (Path file : files) {
+            MappedByteBuffer segment = map(file);
+            if (segment.getInt(0) == 0 && segment.getInt(4) == 0 && file.equals(files.get(files.size() - 1))) {
+                // Created by a crash before its header reached the disk; no row was published in it
+                initialise(segment);
+            } else if (segment.getInt(0) != MAGIC) {
+                throw new IOException("Unrecognized ledger segment " + file);
+            }
+            segments.add(segment);
+            int count = segment.getInt(4);
+            rows += count;
+            // Carts complete their purchases in any order, so the highest ID can be in any row
+            for (int row = 0; row < count; row++) {
+                lastPurchaseID = Math.max(lastPurchaseID, segment.getInt(PURCHASE_ID + 4 * row));
+                priceTotal += Money.ofDouble(segment.getDouble(PRICE + 8 * row));
+            }
+        }
+    }
+
+    // Highest purchase ID already in the ledger, -1 when empty
+    synchronized int lastPurchaseID() {
+        return lastPurchaseID;
+    }
+
+    // Number of completed purchases
+    synchronized long size() {
+        return rows;
+    }
+
+    // Purchase IDs of the last count rows appended
+    synchronized Set<Integer> tailPurchaseIDs(int count) {
+        Set<Integer> purchaseIDs = new HashSet<>();
+        for (int i = segments.size() - 1; i >= 0 && purchaseIDs.size() < count; i--) {
+            MappedByteBuffer segment = segments.get(i);
+            for (int row = segment.getInt(4) - 1; row >= 0 && purchaseIDs.size() < count; row--) {
+                purchaseIDs.add(segment.getInt(PURCHASE_ID + 4 * row));
+            }
+        }
+        return purchaseIDs;
+    }
+
+    // Append completed purchases, handing the columns of each row to appended. The rows reach the
+    // disk with the next force, which the journal runs before writing the records of their sale.
+    synchronized void append(List<Purchase> purchases, RowVisitor appended) throws IOException {
+        for (Purchase purchase : purchases) {
+            MappedByteBuffer segment = writableSegment();
+            int row = segment.getInt(4);
+            segment.putInt(PURCHASE_ID + 4 * row, purchase.getPurchaseID());
+            segment.putInt(PRODUCT_ID + 4 * row, purchase.getPurchaseProductID());
+            segment.putInt(QUANTITY + 4 * row, purchase.getPurchaseQuantityToBuy());
+            segment.putDouble(PRICE + 8 * row, Money.toDouble(purchase.getPurchasePrice())); // In units, as the column always held
+            int epochDay = epochDay(purchase.getPurchaseDateTime());
+            int customerID = EntityCodec.labelID(purchase.getPurchaseCustomer());
+            int supplierID = EntityCodec.labelID(purchase.getPurchaseSupplier());
+            segment.putInt(EPOCH_DAY + 4 * row, epochDay);
+            segment.putInt(CUSTOMER_ID + 4 * row, customerID);
+            segment.putInt(SUPPLIER_ID + 4 * row, supplierID);
+            segment.putInt(4, row + 1); // Publish the row after its values
+            rows++;
+            priceTotal += purchase.getPurchasePrice();
+            appended.visit(purchase.getPurchaseID(), purchase.getPurchaseProductID(), purchase.getPurchaseQuantityToBuy(),
+                    purchase.getPurchasePrice(), epochDay, customerID, supplierID);
+            lastPurchaseID = Math.max(lastPurchaseID, purchase.getPurchaseID());
+            if (!unforced.contains(segment)) {
+                unforced.add(segment);
+            }
+        }
+    }
+
+    // Force the rows appended so far to disk. Appends go on meanwhile, so one force covers the
+    // completions of every cart since the last one.
+    void force() {
+        synchronized (forceLock) {
+            List<MappedByteBuffer> touched;
+            synchronized (this) {
+                touched = new ArrayList<>(unforced);
+                unforced.clear();
+            }
+            for (MappedByteBuffer segment : touched) {
+                segment.force();
+            }
+        }
+    }
+
+    // Sum of the price column in cents, summed once when the ledger is opened and then per appended row
+    synchronized long sumPrices() {
+        return priceTotal;
+    }
+
+    // Visit every row in the order the purchases were completed
+    void scan(RowVisitor visitor) {
+        for (int i = 0; i < segments.size(); i++) {
+            scanSegment(i, visitor);
+        }
+    }
+
+    // Number of segment files, each holding up to SEGMENT_ROWS rows
+    int segmentCount() {
+        return segments.size();
+    }
+
+    // Visit the rows of one segment in the order they were appended; threads may scan segments at
+    // the same time, the reads are absolute and the rows below the published count never change
+    void scanSegment(int index, RowVisitor visitor) {
+        MappedByteBuffer segment = segments.get(index);
+        int count = segment.getInt(4);
+        for (int row = 0; row < count; row++) {
+            visitor.visit(segment.getInt(PURCHASE_ID + 4 * row), segment.getInt(PRODUCT_ID + 4 * row),
+                    segment.getInt(QUANTITY + 4 * row), Money.ofDouble(segment.getDouble(PRICE + 8 * row)),
+                    segment.getInt(EPOCH_DAY + 4 * row), segment.getInt(CUSTOMER_ID + 4 * row),
+                    segment.getInt(SUPPLIER_ID + 4 * row));
+        }
+    }
+
+    // Format an epoch day as the purchase dates are displayed
+    public static String formatDay(int epochDay) {
+        return LocalDate.ofEpochDay(epochDay).format(DATE_FORMAT);
+    }
+
+    private static int epochDay(String purchaseDateTime) {
+        try {
+            return (int) LocalDate.parse(purchaseDateTime, DATE_FORMAT).toEpochDay();
+        } catch (DateTimeParseException | NullPointerException ex) {
+            return (int) LocalDate.now().toEpochDay();
+        }
+    }
+
+    // Segment with room for one more row, creating a new one when the last is full
+    private MappedByteBuffer writableSegment() throws IOException {
+        if (!segments.isEmpty()) {
+            MappedByteBuffer last = segments.get(segments.size() - 1);
+            if (last.getInt(4) < SEGMENT_ROWS) {
+                return last;
+            }
+        }
+        Path file = directory.resolve(String.format("ledger-%06d.seg", segments.size()));
+        MappedByteBuffer segment = map(file);
+        initialise(segment);
+        segments.add(segment);
+        return segment;
+    }
+
+    // Write the header of an empty segment and force it, so the segment is recognised after a crash
+    private static void initialise(MappedByteBuffer segment) {
+        segment.putInt(0, MAGIC);
+        segment.putInt(4, 0);
+        segment.force(0, HEADER_BYTES);
+    }
+
+    private static MappedByteBuffer map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_BYTES);
+        }
+    }
+}
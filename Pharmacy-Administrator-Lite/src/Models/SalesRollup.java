@@ -0,0 +1,222 @@
+package Models;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Rollups of the completed purchases by day: the number of purchases, the
+ * units sold and the revenue per day and product, per day and customer and
+ * per day and supplier. Every batch finaliseBuy appends to the ledger is added
+ * as it is written, so a figure over a range of days, such as the revenue of
+ * a product over the last 30 days, is one lookup per day instead of a scan of
+ * every completed purchase.
+ *
+ * The rollups hold nothing the ledger does not, so they are rebuilt from it
+ * when the purchases are opened: every ledger segment is rolled up by its own
+ * thread and the partial rollups are merged.
+ */
+public final class SalesRollup {
+
+    // What the purchases are rolled up by, besides the day
+    public enum Dimension {
+        PRODUCT, CUSTOMER, SUPPLIER
+    }
+
+    /**
+     * Figures of the purchases of a key over some days.
+     *
+     * @param count Number of purchases
+     * @param quantity Units sold
+     * @param revenue Sum of the purchase prices, in cents, see Money
+     */
+    public record Totals(long count, long quantity, long revenue) {
+
+        public static final Totals NONE = new Totals(0, 0, 0);
+    }
+
+    private final Cells[] cells = new Cells[Dimension.values().length]; // By dimension, guarded by this
+
+    SalesRollup() {
+        for (int i = 0; i < cells.length; i++) {
+            cells[i] = new Cells();
+        }
+    }
+
+    /**
+     * Roll up the completed purchases of the ledger, one segment per thread.
+     *
+     * @param ledger Ledger of the completed purchases
+     * @return The rollups of every purchase in it
+     */
+    static SalesRollup rebuild(PurchaseLedger ledger) {
+        int segmentCount = ledger.segmentCount();
+        SalesRollup rollup = new SalesRollup();
+        if (segmentCount == 0) {
+            return rollup;
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(segmentCount, Runtime.getRuntime().availableProcessors())));
+        try {
+            List<CompletableFuture<SalesRollup>> futures = new ArrayList<>();
+            for (int i = 0; i < segmentCount; i++) {
+                int segment = i;
+                futures.add(CompletableFuture.supplyAsync(() -> {
+                    SalesRollup partial = new SalesRollup();
+                    ledger.scanSegment(segment, partial::add);
+                    return partial;
+                }, pool));
+            }
+            for (CompletableFuture<SalesRollup> future : futures) {
+                rollup.merge(future.join());
+            }
+        } catch (CompletionException ex) {
+            throw new IllegalStateException("The sales rollups could not be rebuilt.", ex.getCause());
+        } finally {
+            pool.shutdown();
+        }
+        return rollup;
+    }
+
+    // Add one completed purchase, with the columns the ledger holds for it
+    synchronized void add(int purchaseID, int productID, int quantity, long price,
+            int epochDay, int customerID, int supplierID) {
+        cells[Dimension.PRODUCT.ordinal()].add(key(epochDay, productID), 1, quantity, price);
+        cells[Dimension.CUSTOMER.ordinal()].add(key(epochDay, customerID), 1, quantity, price);
+        cells[Dimension.SUPPLIER.ordinal()].add(key(epochDay, supplierID), 1, quantity, price);
+    }
+
+    // Add every figure of another rollup to this one
+    private synchronized void merge(SalesRollup other) {
+        synchronized (other) {
+            for (int i = 0; i < cells.length; i++) {
+                cells[i].addAll(other.cells[i]);
+            }
+        }
+    }
+
+    /**
+     * Figures of the purchases of a product, customer or supplier over a range
+     * of days.
+     *
+     * @param dimension What the ID is the ID of
+     * @param id ID of the product, customer or supplier, -1 for the purchases
+     * without one
+     * @param fromDay First day, as an epoch day, Integer.MIN_VALUE for no bound
+     * @param toDay Last day included, as an epoch day, Integer.MAX_VALUE for no
+     * bound
+     * @return The figures, Totals.NONE when it has no purchase on those days
+     */
+    public synchronized Totals totals(Dimension dimension, int id, int fromDay, int toDay) {
+        Cells dimensionCells = cells[dimension.ordinal()];
+        long count = 0;
+        long quantity = 0;
+        long revenue = 0;
+        // Only the days with purchases are looked up, so an open range costs no more than they span
+        int lastDay = Math.min(toDay, dimensionCells.maxDay);
+        for (long day = Math.max(fromDay, dimensionCells.minDay); day <= lastDay; day++) {
+            int slot = dimensionCells.find(key((int) day, id));
+            if (slot >= 0) {
+                count += dimensionCells.counts[slot];
+                quantity += dimensionCells.quantities[slot];
+                revenue += dimensionCells.revenues[slot];
+            }
+        }
+        return count == 0 ? Totals.NONE : new Totals(count, quantity, revenue);
+    }
+
+    // Day in the high half, ID in the low half
+    private static long key(int epochDay, int id) {
+        return (long) epochDay << 32 | (id & 0xFFFFFFFFL);
+    }
+
+    // Figures by key, in an open addressing table of parallel arrays: adding a purchase to a key
+    // already present creates no object
+    private static final class Cells {
+
+        private static final long EMPTY = Long.MIN_VALUE; // Day -2^31 and ID 0, never a real key
+
+        private long[] keys;
+        private long[] counts;
+        private long[] quantities;
+        private long[] revenues;
+        private int size;
+        private int minDay = Integer.MAX_VALUE; // First and last day of the keys, none while empty
+        private int maxDay = Integer.MIN_VALUE;
+
+        private Cells() {
+            allocate(64);
+        }
+
+        private void allocate(int capacity) {
+            keys = new long[capacity];
+            Arrays.fill(keys, EMPTY);
+            counts = new long[capacity];
+            quantities = new long[capacity];
+            revenues = new long[capacity];
+        }
+
+        // Slot of the key, -1 when absent
+        private int find(long key) {
+            int mask = keys.length - 1;
+            for (int slot = hash(key) & mask; ; slot = (slot + 1) & mask) {
+                if (keys[slot] == key) {
+                    return slot;
+                } else if (keys[slot] == EMPTY) {
+                    return -1;
+                }
+            }
+        }
+
+        private void add(long key, long count, long quantity, long revenue) {
+            if (2 * (size + 1) > keys.length) {
+                grow(); // Kept at most half full, so probes stay short
+            }
+            int mask = keys.length - 1;
+            int slot = hash(key) & mask;
+            while (keys[slot] != key && keys[slot] != EMPTY) {
+                slot = (slot + 1) & mask;
+            }
+            if (keys[slot] == EMPTY) {
+                keys[slot] = key;
+                size++;
+                minDay = Math.min(minDay, (int) (key >> 32));
+                maxDay = Math.max(maxDay, (int) (key >> 32));
+            }
+            counts[slot] += count;
+            quantities[slot] += quantity;
+            revenues[slot] += revenue;
+        }
+
+        private void addAll(Cells other) {
+            for (int slot = 0; slot < other.keys.length; slot++) {
+                if (other.keys[slot] != EMPTY) {
+                    add(other.keys[slot], other.counts[slot], other.quantities[slot], other.revenues[slot]);
+                }
+            }
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            long[] oldCounts = counts;
+            long[] oldQuantities = quantities;
+            long[] oldRevenues = revenues;
+            allocate(oldKeys.length * 2);
+            size = 0;
+            for (int slot = 0; slot < oldKeys.length; slot++) {
+                if (oldKeys[slot] != EMPTY) {
+                    add(oldKeys[slot], oldCounts[slot], oldQuantities[slot], oldRevenues[slot]);
+                }
+            }
+        }
+
+        private static int hash(long key) {
+            long mixed = key * 0x9E3779B97F4A7C15L; // Spreads consecutive days and IDs over the table
+            return (int) (mixed ^ mixed >>> 32);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package Models;
+
+import java.util.Set;
+
+/**
+ * Login of one employee. The views opened by a login receive its session
+ * instead of reading a process-wide current employee, so one process can
+ * serve several employees at once.
+ *
+ * The permissions of the role are worked out at login, which makes a check a
+ * bit test on an EnumSet. EmployeeActions refreshes them when the employee is
+ * modified and closes the session when the employee is deleted.
+ */
+public final class Session {
+
+    private final String sessionID; // Random ID naming the session
+    private final int employeeID; // Employee logged in
+    private volatile Employee employee; // Latest state of the employee
+    private volatile Set<Permission> permissions; // Permissions of the current role
+    private volatile boolean open = true; // False after logout or once the employee is deleted
+
+    Session(String sessionID, Employee employee) {
+        this.sessionID = sessionID;
+        this.employeeID = employee.getEmployeeID();
+        refresh(employee);
+    }
+
+    public String getSessionID() {
+        return sessionID;
+    }
+
+    public int getEmployeeID() {
+        return employeeID;
+    }
+
+    public Employee getEmployee() {
+        return employee;
+    }
+
+    public boolean isOpen() {
+        return open;
+    }
+
+    // Whether the employee may do this; a closed session may do nothing
+    public boolean can(Permission permission) {
+        return open && permissions.contains(permission);
+    }
+
+    // Take the new state of the employee, with the permissions of its role
+    void refresh(Employee employee) {
+        this.permissions = Permission.ofRole(employee.getEmployeeRol());
+        this.employee = employee;
+    }
+
+    void close() {
+        open = false;
+    }
+}
@@ -0,0 +1,298 @@
+package Models;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Binary images of every store. The file starts with a header and a table of
+ * sections, one per store, so each section can be mapped and decoded on its
+ * own thread at startup:
+ *
+ * [magic][version][first journal segment][section count]
+ * [tag][counter][offset][length][crc32] for each section
+ * [entity count][entities...] for each section
+ *
+ * Writing rotates the journal first, so the segments older than the one
+ * recorded in the header are fully contained in the image.
+ */
+final class Snapshots {
+
+    private static final int MAGIC = 0x50484D53; // "PHMS"
+    private static final int VERSION = 1;
+    private static final int SECTION_ENTRY_BYTES = 1 + 4 + 8 + 8 + 4;
+
+    // Section tags are the journal entity tags; completed purchases live in the
+    // ledger now, their section is only read from older snapshots
+    private static final byte COMPLETED_PURCHASE = 7;
+    // Purchases in process with their carts; older snapshots hold them untagged in the purchase section
+    private static final byte CART_PURCHASE = 8;
+
+    private static final Logger LOGGER = Logger.getLogger(Snapshots.class.getName());
+
+    // Section decoded from the file
+    private record Section(byte tag, StoreImage<?> image) {
+    }
+
+    // Private constructor to prevent instantiation
+    private Snapshots() {
+    }
+
+    // Load the snapshot into the stores and return the first journal segment to replay
+    static long load(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return 0;
+        }
+        long start = System.nanoTime();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(channel.size(), 1 << 12));
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException("Unrecognized snapshot file " + file);
+            }
+            long firstSegment = header.getLong();
+            int sectionCount = header.getInt();
+            // Map every section before handing them to the decoding threads
+            List<MappedByteBuffer> buffers = new ArrayList<>();
+            byte[] tags = new byte[sectionCount];
+            int[] counters = new int[sectionCount];
+            int[] checksums = new int[sectionCount];
+            for (int i = 0; i < sectionCount; i++) {
+                tags[i] = header.get();
+                counters[i] = header.getInt();
+                long offset = header.getLong();
+                long length = header.getLong();
+                checksums[i] = header.getInt();
+                buffers.add(channel.map(FileChannel.MapMode.READ_ONLY, offset, length));
+            }
+            long mapped = System.nanoTime();
+            logPhase("map", start, mapped);
+
+            ExecutorService pool = Executors.newFixedThreadPool(
+                    Math.max(1, Math.min(sectionCount, Runtime.getRuntime().availableProcessors())));
+            List<Section> sections = new ArrayList<>();
+            try {
+                List<CompletableFuture<Section>> futures = new ArrayList<>();
+                for (int i = 0; i < sectionCount; i++) {
+                    byte tag = tags[i];
+                    int counter = counters[i];
+                    int checksum = checksums[i];
+                    MappedByteBuffer buffer = buffers.get(i);
+                    futures.add(CompletableFuture.supplyAsync(() -> decodeSection(tag, counter, checksum, buffer), pool));
+                }
+                for (CompletableFuture<Section> future : futures) {
+                    sections.add(future.join());
+                }
+            } catch (CompletionException ex) {
+                throw new IOException("The snapshot " + file + " could not be decoded.", ex.getCause());
+            } finally {
+                pool.shutdown();
+            }
+            long decoded = System.nanoTime();
+            logPhase("decode", mapped, decoded);
+
+            install(sections);
+            logPhase("install", decoded, System.nanoTime());
+            return firstSegment;
+        }
+    }
+
+    // Write a snapshot of every store, replacing the previous one atomically
+    static void write(Path directory, Path file) throws IOException {
+        long start = System.nanoTime();
+        long firstSegment = Journal.rotate();
+        if (firstSegment < 0) {
+            firstSegment = 0;
+        }
+        // The file repositories are left out of the image: forced now, they hold every change the
+        // older segments recorded, and the newer segments are replayed over them
+        ProductActions.getInstance().force();
+        CustomerActions.getInstance().force();
+        SupplierActions.getInstance().force();
+        CategoryActions.getInstance().force();
+        EmployeeActions.getInstance().force();
+        // Capturing copies only references, encoding happens outside the store locks
+        List<byte[]> bodies = new ArrayList<>();
+        List<Byte> tags = new ArrayList<>();
+        List<Integer> counters = new ArrayList<>();
+        addSection(tags, counters, bodies, Journal.PRODUCT, ProductActions.getInstance().capture(), EntityCodec::writeProduct);
+        addSection(tags, counters, bodies, Journal.CUSTOMER, CustomerActions.getInstance().capture(), EntityCodec::writeCustomer);
+        addSection(tags, counters, bodies, Journal.SUPPLIER, SupplierActions.getInstance().capture(), EntityCodec::writeSupplier);
+        addSection(tags, counters, bodies, Journal.CATEGORY, CategoryActions.getInstance().capture(), EntityCodec::writeCategory);
+        addSection(tags, counters, bodies, Journal.EMPLOYEE, EmployeeActions.getInstance().capture(), EntityCodec::writeEmployee);
+        addSection(tags, counters, bodies, CART_PURCHASE, PurchaseActions.getInstance().captureInProcess(), EntityCodec::writeCartLine);
+
+        ByteBuffer header = ByteBuffer.allocate(4 + 4 + 8 + 4 + bodies.size() * SECTION_ENTRY_BYTES);
+        header.putInt(MAGIC).putInt(VERSION).putLong(firstSegment).putInt(bodies.size());
+        long offset = header.capacity();
+        for (int i = 0; i < bodies.size(); i++) {
+            CRC32 crc = new CRC32();
+            crc.update(bodies.get(i));
+            header.put(tags.get(i)).putInt(counters.get(i)).putLong(offset).putLong(bodies.get(i).length)
+                    .putInt((int) crc.getValue());
+            offset += bodies.get(i).length;
+        }
+        header.flip();
+
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer[] buffers = new ByteBuffer[bodies.size() + 1];
+            buffers[0] = header;
+            for (int i = 0; i < bodies.size(); i++) {
+                buffers[i + 1] = ByteBuffer.wrap(bodies.get(i));
+            }
+            while (buffers[buffers.length - 1].hasRemaining()) {
+                channel.write(buffers);
+            }
+            channel.force(true);
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        // The image now holds everything the older segments recorded
+        Journal.deleteSegmentsBefore(directory, firstSegment);
+        logPhase("write", start, System.nanoTime());
+    }
+
+    private static <V> void addSection(List<Byte> tags, List<Integer> counters, List<byte[]> bodies,
+            byte tag, StoreImage<V> image, EntityCodec.Writer<V> writer) throws IOException {
+        if (image == null) {
+            return; // Store persisted by other means
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + image.entities().size() * 64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(image.entities().size());
+        for (V entity : image.entities()) {
+            writer.write(out, entity);
+        }
+        tags.add(tag);
+        counters.add(image.counter());
+        bodies.add(bytes.toByteArray());
+    }
+
+    private static Section decodeSection(byte tag, int counter, int checksum, ByteBuffer buffer) {
+        long start = System.nanoTime();
+        CRC32 crc = new CRC32();
+        crc.update(buffer.duplicate());
+        if ((int) crc.getValue() != checksum) {
+            throw new IllegalStateException("Snapshot section " + tag + " is corrupted.");
+        }
+        try {
+            Section section = switch (tag) {
+                case Journal.PRODUCT ->
+                    new Section(tag, readImage(buffer, counter, EntityCodec::readProduct));
+                case Journal.CUSTOMER ->
+                    new Section(tag, readImage(buffer, counter, EntityCodec::readCustomer));
+                case Journal.SUPPLIER ->
+                    new Section(tag, readImage(buffer, counter, EntityCodec::readSupplier));
+                case Journal.CATEGORY ->
+                    new Section(tag, readImage(buffer, counter, EntityCodec::readCategory));
+                case Journal.EMPLOYEE ->
+                    new Section(tag, readImage(buffer, counter, EntityCodec::readEmployee));
+                case Journal.PURCHASE, COMPLETED_PURCHASE ->
+                    new Section(tag, readImage(buffer, counter, EntityCodec::readPurchase));
+                case CART_PURCHASE ->
+                    new Section(tag, readImage(buffer, counter, EntityCodec::readCartLine));
+                default ->
+                    new Section(tag, null);
+            };
+            logPhase("decode section " + tag, start, System.nanoTime());
+            return section;
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static <V> StoreImage<V> readImage(ByteBuffer buffer, int counter, EntityCodec.Reader<V> reader) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferInputStream(buffer.duplicate()));
+        int count = in.readInt();
+        List<V> entities = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            entities.add(reader.read(in));
+        }
+        return new StoreImage<>(entities, counter);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void install(List<Section> sections) throws IOException {
+        List<Cart.Line> inProcess = new ArrayList<>();
+        int purchaseCounter = 0;
+        for (Section section : sections) {
+            switch (section.tag()) {
+                case Journal.PRODUCT ->
+                    ProductActions.getInstance().restore((StoreImage<Product>) section.image());
+                case Journal.CUSTOMER ->
+                    CustomerActions.getInstance().restore((StoreImage<Customer>) section.image());
+                case Journal.SUPPLIER ->
+                    SupplierActions.getInstance().restore((StoreImage<Supplier>) section.image());
+                case Journal.CATEGORY ->
+                    CategoryActions.getInstance().restore((StoreImage<Category>) section.image());
+                case Journal.EMPLOYEE ->
+                    EmployeeActions.getInstance().restore((StoreImage<Employee>) section.image());
+                case Journal.PURCHASE -> {
+                    // Written before carts existed, the purchases belong to the default cart
+                    StoreImage<Purchase> image = (StoreImage<Purchase>) section.image();
+                    for (Purchase purchase : image.entities()) {
+                        inProcess.add(new Cart.Line(PurchaseActions.DEFAULT_CART, purchase));
+                    }
+                    purchaseCounter = Math.max(purchaseCounter, image.counter());
+                }
+                case CART_PURCHASE -> {
+                    StoreImage<Cart.Line> image = (StoreImage<Cart.Line>) section.image();
+                    inProcess.addAll(image.entities());
+                    purchaseCounter = Math.max(purchaseCounter, image.counter());
+                }
+                case COMPLETED_PURCHASE ->
+                    PurchaseActions.getInstance().importCompleted(((StoreImage<Purchase>) section.image()).entities());
+                default ->
+                    LOGGER.log(Level.WARNING, "Unknown snapshot section {0}, skipped.", section.tag());
+            }
+        }
+        PurchaseActions.getInstance().restore(new StoreImage<>(inProcess, purchaseCounter));
+    }
+
+    private static void logPhase(String phase, long start, long end) {
+        LOGGER.log(Level.INFO, "Snapshot {0}: {1} ms", new Object[]{phase, (end - start) / 1_000_000});
+    }
+
+    // Sequential reader over a byte buffer, used to decode mapped sections
+    private static final class BufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        BufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, count);
+            return count;
+        }
+    }
+}
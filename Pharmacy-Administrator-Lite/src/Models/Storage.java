@@ -0,0 +1,132 @@
+package Models;
+
+import Interfaces.Repository;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Entry point of the persistence of the Models layer. start() recovers every
+ * store from disk before the first view reads them, stop() flushes what is
+ * still pending and is run from the shutdown hook.
+ *
+ * Recovery loads the latest snapshot and replays the journal segments written
+ * after it. While the application runs, a background thread writes a new
+ * snapshot periodically so the journal stays short, and gives back the stock
+ * held by carts left untouched past their expiry.
+ *
+ * Each store keeps its entities in a Repository chosen here: on the heap,
+ * persisted by the journal and the snapshots, or in a file of the data
+ * directory. A file is left out of the snapshots and forced when the journal
+ * rotates instead; its changes are journaled all the same and replayed over it.
+ */
+public final class Storage {
+
+    // System property that overrides the data directory
+    public static final String DIRECTORY_PROPERTY = "pharmacy.data.dir";
+    // System property with the number of seconds between two snapshots
+    public static final String SNAPSHOT_INTERVAL_PROPERTY = "pharmacy.snapshot.interval";
+    // System property selecting the repositories: "memory" (default) or "file";
+    // "pharmacy.store.<store>" overrides it for one store, e.g. pharmacy.store.product
+    public static final String STORE_PROPERTY = "pharmacy.store";
+
+    private static final String SNAPSHOT_FILE = "pharmacy.snapshot";
+    private static final long RECLAIM_INTERVAL_SECONDS = 30; // Between two passes over the expired holds
+    private static final Logger LOGGER = Logger.getLogger(Storage.class.getName());
+
+    private static ScheduledExecutorService snapshotter; // Periodic snapshot and hold reclaim thread
+    private static long changesAtLastSnapshot = 0; // Journal records already contained in a snapshot
+
+    // Private constructor to prevent instantiation
+    private Storage() {
+    }
+
+    // Directory holding the journal and the other data files
+    public static Path directory() {
+        return Paths.get(System.getProperty(DIRECTORY_PROPERTY, "data"));
+    }
+
+    // Whether the named store keeps its entities in a file
+    static boolean isFileBacked(String store) {
+        String kind = System.getProperty(STORE_PROPERTY + "." + store, System.getProperty(STORE_PROPERTY, "memory"));
+        return "file".equalsIgnoreCase(kind);
+    }
+
+    // Open the repository of the named store as selected by the properties
+    static <V> Repository<V> repository(String store, EntityCodec.Reader<V> reader, EntityCodec.Writer<V> writer) {
+        if (!isFileBacked(store)) {
+            return new MemoryRepository<>();
+        }
+        try {
+            Files.createDirectories(directory());
+            return new FileRepository<>(directory().resolve(store + ".repo"), reader, writer);
+        } catch (IOException ex) {
+            throw new UncheckedIOException("The " + store + " repository could not be opened.", ex);
+        }
+    }
+
+    // Recover the stores and start recording changes
+    public static synchronized void start() throws IOException {
+        Path directory = directory();
+        Files.createDirectories(directory);
+        long start = System.nanoTime();
+        long firstSegment = Snapshots.load(directory.resolve(SNAPSHOT_FILE));
+        long loaded = System.nanoTime();
+        Journal.open(directory, firstSegment);
+        PurchaseActions.getInstance().reconcileWithLedger(); // Completions whose journal record was lost
+        PurchaseActions.getInstance().holdInProcess(); // Holds live on the heap only
+        long replayed = System.nanoTime();
+        LOGGER.log(Level.INFO, "Startup: snapshot {0} ms, journal replay {1} ms",
+                new Object[]{(loaded - start) / 1_000_000, (replayed - loaded) / 1_000_000});
+
+        long interval = Long.getLong(SNAPSHOT_INTERVAL_PROPERTY, 300L);
+        snapshotter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "snapshot-writer");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY); // Never compete with the event thread
+            return thread;
+        });
+        snapshotter.scheduleWithFixedDelay(Storage::snapshot, interval, interval, TimeUnit.SECONDS);
+        snapshotter.scheduleWithFixedDelay(Storage::reclaimExpiredHolds, RECLAIM_INTERVAL_SECONDS,
+                RECLAIM_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    // Write a snapshot of every store if anything changed since the last one
+    public static synchronized void snapshot() {
+        long changes = Journal.changes();
+        if (changes == changesAtLastSnapshot) {
+            return;
+        }
+        try {
+            Snapshots.write(directory(), directory().resolve(SNAPSHOT_FILE));
+            changesAtLastSnapshot = changes;
+        } catch (IOException ex) {
+            LOGGER.log(Level.SEVERE, "The snapshot could not be written.", ex);
+        }
+    }
+
+    // Give back the stock held by abandoned carts
+    private static void reclaimExpiredHolds() {
+        int reclaimed = PurchaseActions.getInstance().reclaimExpiredHolds();
+        if (reclaimed > 0) {
+            LOGGER.log(Level.INFO, "Reclaimed {0} purchases in process from expired carts", reclaimed);
+        }
+    }
+
+    // Take a last snapshot, commit every pending change and close the data files
+    public static synchronized void stop() {
+        if (snapshotter != null) {
+            snapshotter.shutdownNow();
+            snapshotter = null;
+        }
+        snapshot();
+        Journal.close();
+    }
+}
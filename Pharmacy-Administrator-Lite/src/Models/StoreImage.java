@@ -0,0 +1,7 @@
+package Models;
+
+import java.util.List;
+
+// Point-in-time copy of one store: its entities and its ID counter
+record StoreImage<V>(List<V> entities, int counter) {
+}
@@ -1,22 +1,44 @@
 package Models;
 
-import java.util.HashMap;
+import Interfaces.Repository;
+import java.io.DataInput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public class SupplierActions {
 
-    // Map to store Supplier objects with their IDs as keys
-    private Map<Integer, Supplier> suppliers = new HashMap<>();
+    // Repository storing Supplier objects by their IDs
+    private final Repository<Supplier> suppliers = Storage.repository("supplier", EntityCodec::readSupplier, EntityCodec::writeSupplier);
     // Counter to keep track of the number of suppliers
-    private Integer supplierCount = 0;
+    private Integer supplierCount = suppliers.nextID();
+    // Whether a snapshot applies: always on the heap, only while a file repository is still empty
+    private final boolean recovers = !suppliers.isDurable() || suppliers.count() == 0;
+    // Supplier IDs by case-insensitive name, kept in step with the repository
+    private final NameIndex nameIndex = new NameIndex();
+    // Supplier IDs by email and by telephone, both unique
+    private final UniqueIndex emailIndex = new UniqueIndex();
+    private final UniqueIndex telephoneIndex = new UniqueIndex();
+    // Version stamp of each supplier, checked by modifySupplier
+    private final Versions versions = new Versions();
+    // Every write of a supplier, for the views listing them
+    private final ChangeBus<Supplier> changes = new ChangeBus<>();
+    // Immutable copy of the store replaced by every write, handed out by the listings in O(1)
+    private volatile PersistentIdMap<Supplier> snapshot = PersistentIdMap.empty();
 
     // Singleton instance of SupplierActions
     private static SupplierActions instance;
 
     // Private constructor to prevent instantiation
     private SupplierActions() {
+        suppliers.scan(supplier -> {
+            index(supplier);
+            snapshot = snapshot.with(supplier.getSupplierID(), supplier);
+        });
     }
 
     // Singleton instance getter
@@ -44,19 +66,32 @@ public class SupplierActions {
         }
     }
 
-    // List suppliers, optionally filtering by name
-    public Map<Integer, Supplier> listSuppliers(String supplierName) {
-        if (supplierName.isBlank()) {
-            return suppliers; // Return all suppliers if no filter is provided
-        } else {
-            Map<Integer, Supplier> filteredSuppliers = new HashMap<>();
-            for (Supplier supplier : suppliers.values()) {
-                if (supplier.getSupplierName().equalsIgnoreCase(supplierName)) {
-                    filteredSuppliers.put(supplier.getSupplierID(), supplier);
-                }
+    // List suppliers, optionally filtering by name. Listing them all, as a blank name or one without
+    // matches does, hands out the current snapshot in ID order, which later writes leave unchanged.
+    public synchronized Map<Integer, Supplier> listSuppliers(String supplierName) {
+        if (!supplierName.isBlank()) {
+            Map<Integer, Supplier> listedSuppliers = new LinkedHashMap<>();
+            // Look the name up in the index instead of comparing every supplier
+            for (Integer supplierID : nameIndex.get(supplierName)) {
+                listedSuppliers.put(supplierID, suppliers.get(supplierID));
             }
-            return filteredSuppliers.isEmpty() ? suppliers : filteredSuppliers;
+            if (!listedSuppliers.isEmpty()) {
+                return listedSuppliers;
+            }
+        }
+        return snapshot.asMap(); // All suppliers if no filter is provided or none match
+    }
+
+    // List at most limit suppliers whose name starts with the prefix, in name order; a blank prefix lists them all
+    public synchronized Map<Integer, Supplier> listSuppliersStartingWith(String prefix, int limit) {
+        if (prefix.isBlank()) {
+            return listSuppliers(prefix);
+        }
+        Map<Integer, Supplier> listedSuppliers = new LinkedHashMap<>();
+        for (Integer supplierID : nameIndex.startingWith(prefix, limit)) {
+            listedSuppliers.put(supplierID, suppliers.get(supplierID));
         }
+        return listedSuppliers; // Empty when no name matches
     }
 
     // Validate email format
@@ -68,15 +103,13 @@ public class SupplierActions {
     }
 
     // Check if email is unique
-    public boolean isEmailUnique(String supplierEmail) {
-        return suppliers.values().stream()
-                .noneMatch(supplier -> supplier.getSupplierEmail().equals(supplierEmail));
+    public synchronized boolean isEmailUnique(String supplierEmail) {
+        return emailIndex.isFree(supplierEmail);
     }
 
     // Check if telephone is unique
-    public boolean isTelephoneUnique(String supplierTelephone) {
-        return suppliers.values().stream()
-                .noneMatch(supplier -> supplier.getSupplierTelephone().equals(supplierTelephone));
+    public synchronized boolean isTelephoneUnique(String supplierTelephone) {
+        return telephoneIndex.isFree(supplierTelephone);
     }
 
     // Check if the input string is numeric
@@ -87,34 +120,184 @@ public class SupplierActions {
         return matcher.matches();
     }
 
-    // Add a new supplier
-    public void addSupplier(String supplierName, String supplierEmail, String supplierAddress,
+    // Add a new supplier, refusing an email or telephone already in use; returns once it is saved
+    public boolean addSupplier(String supplierName, String supplierEmail, String supplierAddress,
+            String supplierTelephone, String supplierCity, String supplierDescription) {
+        return Journal.commit(this, () -> insertSupplier(supplierName, supplierEmail, supplierAddress,
+                supplierTelephone, supplierCity, supplierDescription));
+    }
+
+    // Add a batch of suppliers under one lock, each getting the next supplier ID; returns the ones refused, in batch order
+    public List<Supplier> addSuppliers(List<Supplier> batch) {
+        return Journal.commit(this, () -> {
+            List<Supplier> refused = new ArrayList<>();
+            for (Supplier imported : batch) {
+                if (!insertSupplier(imported.getSupplierName(), imported.getSupplierEmail(), imported.getSupplierAddress(),
+                        imported.getSupplierTelephone(), imported.getSupplierCity(), imported.getSupplierDescription())) {
+                    refused.add(imported);
+                }
+            }
+            return refused;
+        });
+    }
+
+    // Add a supplier under the lock of the store, without waiting for the journal
+    private boolean insertSupplier(String supplierName, String supplierEmail, String supplierAddress,
             String supplierTelephone, String supplierCity, String supplierDescription) {
+        // Checked again under the lock, another registration may have taken them since the form checked
+        if (!emailIndex.isFree(supplierEmail) || !telephoneIndex.isFree(supplierTelephone)) {
+            return false;
+        }
         Supplier supplier = createSupplier(supplierName, supplierEmail, supplierAddress, supplierCount,
                 supplierTelephone, supplierCity, supplierDescription);
-        suppliers.put(supplierCount, supplier); // Add supplier to the map
+        store(supplier); // Add supplier to the repository
         supplierCount++; // Increment the supplier count
+        journalPut(supplier);
+        return true;
+    }
+
+    // Search for a supplier by ID
+    public Supplier searchSupplierByID(Integer supplierID) {
+        return suppliers.get(supplierID);
+    }
+
+    // Writes of suppliers, published as they happen
+    public ChangeBus<Supplier> changes() {
+        return changes;
+    }
+
+    // Version stamp of a supplier; pass it back to modifySupplier to detect changes made in the meantime
+    public long versionOf(Integer supplierID) {
+        return versions.of(supplierID);
     }
 
-    // Modify an existing supplier
+    // Modify an existing supplier if nobody changed it since version was read, refusing an email or
+    // telephone used by another supplier. On false, versionOf tells a stale version from a taken key.
     public boolean modifySupplier(String supplierName, String supplierEmail, String supplierAddress,
-            Integer supplierID, String supplierTelephone, String supplierCity,
+            Integer supplierID, long version, String supplierTelephone, String supplierCity,
             String supplierDescription) {
-        if (suppliers.containsKey(supplierID)) {
-            Supplier supplier = createSupplier(supplierName, supplierEmail, supplierAddress, supplierID,
-                    supplierTelephone, supplierCity, supplierDescription);
-            suppliers.replace(supplierID, supplier); // Replace the existing supplier
-            return true;
-        }
-        return false;
+        return Journal.commit(this, () -> {
+            if (suppliers.get(supplierID) != null && versions.matches(supplierID, version) && emailIndex.isFreeFor(supplierEmail, supplierID)
+                    && telephoneIndex.isFreeFor(supplierTelephone, supplierID)) {
+                Supplier supplier = createSupplier(supplierName, supplierEmail, supplierAddress, supplierID,
+                        supplierTelephone, supplierCity, supplierDescription);
+                store(supplier); // Replace the existing supplier
+                journalPut(supplier);
+                return true;
+            }
+            return false;
+        });
     }
 
     // Delete an existing supplier
     public boolean deleteSupplier(Integer supplierID) {
-        if (suppliers.containsKey(supplierID)) {
-            suppliers.remove(supplierID); // Remove supplier from the map
+        return Journal.commit(this, () -> {
+            if (unstore(supplierID)) { // Remove supplier from the repository
+                journalRemove(supplierID);
+                return true;
+            }
+            return false;
+        });
+    }
+
+    // Put a supplier in the repository and keep the indexes in step
+    private void store(Supplier supplier) {
+        Supplier previous = suppliers.get(supplier.getSupplierID());
+        suppliers.put(supplier.getSupplierID(), supplier);
+        if (previous != null) {
+            unindex(previous);
+        }
+        index(supplier);
+        versions.bump(supplier.getSupplierID());
+        snapshot = snapshot.with(supplier.getSupplierID(), supplier);
+        if (previous == null) {
+            changes.added(supplier.getSupplierID(), supplier);
+        } else {
+            changes.updated(supplier.getSupplierID(), supplier);
+        }
+    }
+
+    // Remove a supplier from the repository and the indexes
+    private boolean unstore(Integer supplierID) {
+        Supplier supplier = suppliers.get(supplierID);
+        if (supplier != null && suppliers.remove(supplierID)) {
+            unindex(supplier);
+            versions.remove(supplierID);
+            snapshot = snapshot.without(supplierID);
+            changes.removed(supplierID);
             return true;
         }
         return false;
     }
+
+    private void index(Supplier supplier) {
+        nameIndex.add(supplier.getSupplierName(), supplier.getSupplierID());
+        emailIndex.add(supplier.getSupplierEmail(), supplier.getSupplierID());
+        telephoneIndex.add(supplier.getSupplierTelephone(), supplier.getSupplierID());
+    }
+
+    private void unindex(Supplier supplier) {
+        nameIndex.remove(supplier.getSupplierName(), supplier.getSupplierID());
+        emailIndex.remove(supplier.getSupplierEmail(), supplier.getSupplierID());
+        telephoneIndex.remove(supplier.getSupplierTelephone(), supplier.getSupplierID());
+    }
+
+    // Record the current state of a supplier in the journal, whatever the repository
+    private void journalPut(Supplier supplier) {
+        Journal.append(Journal.SUPPLIER, Journal.PUT, out -> EntityCodec.writeSupplier(out, supplier));
+    }
+
+    // Record the removal of a supplier in the journal
+    private void journalRemove(Integer supplierID) {
+        Journal.append(Journal.SUPPLIER, Journal.REMOVE, out -> out.writeInt(supplierID));
+    }
+
+    // Re-apply a journal record during startup recovery; the records are newer than a file
+    // repository, which is forced whenever the journal rotates
+    synchronized void replay(byte operation, DataInput in) throws IOException {
+        if (operation == Journal.PUT) {
+            Supplier supplier = EntityCodec.readSupplier(in);
+            store(supplier);
+            supplierCount = Math.max(supplierCount, supplier.getSupplierID() + 1); // Never reuse a journaled ID
+        } else if (operation == Journal.REMOVE) {
+            unstore(in.readInt());
+        }
+    }
+
+    // Copy the store for a snapshot, null when the repository persists the suppliers itself
+    StoreImage<Supplier> capture() {
+        if (suppliers.isDurable()) {
+            return null;
+        }
+        PersistentIdMap<Supplier> current;
+        int counter;
+        synchronized (this) { // Only reading the snapshot and the counter holds the writers back
+            current = snapshot;
+            counter = supplierCount;
+        }
+        return new StoreImage<>(new ArrayList<>(current.asMap().values()), counter);
+    }
+
+    // Replace the store with the content of a snapshot
+    synchronized void restore(StoreImage<Supplier> image) {
+        if (!recovers) {
+            supplierCount = Math.max(image.counter(), suppliers.nextID());
+            return; // The file repository is newer than the snapshot
+        }
+        suppliers.clear();
+        nameIndex.clear();
+        emailIndex.clear();
+        telephoneIndex.clear();
+        versions.clear();
+        snapshot = PersistentIdMap.empty();
+        for (Supplier supplier : image.entities()) {
+            store(supplier);
+        }
+        supplierCount = Math.max(image.counter(), suppliers.nextID());
+    }
+
+    // Flush the repository to disk
+    synchronized void force() {
+        suppliers.flush();
+    }
 }
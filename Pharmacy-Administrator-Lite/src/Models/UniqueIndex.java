@@ -0,0 +1,54 @@
+package Models;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// Unique secondary index from an exact key, such as an email, to the ID owning it.
+// The owning Actions class reads and writes it under its own lock, so a check and the
+// insert that follows it cannot interleave with another insert.
+final class UniqueIndex {
+
+    private final Map<String, Integer> owners = new HashMap<>();
+
+    // ID owning the key, or null when it is free
+    Integer owner(String key) {
+        return owners.get(key);
+    }
+
+    boolean isFree(String key) {
+        return !owners.containsKey(key);
+    }
+
+    // Whether the key is free or already belongs to this ID
+    boolean isFreeFor(String key, int id) {
+        Integer owner = owners.get(key);
+        return owner == null || owner == id;
+    }
+
+    // Claim the key for an ID; a key owned by another ID is left alone
+    void add(String key, int id) {
+        if (key != null) {
+            owners.putIfAbsent(key, id);
+        }
+    }
+
+    // Release the key if this ID owns it
+    void remove(String key, int id) {
+        if (key != null) {
+            owners.remove(key, id);
+        }
+    }
+
+    // Move an ID from its previous key to the new one
+    void replace(String previousKey, String key, int id) {
+        if (previousKey != null && previousKey.equals(key)) {
+            return;
+        }
+        remove(previousKey, id);
+        add(key, id);
+    }
+
+    void clear() {
+        owners.clear();
+    }
+}
@@ -0,0 +1,37 @@
+package Models;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Version stamps of the entities of one store, for compare-and-set updates. Every write of an
+// entity gives it the next stamp of the store, so a form holding an older stamp was filled
+// before the last write. Stamps live on the heap and start again on each run, which is enough
+// since every stamp a form holds was read in the same run.
+final class Versions {
+
+    private final Map<Integer, Long> stamps = new ConcurrentHashMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+
+    // Stamp of an entity, 0 until it is written in this run
+    long of(int id) {
+        return stamps.getOrDefault(id, 0L);
+    }
+
+    boolean matches(int id, long version) {
+        return of(id) == version;
+    }
+
+    // Record a write; called after the entity is stored, so a stamp never names older content
+    void bump(int id) {
+        stamps.put(id, sequence.incrementAndGet());
+    }
+
+    void remove(int id) {
+        stamps.remove(id);
+    }
+
+    void clear() {
+        stamps.clear();
+    }
+}
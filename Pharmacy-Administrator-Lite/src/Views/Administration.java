@@ -10,6 +10,7 @@ import Controllers.SupplierController;
 import Models.CategoryActions;
 import Models.CustomerActions;
 import Models.EmployeeActions;
+import Models.Session;
 import Interfaces.GraphicalConfiguration;
 import Models.ProductActions;
 import Models.PurchaseActions;
@@ -28,18 +29,19 @@ public class Administration extends javax.swing.JFrame implements GraphicalConfi
     /**
      * Creates new form Administración
      *
+     * @param session Login of the employee using the view
      * @throws javax.swing.UnsupportedLookAndFeelException
      */
-    public Administration() throws UnsupportedLookAndFeelException {
+    public Administration(Session session) throws UnsupportedLookAndFeelException {
         initComponents(); // Initialize the components of the JFrame
         // Apply personal settings to the frame, including title, size, and icon image
         framePersonalSettings(this, "Pharmacy Administrator", 1215, 818, "Images/ImageIcon (1).png");
 
-        // Initialize administration configurations with the current frame and employee actions
-        AdministrationConfigurations administrationConfigurations = new AdministrationConfigurations(this, employeeActions);
+        // Initialize administration configurations with the current frame, employee actions and session
+        AdministrationConfigurations administrationConfigurations = new AdministrationConfigurations(this, employeeActions, session);
 
         // Create and initialize the EmployeeController, loading existing employees
-        EmployeeController employeeController = new EmployeeController(this, employeeActions);
+        EmployeeController employeeController = new EmployeeController(this, employeeActions, session);
         employeeController.loadEmployees(); // Load employees into the system
 
         // Create and initialize the CustomerController, loading existing customers
@@ -51,7 +53,7 @@ public class Administration extends javax.swing.JFrame implements GraphicalConfi
         supplierController.loadSuppliers(); // Load suppliers into the system
 
         // Create and initialize the CategoryController, loading existing categories
-        CategoryController categoryController = new CategoryController(this, categoryActions, employeeActions);
+        CategoryController categoryController = new CategoryController(this, categoryActions, session);
         categoryController.loadCategories(); // Load categories into the system
 
         // Create and initialize the ProductController, loading existing products
@@ -59,7 +61,7 @@ public class Administration extends javax.swing.JFrame implements GraphicalConfi
         productController.loadProducts(); // Load products into the system
 
         // Create and initialize the PurchaseController, loading reports and existing purchases
-        PurchaseController purchaseController = new PurchaseController(this, purchaseActions, productActions);
+        PurchaseController purchaseController = new PurchaseController(this, purchaseActions, productActions, customerActions);
         purchaseController.loadReports(); // Load purchase reports
         purchaseController.loadPurchases(); // Load purchases into the system
 
@@ -2296,10 +2298,10 @@ public class Administration extends javax.swing.JFrame implements GraphicalConfi
     public javax.swing.JButton btnSupplierRegister;
     public javax.swing.JTable categoryTable;
     public javax.swing.JComboBox<String> cmbEmployeeRol;
-    public javax.swing.JComboBox<String> cmbProductsCategories;
-    public javax.swing.JComboBox<String> cmbPurchasesCustomer;
-    public javax.swing.JComboBox<String> cmbPurchasesProduct;
-    public javax.swing.JComboBox<String> cmbPurchasesSupplier;
+    public javax.swing.JComboBox<Models.Category> cmbProductsCategories;
+    public javax.swing.JComboBox<Models.Customer> cmbPurchasesCustomer;
+    public javax.swing.JComboBox<Models.Product> cmbPurchasesProduct;
+    public javax.swing.JComboBox<Models.Supplier> cmbPurchasesSupplier;
     public javax.swing.JTable customersTable;
     public javax.swing.JTable employeesTable;
     private javax.swing.JLabel jLabel1;
@@ -0,0 +1,166 @@
+package Models;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+// Edge cases of the CSV import: quoting, line endings, oversized rows and the report of rejected rows
+public class CsvImporterTest {
+
+    private static final String HEADER = "name,email,address,telephone\n";
+    private static final AtomicInteger contacts = new AtomicInteger();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final CustomerActions customers = CustomerActions.getInstance();
+
+    // Email of its own for a row, so the tests share the customer store without clashing
+    private static String email() {
+        return "import" + contacts.incrementAndGet() + "." + System.nanoTime() + "@example.com";
+    }
+
+    private static String telephone() {
+        return Long.toString(System.nanoTime()) + contacts.incrementAndGet();
+    }
+
+    private Path write(String content) throws IOException {
+        Path file = folder.newFile().toPath();
+        Files.writeString(file, content, StandardCharsets.UTF_8);
+        return file;
+    }
+
+    private static CsvImporter.Result importCustomers(Path file) throws IOException {
+        return CsvImporter.importFile(file, CsvImporter.Target.CUSTOMERS, (bytesRead, totalBytes, imported, rejected) -> true);
+    }
+
+    // Lines of the report after its header
+    private static List<String> reported(CsvImporter.Result result) throws IOException {
+        List<String> lines = Files.readAllLines(result.rejectedReport(), StandardCharsets.UTF_8);
+        assertEquals("line,reason,row", lines.get(0));
+        return lines.subList(1, lines.size());
+    }
+
+    @Test
+    public void testQuotedFieldsAndLineEndings() throws IOException {
+        String quotedEmail = email();
+        String multilineEmail = email();
+        String lastEmail = email();
+        Path file = write(HEADER.replace("\n", "\r\n")
+                + "\"Smith, John\"," + quotedEmail + ",\"12 \"\"Old\"\" Road\"," + telephone() + "\r\n"
+                + "\r\n"
+                + "Jane," + multilineEmail + ",\"Flat 2\nHigh Street\"," + telephone() + "\n"
+                + "\n\n"
+                + "Last," + lastEmail + ",No newline at the end," + telephone());
+        CsvImporter.Result result = importCustomers(file);
+        assertEquals(3, result.imported());
+        assertEquals(0, result.rejected());
+        assertFalse(result.stopped());
+        assertNull(result.rejectedReport());
+        assertFalse(customers.isEmailUnique(quotedEmail));
+        assertFalse(customers.isEmailUnique(multilineEmail));
+        assertFalse(customers.isEmailUnique(lastEmail));
+        Map<Integer, Customer> smiths = customers.listCustomers("Smith, john");
+        boolean found = false;
+        for (Customer customer : smiths.values()) {
+            if (customer.getCustomerEmail().equals(quotedEmail)) {
+                assertEquals("12 \"Old\" Road", customer.getCustomerAddress());
+                found = true;
+            }
+        }
+        assertTrue(found);
+    }
+
+    @Test
+    public void testRejectedRowsAreReportedWithTheirLine() throws IOException {
+        String email = email();
+        Path file = write(HEADER
+                + "Ann," + email + ",Road," + telephone() + "\n"
+                + "Bob,not an email,Road," + telephone() + "\n"
+                + "Carl," + email + ",Road," + telephone() + "\n"
+                + "Dora,Road," + telephone() + "\n"
+                + ",blank" + email() + ",Road," + telephone() + "\n");
+        CsvImporter.Result result = importCustomers(file);
+        assertEquals(1, result.imported());
+        assertEquals(4, result.rejected());
+        List<String> lines = reported(result);
+        assertEquals(4, lines.size());
+        assertTrue(lines.get(0), lines.get(0).startsWith("3,Invalid email format,Bob,"));
+        assertTrue(lines.get(1), lines.get(1).startsWith("4,Email already in use,Carl,"));
+        assertTrue(lines.get(2), lines.get(2).startsWith("5,Expected 4 columns but found 3,Dora,"));
+        assertTrue(lines.get(3), lines.get(3).startsWith("6,The name is empty,"));
+    }
+
+    @Test
+    public void testRowOfSeparatorsOnlyIsCut() throws IOException {
+        String email = email();
+        Path file = write(HEADER
+                + ",".repeat(1 << 20) + "\n"
+                + "Eve," + email + ",Road," + telephone() + "\n");
+        CsvImporter.Result result = importCustomers(file);
+        assertEquals(1, result.imported());
+        assertEquals(1, result.rejected());
+        assertFalse(customers.isEmailUnique(email));
+        List<String> lines = reported(result);
+        assertEquals(1, lines.size());
+        // Only the fields kept before the limit are reported
+        assertEquals("2,Row with more than 64 fields" + ",".repeat(64), lines.get(0));
+    }
+
+    @Test
+    public void testOverlongRowIsCut() throws IOException {
+        String email = email();
+        Path file = write(HEADER
+                + "Long," + email() + ",\"" + "x".repeat(1 << 17) + "\"," + telephone() + "\n"
+                + "Fay," + email + ",Road," + telephone() + "\n");
+        CsvImporter.Result result = importCustomers(file);
+        assertEquals(1, result.imported());
+        assertEquals(1, result.rejected());
+        assertFalse(customers.isEmailUnique(email));
+        List<String> lines = reported(result);
+        assertTrue(lines.get(0).startsWith("2,Row longer than 65536 characters,Long,"));
+        assertTrue(lines.get(0).length() < (1 << 17));
+    }
+
+    @Test
+    public void testDuplicatesWithinAFileAreRejected() throws IOException {
+        String telephone = telephone();
+        Path file = write(HEADER
+                + "Gus," + email() + ",Road," + telephone + "\n"
+                + "Hal," + email() + ",Road," + telephone + "\n");
+        CsvImporter.Result result = importCustomers(file);
+        assertEquals(1, result.imported());
+        assertEquals(1, result.rejected());
+        assertTrue(reported(result).get(0).startsWith("3,Telephone already in use,Hal,"));
+    }
+
+    @Test
+    public void testListenerStopsTheImportAfterABatch() throws IOException {
+        StringBuilder content = new StringBuilder(HEADER);
+        for (int i = 0; i < 2500; i++) {
+            content.append("Batch ").append(i).append(',').append(email()).append(",Road,").append(telephone()).append('\n');
+        }
+        Path file = write(content.toString());
+        AtomicInteger calls = new AtomicInteger();
+        CsvImporter.Result result = CsvImporter.importFile(file, CsvImporter.Target.CUSTOMERS,
+                (bytesRead, totalBytes, imported, rejected) -> {
+                    calls.incrementAndGet();
+                    return false;
+                });
+        assertTrue(result.stopped());
+        assertEquals(1, calls.get());
+        assertEquals(1000, result.imported());
+        assertEquals(0, result.rejected());
+    }
+}
@@ -0,0 +1,159 @@
+package Models;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+// Stock movements of concurrent terminals: a unit is never sold twice and the stock never goes negative
+public class ProductStockTest {
+
+    private static final AtomicInteger names = new AtomicInteger();
+
+    private final ProductActions products = ProductActions.getInstance();
+
+    // Add a product with a name of its own and return its ID
+    private int addProduct(int quantity) {
+        String name = "Stock test " + names.incrementAndGet();
+        products.addProduct(name, "Box", 500L, quantity, "Category (0)");
+        Map<Integer, Product> listed = products.listProducts(name);
+        assertEquals(1, listed.size());
+        return listed.keySet().iterator().next();
+    }
+
+    // Run the task on several threads released together
+    private static void race(int threads, Runnable task) throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            Thread worker = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException ex) {
+                    return;
+                }
+                task.run();
+            });
+            workers.add(worker);
+            worker.start();
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+    }
+
+    @Test
+    public void testConcurrentDecrementsNeverOversell() throws InterruptedException {
+        int productID = addProduct(1000);
+        AtomicInteger sold = new AtomicInteger();
+        race(16, () -> {
+            for (int i = 0; i < 100; i++) {
+                if (products.decrementProductQuantity(productID, 1)) {
+                    sold.incrementAndGet();
+                }
+            }
+        });
+        assertEquals(1000, sold.get());
+        assertEquals(0, (int) products.searchProductByID(productID).getProductQuantity());
+        assertFalse(products.decrementProductQuantity(productID, 1));
+    }
+
+    @Test
+    public void testOnlyOneTerminalSellsTheLastUnit() throws InterruptedException {
+        for (int round = 0; round < 200; round++) {
+            int productID = addProduct(1);
+            AtomicInteger winners = new AtomicInteger();
+            race(8, () -> {
+                if (products.decrementProductQuantity(productID, 1)) {
+                    winners.incrementAndGet();
+                }
+            });
+            assertEquals("Round " + round, 1, winners.get());
+            assertEquals(0, (int) products.searchProductByID(productID).getProductQuantity());
+        }
+    }
+
+    @Test
+    public void testSellsAndReturnsBalance() throws InterruptedException {
+        int[] productIDs = {addProduct(50), addProduct(50), addProduct(50), addProduct(50)};
+        AtomicLong sold = new AtomicLong();
+        AtomicLong returned = new AtomicLong();
+        AtomicInteger negative = new AtomicInteger();
+        race(8, () -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int i = 0; i < 5000; i++) {
+                int productID = productIDs[random.nextInt(productIDs.length)];
+                int units = 1 + random.nextInt(3);
+                if (random.nextInt(3) == 0) {
+                    if (products.incrementProductQuantity(productID, units)) {
+                        returned.addAndGet(units);
+                    }
+                } else if (products.decrementProductQuantity(productID, units)) {
+                    sold.addAndGet(units);
+                }
+                if (products.searchProductByID(productID).getProductQuantity() < 0) {
+                    negative.incrementAndGet();
+                }
+            }
+        });
+        long stock = 0;
+        for (int productID : productIDs) {
+            stock += products.searchProductByID(productID).getProductQuantity();
+        }
+        assertEquals(0, negative.get());
+        assertEquals(4 * 50 - sold.get() + returned.get(), stock);
+    }
+
+    @Test
+    public void testQuantitiesBelowOneAreRefused() {
+        int productID = addProduct(10);
+        assertFalse(products.decrementProductQuantity(productID, 0));
+        assertFalse(products.decrementProductQuantity(productID, -5));
+        assertFalse(products.incrementProductQuantity(productID, 0));
+        assertFalse(products.incrementProductQuantity(productID, -5));
+        assertFalse(products.decrementProductQuantity(productID, Integer.MIN_VALUE));
+        assertEquals(10, (int) products.searchProductByID(productID).getProductQuantity());
+    }
+
+    @Test
+    public void testHeldUnitsCannotBeSoldByAnotherTerminal() throws InterruptedException {
+        int productID = addProduct(10);
+        assertTrue(products.holdProductQuantity(productID, 4));
+        AtomicInteger sold = new AtomicInteger();
+        race(8, () -> {
+            while (products.decrementProductQuantity(productID, 1)) {
+                sold.incrementAndGet();
+            }
+        });
+        assertEquals(6, sold.get());
+        assertEquals(0, products.availableQuantity(productID));
+        // The cart completes its sale: the held units leave the stock too
+        products.sellHeldProductQuantity(productID, 4, product -> {
+        });
+        assertEquals(0, (int) products.searchProductByID(productID).getProductQuantity());
+        assertFalse(products.holdProductQuantity(productID, 1));
+    }
+
+    @Test
+    public void testStockCannotBeSetBelowTheHeldUnits() {
+        int productID = addProduct(10);
+        assertTrue(products.holdProductQuantity(productID, 4));
+        assertFalse(products.updateProductQuantity(productID, 3));
+        Product product = products.searchProductByID(productID);
+        assertFalse(products.updateProduct(productID, products.versionOf(productID), product.getProductName(),
+                product.getProductDescription(), 500L, 3, product.getProductCategoryName()));
+        assertTrue(products.updateProductQuantity(productID, 4));
+        assertEquals(0, products.availableQuantity(productID));
+        products.sellHeldProductQuantity(productID, 4, sale -> {
+        });
+        assertEquals(0, (int) products.searchProductByID(productID).getProductQuantity());
+    }
+}
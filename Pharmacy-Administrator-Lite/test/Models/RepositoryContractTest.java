@@ -0,0 +1,279 @@
+package Models;
+
+import Interfaces.Repository;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+// The contract of Repository, run against every implementation the stores can be given
+@RunWith(Parameterized.class)
+public class RepositoryContractTest {
+
+    // Opens a repository of products in a directory, a new one or one already written to
+    private interface Opener {
+
+        Repository<Product> open(Path directory) throws IOException;
+    }
+
+    @Parameterized.Parameters(name = "{0}")
+    public static Collection<Object[]> repositories() {
+        return Arrays.asList(new Object[][]{
+            {"memory", (Opener) directory -> new MemoryRepository<>()},
+            {"file", (Opener) directory -> new FileRepository<>(directory.resolve("products.repo"),
+                EntityCodec::readProduct, EntityCodec::writeProduct)},
+            {"mapped", (Opener) MappedProductStore::new}
+        });
+    }
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final Opener opener;
+    private Path directory;
+    private Repository<Product> repository;
+
+    public RepositoryContractTest(String name, Opener opener) {
+        this.opener = opener;
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        directory = folder.newFolder().toPath();
+        repository = opener.open(directory);
+    }
+
+    @After
+    public void tearDown() {
+        repository.flush();
+    }
+
+    private static Product product(int id, String name, int quantity) {
+        return new Product(id, name, "Description of " + name, 1250L + id, quantity, "Category (" + (id % 3) + ")");
+    }
+
+    private static void assertSameProduct(Product expected, Product actual) {
+        assertNotNull("Product " + expected.getProductID() + " is missing", actual);
+        assertEquals(expected.getProductID(), actual.getProductID());
+        assertEquals(expected.getProductName(), actual.getProductName());
+        assertEquals(expected.getProductDescription(), actual.getProductDescription());
+        assertEquals(expected.getProductUnitPrice(), actual.getProductUnitPrice());
+        assertEquals(expected.getProductQuantity(), actual.getProductQuantity());
+        assertEquals(expected.getProductCategoryName(), actual.getProductCategoryName());
+    }
+
+    @Test
+    public void testEmptyRepository() {
+        assertEquals(0, repository.count());
+        assertEquals(0, repository.nextID());
+        assertNull(repository.get(0));
+        assertNull(repository.get(-1));
+        assertNull(repository.find(product -> true));
+        assertFalse(repository.remove(0));
+    }
+
+    @Test
+    public void testPutThenGet() {
+        Product aspirin = product(0, "Aspirin", 10);
+        Product ibuprofen = product(1, "Ibuprofen", 20);
+        repository.put(0, aspirin);
+        repository.put(1, ibuprofen);
+        assertSameProduct(aspirin, repository.get(0));
+        assertSameProduct(ibuprofen, repository.get(1));
+        assertNull(repository.get(2));
+        assertEquals(2, repository.count());
+        assertEquals(2, repository.nextID());
+    }
+
+    @Test
+    public void testPutReplacesTheValueOfAnID() {
+        repository.put(0, product(0, "Aspirin", 10));
+        Product renamed = product(0, "Aspirin Forte", 7);
+        repository.put(0, renamed);
+        assertSameProduct(renamed, repository.get(0));
+        assertEquals(1, repository.count());
+        Product restocked = product(0, "Aspirin Forte", 70); // Same strings, another stock
+        repository.put(0, restocked);
+        assertSameProduct(restocked, repository.get(0));
+        assertEquals(1, repository.count());
+    }
+
+    @Test
+    public void testNullStrings() {
+        Product bare = new Product(0, "Bare", null, 100L, 1, null);
+        repository.put(0, bare);
+        assertSameProduct(bare, repository.get(0));
+    }
+
+    @Test
+    public void testRemove() {
+        repository.put(0, product(0, "Aspirin", 10));
+        repository.put(1, product(1, "Ibuprofen", 20));
+        assertTrue(repository.remove(0));
+        assertFalse(repository.remove(0));
+        assertFalse(repository.remove(5));
+        assertNull(repository.get(0));
+        assertNotNull(repository.get(1));
+        assertEquals(1, repository.count());
+    }
+
+    @Test
+    public void testNextIDCountsRemovedIDs() {
+        repository.put(0, product(0, "Aspirin", 10));
+        repository.put(4, product(4, "Ibuprofen", 20));
+        assertEquals(5, repository.nextID());
+        assertTrue(repository.remove(4));
+        assertEquals(5, repository.nextID());
+    }
+
+    @Test
+    public void testPutAgainAfterRemove() {
+        repository.put(0, product(0, "Aspirin", 10));
+        assertTrue(repository.remove(0));
+        Product again = product(0, "Paracetamol", 3);
+        repository.put(0, again);
+        assertSameProduct(again, repository.get(0));
+        assertEquals(1, repository.count());
+    }
+
+    @Test
+    public void testScanVisitsEveryLiveValueOnce() {
+        for (int id = 0; id < 100; id++) {
+            repository.put(id, product(id, "Product " + id, id));
+        }
+        for (int id = 0; id < 100; id += 10) {
+            repository.remove(id);
+        }
+        List<Integer> seen = new ArrayList<>();
+        repository.scan(product -> seen.add(product.getProductID()));
+        seen.sort(null);
+        List<Integer> expected = new ArrayList<>();
+        for (int id = 0; id < 100; id++) {
+            if (id % 10 != 0) {
+                expected.add(id);
+            }
+        }
+        assertEquals(expected, seen);
+    }
+
+    @Test
+    public void testFind() {
+        repository.put(0, product(0, "Aspirin", 10));
+        repository.put(1, product(1, "Ibuprofen", 20));
+        assertSameProduct(product(1, "Ibuprofen", 20), repository.find(product -> product.getProductQuantity() > 15));
+        assertNull(repository.find(product -> product.getProductQuantity() > 50));
+        repository.remove(1);
+        assertNull(repository.find(product -> product.getProductQuantity() > 15));
+    }
+
+    @Test
+    public void testClear() {
+        for (int id = 0; id < 10; id++) {
+            repository.put(id, product(id, "Product " + id, id));
+        }
+        repository.clear();
+        assertEquals(0, repository.count());
+        assertNull(repository.get(3));
+        assertNull(repository.find(product -> true));
+        repository.put(3, product(3, "Again", 1));
+        assertEquals(1, repository.count());
+    }
+
+    @Test
+    public void testConcurrentReplacementsOfDifferentIDs() throws InterruptedException {
+        int threads = 4;
+        int perThread = 250;
+        for (int id = 0; id < threads * perThread; id++) {
+            repository.put(id, product(id, "Product " + id, 0));
+        }
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int first = t * perThread;
+            Thread worker = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException ex) {
+                    return;
+                }
+                for (int round = 1; round <= 20; round++) {
+                    for (int id = first; id < first + perThread; id++) {
+                        repository.put(id, product(id, "Product " + id, round));
+                    }
+                }
+            });
+            workers.add(worker);
+            worker.start();
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        assertEquals(threads * perThread, repository.count());
+        for (int id = 0; id < threads * perThread; id++) {
+            assertSameProduct(product(id, "Product " + id, 20), repository.get(id));
+        }
+    }
+
+    @Test
+    public void testReopenKeepsTheValuesOfADurableRepository() throws IOException {
+        if (!repository.isDurable()) {
+            return; // Persisted by the journal and the snapshots instead
+        }
+        for (int id = 0; id < 50; id++) {
+            repository.put(id, product(id, "Product " + id, id));
+        }
+        repository.put(7, product(7, "Renamed", 70));
+        repository.remove(9);
+        repository.flush();
+        Repository<Product> reopened = opener.open(directory);
+        assertEquals(49, reopened.count());
+        assertEquals(50, reopened.nextID());
+        assertSameProduct(product(7, "Renamed", 70), reopened.get(7));
+        assertNull(reopened.get(9));
+        assertSameProduct(product(42, "Product 42", 42), reopened.get(42));
+    }
+
+    @Test
+    public void testRewritesKeepTheLatestValuesAndTheFileSmall() throws IOException {
+        String padding = "x".repeat(1000);
+        for (int round = 0; round < 500; round++) {
+            for (int id = 0; id < 10; id++) {
+                repository.put(id, product(id, "Product " + id + padding, round));
+            }
+            repository.remove(10);
+            repository.put(10, product(10, "Removed " + round, round));
+        }
+        assertEquals(11, repository.count());
+        for (int id = 0; id < 10; id++) {
+            assertSameProduct(product(id, "Product " + id + padding, 499), repository.get(id));
+        }
+        assertSameProduct(product(10, "Removed 499", 499), repository.get(10));
+        if (repository instanceof FileRepository) {
+            // About 5 MB were written; the dead records are dropped while the repository is open
+            assertTrue(Files.size(directory.resolve("products.repo")) < 2 << 20);
+        }
+        if (repository.isDurable()) {
+            repository.flush();
+            Repository<Product> reopened = opener.open(directory);
+            assertEquals(11, reopened.count());
+            assertSameProduct(product(3, "Product 3" + padding, 499), reopened.get(3));
+        }
+    }
+}